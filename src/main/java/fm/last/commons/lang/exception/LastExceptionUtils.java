@@ -47,6 +47,31 @@ public class LastExceptionUtils {
     return throwables;
   }
 
+  /**
+   * Checks whether the passed Throwable, or any Throwable nested within it, is assignable to the passed type.
+   * SQLExceptions chained with getNextException are checked too.
+   * 
+   * @param throwable The Throwable to check.
+   * @param type The type to look for.
+   * @return true if a matching Throwable was found.
+   */
+  public static boolean isOrContainsThrowableOfType(Throwable throwable, Class<?> type) {
+    while (throwable != null) {
+      if (type.isAssignableFrom(throwable.getClass())) {
+        return true;
+      }
+      if (throwable instanceof SQLException) {
+        for (Throwable next : extractNestedSQLExceptions((SQLException) throwable)) {
+          if (type.isAssignableFrom(next.getClass())) {
+            return true;
+          }
+        }
+      }
+      throwable = throwable.getCause();
+    }
+    return false;
+  }
+
   private static List<Throwable> extractNestedSQLExceptions(SQLException exception) {
     List<Throwable> throwables = new ArrayList<Throwable>();
     while (exception.getNextException() != null) {
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.string;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Helper class to parse bytes with varying delimiters and token sizes, such as records that mix text fields with
+ * binary ones. Unlike {@link StringSplitter#getNextBytes(int)}, nothing is decoded until a token is asked for as a
+ * String, so binary fields and multi-byte characters come through intact.
+ * <p>
+ * The input may be a byte array or any ByteBuffer, including a memory-mapped file. Offsets are in bytes from the start
+ * of the input. String delimiters are encoded with the splitter's charset and matched byte for byte, which finds
+ * exactly the encoded characters in UTF-8, ASCII and the single byte charsets, but may match across character
+ * boundaries in charsets such as UTF-16.
+ */
+public class ByteSplitter {
+
+  private final ByteBuffer input;
+  private final Charset charset;
+
+  private int position;
+  private int tokenStart;
+  private int tokenEnd;
+
+  private String lastDelimiter;
+  private byte[] lastDelimiterBytes;
+
+  /**
+   * @param input The bytes to split.
+   * @param charset The charset of the text in the input.
+   */
+  public ByteSplitter(byte[] input, Charset charset) {
+    this(input, 0, input == null ? 0 : input.length, charset);
+  }
+
+  /**
+   * @param input The array holding the bytes to split.
+   * @param offset The offset of the first byte to split.
+   * @param length The number of bytes to split.
+   * @param charset The charset of the text in the input.
+   */
+  public ByteSplitter(byte[] input, int offset, int length, Charset charset) {
+    this(input == null ? null : ByteBuffer.wrap(input, offset, length), charset);
+  }
+
+  /**
+   * @param input The bytes between the buffer's position and limit are split. The buffer's position and limit are not
+   *          changed, and tokens returned by {@link #getToken()} share its content, so it should not be changed while
+   *          they are in use.
+   * @param charset The charset of the text in the input.
+   */
+  public ByteSplitter(ByteBuffer input, Charset charset) {
+    if (input == null) {
+      throw new IllegalArgumentException("input cannot be null");
+    }
+    if (charset == null) {
+      throw new IllegalArgumentException("charset cannot be null");
+    }
+    this.input = input.slice();
+    this.charset = charset;
+  }
+
+  /**
+   * Starting from the current reading position, extract the next token terminated by delimiter and decode it. Advances
+   * the read pointer past the delimiter.
+   * 
+   * @param delimiter The delimiter, which is encoded with the splitter's charset.
+   * @throws IllegalStateException if the rest of the input doesn't contain the delimiter
+   */
+  public String getNextToken(String delimiter) {
+    readToken(delimiter);
+    return getTokenAsString();
+  }
+
+  /**
+   * Starting from the current reading position, extract the next token terminated by the delimiter byte and decode it.
+   * Advances the read pointer past the delimiter.
+   * 
+   * @throws IllegalStateException if the rest of the input doesn't contain the delimiter
+   */
+  public String getNextToken(byte delimiter) {
+    readToken(delimiter);
+    return getTokenAsString();
+  }
+
+  /**
+   * Starting from the current reading position, extract the next numBytes bytes. Advances the read pointer past the
+   * returned output.
+   * 
+   * @throws IndexOutOfBoundsException if fewer than numBytes bytes remain
+   */
+  public byte[] getNextBytes(int numBytes) {
+    readBytes(numBytes);
+    byte[] bytes = new byte[numBytes];
+    for (int i = 0; i < numBytes; i++) {
+      bytes[i] = input.get(tokenStart + i);
+    }
+    return bytes;
+  }
+
+  /**
+   * Like {@link #getNextToken(String)}, but only records the token's position.
+   * 
+   * @return The length of the token in bytes.
+   * @throws IllegalStateException if the rest of the input doesn't contain the delimiter
+   */
+  public int readToken(String delimiter) {
+    return readToken(encode(delimiter));
+  }
+
+  /**
+   * Like {@link #readToken(String)}, for a delimiter that is already encoded or is not text.
+   * 
+   * @return The length of the token in bytes.
+   * @throws IllegalStateException if the rest of the input doesn't contain the delimiter
+   */
+  public int readToken(byte[] delimiter) {
+    if (delimiter == null || delimiter.length == 0) {
+      throw new IllegalArgumentException("delimiter cannot be null or empty");
+    }
+    int index = indexOf(delimiter);
+    if (index < 0) {
+      throw new IllegalStateException("Token delimiter '" + decode(delimiter) + "' not found after byte offset "
+          + position);
+    }
+    return advance(index, index + delimiter.length);
+  }
+
+  /**
+   * Like {@link #getNextToken(byte)}, but only records the token's position.
+   * 
+   * @return The length of the token in bytes.
+   * @throws IllegalStateException if the rest of the input doesn't contain the delimiter
+   */
+  public int readToken(byte delimiter) {
+    int limit = input.limit();
+    for (int index = position; index < limit; index++) {
+      if (input.get(index) == delimiter) {
+        return advance(index, index + 1);
+      }
+    }
+    throw new IllegalStateException("Token delimiter 0x" + Integer.toHexString(delimiter & 0xFF)
+        + " not found after byte offset " + position);
+  }
+
+  /**
+   * Like {@link #getNextBytes(int)}, but only records the token's position.
+   * 
+   * @return The length of the token in bytes.
+   * @throws IndexOutOfBoundsException if fewer than numBytes bytes remain
+   */
+  public int readBytes(int numBytes) {
+    if (numBytes < 0 || numBytes > getRemainingLength()) {
+      throw new IndexOutOfBoundsException("Cannot read " + numBytes + " bytes, " + getRemainingLength() + " remaining");
+    }
+    return advance(position + numBytes, position + numBytes);
+  }
+
+  /**
+   * @return The last token read as a read-only buffer sharing the input's content.
+   */
+  public ByteBuffer getToken() {
+    return slice(tokenStart, tokenEnd).asReadOnlyBuffer();
+  }
+
+  /**
+   * @return The last token read, decoded with the splitter's charset.
+   */
+  public String getTokenAsString() {
+    if (input.hasArray()) {
+      return new String(input.array(), input.arrayOffset() + tokenStart, tokenEnd - tokenStart, charset);
+    }
+    return charset.decode(slice(tokenStart, tokenEnd)).toString();
+  }
+
+  /**
+   * @return The byte offset in the input of the start of the last token read.
+   */
+  public int getTokenStart() {
+    return tokenStart;
+  }
+
+  /**
+   * @return The byte offset in the input after the end of the last token read.
+   */
+  public int getTokenEnd() {
+    return tokenEnd;
+  }
+
+  /**
+   * Advances the read pointer past the delimiter, which is encoded with the splitter's charset.
+   * 
+   * @throws IllegalStateException if the rest of the input doesn't start with the delimiter
+   */
+  public void skipDelimiter(String delimiter) {
+    byte[] bytes = encode(delimiter);
+    if (!startsWith(bytes, position)) {
+      throw new IllegalStateException("Input does not start with token delimiter '" + delimiter + "' at byte offset "
+          + position);
+    }
+    position += bytes.length;
+  }
+
+  /**
+   * Returns the current read pointer position (in number of bytes).
+   */
+  public int getCurrentOffset() {
+    return position;
+  }
+
+  /**
+   * Returns the number of bytes after the read pointer.
+   */
+  public int getRemainingLength() {
+    return input.limit() - position;
+  }
+
+  public Charset getCharset() {
+    return charset;
+  }
+
+  private int advance(int delimiterStart, int delimiterEnd) {
+    tokenStart = position;
+    tokenEnd = delimiterStart;
+    position = delimiterEnd;
+    return tokenEnd - tokenStart;
+  }
+
+  /**
+   * Callers tend to pass the same delimiter constants over and over, so the last one is kept encoded.
+   */
+  private byte[] encode(String delimiter) {
+    if (delimiter == null || delimiter.isEmpty()) {
+      throw new IllegalArgumentException("delimiter cannot be null or empty");
+    }
+    if (!delimiter.equals(lastDelimiter)) {
+      lastDelimiterBytes = delimiter.getBytes(charset);
+      lastDelimiter = delimiter;
+    }
+    return lastDelimiterBytes;
+  }
+
+  private String decode(byte[] bytes) {
+    return new String(bytes, charset);
+  }
+
+  private int indexOf(byte[] delimiter) {
+    byte first = delimiter[0];
+    int last = input.limit() - delimiter.length;
+    for (int index = position; index <= last; index++) {
+      if (input.get(index) == first && startsWith(delimiter, index)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private boolean startsWith(byte[] prefix, int offset) {
+    if (input.limit() - offset < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (input.get(offset + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ByteBuffer slice(int start, int end) {
+    ByteBuffer view = input.duplicate();
+    // through Buffer, as ByteBuffer's covariant overrides from Java 9 don't exist on Java 8
+    ((Buffer) view).limit(end);
+    ((Buffer) view).position(start);
+    return view.slice();
+  }
+
+}
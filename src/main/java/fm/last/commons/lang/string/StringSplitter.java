@@ -15,18 +15,52 @@
  */
 package fm.last.commons.lang.string;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Helper class to parse a character sequence with varying delimiters and string token sizes.
+ * <p>
+ * The splitter keeps a read position in the original input rather than copying the unread part after every token.
+ * Delimiters without regular expression metacharacters are found with a plain search, and other delimiters are compiled
+ * once and shared by all splitters. The {@code readToken} methods advance without creating strings, leaving the last
+ * token available as offsets ({@link #getTokenStart()}, {@link #getTokenEnd()}) or as a view ({@link #getToken()}).
  * 
  * @author martind
  */
 public class StringSplitter {
 
+  private static final String REGEX_METACHARACTERS = ".$|()[]{}^?*+\\";
+
+  /** Delimiters are usually a handful of constants, but don't let unusual callers fill the heap. */
+  private static final int MAX_CACHED_PATTERNS = 1024;
+
+  private static final ConcurrentMap<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+
   private final int oldLength;
 
-  private String input;
+  private CharSequence input;
+  private int position;
+  private int tokenStart;
+  private int tokenEnd;
+  private Matcher matcher;
 
   public StringSplitter(String input) {
+    this((CharSequence) input);
+  }
+
+  /**
+   * @param input The characters to split. Tokens returned by {@link #getToken()} are views of the input, so it should
+   *          not be changed while they are in use.
+   */
+  public StringSplitter(CharSequence input) {
     this.input = input;
     oldLength = input.length();
   }
@@ -39,12 +73,19 @@ public class StringSplitter {
    * @throws IllegalStateException if the current string value doesn't contain the delimiter sequence
    */
   public String getNextToken(String delimiter) {
-    String[] tokens = input.split(delimiter, 2);
-    if (tokens.length != 2) {
-      throw new IllegalStateException("Token delimiter '" + delimiter + "' not found in string: '" + input + "'");
-    }
-    input = tokens[1];
-    return tokens[0];
+    readToken(delimiter);
+    return input.subSequence(tokenStart, tokenEnd).toString();
+  }
+
+  /**
+   * Starting from the current reading position, extract the next token terminated by a match of the pattern. Advances
+   * the read pointer past the match.
+   * 
+   * @throws IllegalStateException if the pattern doesn't match the rest of the input
+   */
+  public String getNextToken(Pattern delimiter) {
+    readToken(delimiter);
+    return input.subSequence(tokenStart, tokenEnd).toString();
   }
 
   /**
@@ -52,44 +93,248 @@ public class StringSplitter {
    * past the returned output.
    */
   public String getNextToken(int numCharacters) {
-    String token = input.substring(0, numCharacters);
-    input = input.substring(numCharacters);
-    return token;
+    readToken(numCharacters);
+    return input.subSequence(tokenStart, tokenEnd).toString();
+  }
+
+  /**
+   * Like {@link #getNextToken(String)}, but only records the token's position.
+   * 
+   * @return The length of the token.
+   * @throws IllegalStateException if the current string value doesn't contain the delimiter sequence
+   */
+  public int readToken(String delimiter) {
+    if (isLiteral(delimiter)) {
+      int index = indexOf(delimiter);
+      if (index < 0) {
+        throw new IllegalStateException("Token delimiter '" + delimiter + "' not found in string: '" + remaining()
+            + "'");
+      }
+      return advance(index, index + delimiter.length());
+    }
+    return readToken(getPattern(delimiter));
+  }
+
+  /**
+   * Like {@link #getNextToken(Pattern)}, but only records the token's position.
+   * 
+   * @return The length of the token.
+   * @throws IllegalStateException if the pattern doesn't match the rest of the input
+   */
+  public int readToken(Pattern delimiter) {
+    if (matcher == null || matcher.pattern() != delimiter) {
+      matcher = delimiter.matcher(input);
+    }
+    // the region keeps ^ and lookbehinds from seeing the input before the read position, as if it had been cut off
+    matcher.region(position, input.length());
+    boolean found = matcher.find();
+    // as in String.split, an empty match at the read position doesn't end an empty token
+    if (found && matcher.start() == position && matcher.end() == position) {
+      found = matcher.find();
+    }
+    if (!found) {
+      throw new IllegalStateException("Token delimiter '" + delimiter + "' not found in string: '" + remaining() + "'");
+    }
+    return advance(matcher.start(), matcher.end());
+  }
+
+  /**
+   * Like {@link #getNextToken(int)}, but only records the token's position.
+   * 
+   * @return The length of the token.
+   */
+  public int readToken(int numCharacters) {
+    checkLength(numCharacters);
+    return advance(position + numCharacters, position + numCharacters);
+  }
+
+  /**
+   * @return The last token read as a view of the input, which copies nothing until {@link CharSequence#toString()}.
+   */
+  public CharSequence getToken() {
+    return new CharSequenceView(input, tokenStart, tokenEnd);
+  }
+
+  /**
+   * @return The offset in the input of the first character of the last token read.
+   */
+  public int getTokenStart() {
+    return tokenStart;
+  }
+
+  /**
+   * @return The offset in the input after the last character of the last token read.
+   */
+  public int getTokenEnd() {
+    return tokenEnd;
   }
 
   /**
    * Starting from the current reading position, extract the next numBytes bytes. Advances the read pointer past the
    * returned output. Caution: this will destroy successive characters when the read pointer is stopped at a
-   * non-character boundary.
+   * non-character boundary. {@link ByteSplitter} splits bytes without decoding and re-encoding them.
    */
   public byte[] getNextBytes(int numBytes) {
-    byte[] buf = input.getBytes();
+    if (numBytes >= 0) {
+      CharsetEncoder encoder = Charset.defaultCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      CharBuffer chars = CharBuffer.wrap(input, position, input.length());
+      ByteBuffer bytes = ByteBuffer.allocate(numBytes);
+      encoder.encode(chars, bytes, true);
+      if (!bytes.hasRemaining() && encoder.flush(bytes).isUnderflow()) {
+        // the bytes end on a character boundary, so the rest of the input can stay as it is
+        advance(chars.position(), chars.position());
+        return bytes.array();
+      }
+    }
+    byte[] buf = remaining().getBytes();
     input = new String(buf, numBytes, buf.length - numBytes);
-    // return new String(buf, 0, numBytes);
+    position = 0;
+    tokenStart = 0;
+    tokenEnd = 0;
+    matcher = null;
     byte[] result = new byte[numBytes];
-    for (int i = 0; i < numBytes; i++) {
-      result[i] = buf[i];
-    }
+    System.arraycopy(buf, 0, result, 0, numBytes);
     return result;
   }
 
   public void skipDelimiter(String delimiter) {
-    if (input.startsWith(delimiter)) {
-      input = input.substring(delimiter.length());
+    if (startsWith(delimiter, position)) {
+      position += delimiter.length();
     } else {
-      throw new IllegalStateException("String does not start with token delimiter '" + delimiter + "': '" + input + "'");
+      throw new IllegalStateException("String does not start with token delimiter '" + delimiter + "': '" + remaining()
+          + "'");
     }
   }
 
   public String peek(int numChars) {
-    return input.substring(0, numChars);
+    checkLength(numChars);
+    return input.subSequence(position, position + numChars).toString();
   }
 
   /**
    * Returns the current read pointer position (in number of characters).
    */
   public int getCurrentOffset() {
-    return oldLength - input.length();
+    return oldLength - getRemainingLength();
+  }
+
+  /**
+   * Returns the number of characters after the read pointer.
+   */
+  public int getRemainingLength() {
+    return input.length() - position;
+  }
+
+  private int advance(int delimiterStart, int delimiterEnd) {
+    tokenStart = position;
+    tokenEnd = delimiterStart;
+    position = delimiterEnd;
+    return tokenEnd - tokenStart;
+  }
+
+  private void checkLength(int numCharacters) {
+    if (numCharacters < 0 || numCharacters > getRemainingLength()) {
+      throw new StringIndexOutOfBoundsException("Cannot read " + numCharacters + " characters, "
+          + getRemainingLength() + " remaining");
+    }
+  }
+
+  private String remaining() {
+    return input.subSequence(position, input.length()).toString();
+  }
+
+  private int indexOf(String delimiter) {
+    if (input instanceof String) {
+      return ((String) input).indexOf(delimiter, position);
+    }
+    char first = delimiter.charAt(0);
+    int last = input.length() - delimiter.length();
+    for (int index = position; index <= last; index++) {
+      if (input.charAt(index) == first && startsWith(delimiter, index)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private boolean startsWith(String prefix, int offset) {
+    if (input.length() - offset < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (input.charAt(offset + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isLiteral(String delimiter) {
+    if (delimiter.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < delimiter.length(); i++) {
+      if (REGEX_METACHARACTERS.indexOf(delimiter.charAt(i)) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Pattern getPattern(String delimiter) {
+    Pattern pattern = patterns.get(delimiter);
+    if (pattern == null) {
+      pattern = Pattern.compile(delimiter);
+      if (patterns.size() < MAX_CACHED_PATTERNS) {
+        patterns.putIfAbsent(delimiter, pattern);
+      }
+    }
+    return pattern;
+  }
+
+  /**
+   * A read-only window on part of a character sequence.
+   */
+  private static final class CharSequenceView implements CharSequence {
+
+    private final CharSequence sequence;
+    private final int start;
+    private final int end;
+
+    CharSequenceView(CharSequence sequence, int start, int end) {
+      this.sequence = sequence;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int length() {
+      return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= length()) {
+        throw new StringIndexOutOfBoundsException(index);
+      }
+      return sequence.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int subStart, int subEnd) {
+      if (subStart < 0 || subStart > subEnd || subEnd > length()) {
+        throw new StringIndexOutOfBoundsException("Range [" + subStart + ", " + subEnd + ") out of bounds for length "
+            + length());
+      }
+      return new CharSequenceView(sequence, start + subStart, start + subEnd);
+    }
+
+    @Override
+    public String toString() {
+      return sequence.subSequence(start, end).toString();
+    }
+
   }
 
-}
\ No newline at end of file
+}
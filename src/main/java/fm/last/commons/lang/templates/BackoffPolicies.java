@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory methods for the standard {@link BackoffPolicy} implementations. The jittered policies spread the retries of
+ * many clients over time so that they do not all hit a recovering service at the same instant.
+ */
+public final class BackoffPolicies {
+
+  private static final BackoffPolicy NONE = new FixedBackoff(0);
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private BackoffPolicies() {
+  }
+
+  /**
+   * @return A policy that retries immediately.
+   */
+  public static BackoffPolicy none() {
+    return NONE;
+  }
+
+  /**
+   * @return A policy that always waits for the same delay. Negative delays are treated as zero.
+   */
+  public static BackoffPolicy fixed(long delay, TimeUnit unit) {
+    return new FixedBackoff(unit.toNanos(Math.max(0, delay)));
+  }
+
+  /**
+   * @return A policy that waits initialDelay after the first failure, multiplying the delay by multiplier after each
+   *         subsequent failure.
+   */
+  public static BackoffPolicy exponential(long initialDelay, double multiplier, TimeUnit unit) {
+    validateDelay(initialDelay);
+    if (multiplier < 1) {
+      throw new IllegalArgumentException("Multiplier cannot be less than 1");
+    }
+    return new ExponentialBackoff(unit.toNanos(initialDelay), multiplier);
+  }
+
+  /**
+   * @return A policy that waits for a random delay between zero and an exponentially growing ceiling, starting at
+   *         baseDelay and doubling after each failure, never exceeding maxDelay.
+   */
+  public static BackoffPolicy fullJitter(long baseDelay, long maxDelay, TimeUnit unit) {
+    validateDelays(baseDelay, maxDelay);
+    return new FullJitterBackoff(unit.toNanos(baseDelay), unit.toNanos(maxDelay));
+  }
+
+  /**
+   * @return A policy that waits for a random delay between baseDelay and three times the previous delay, never
+   *         exceeding maxDelay.
+   */
+  public static BackoffPolicy decorrelatedJitter(long baseDelay, long maxDelay, TimeUnit unit) {
+    validateDelays(baseDelay, maxDelay);
+    return new DecorrelatedJitterBackoff(unit.toNanos(baseDelay), unit.toNanos(maxDelay));
+  }
+
+  /**
+   * @return A policy that waits for the delay of the given policy, but never longer than maxDelay.
+   */
+  public static BackoffPolicy capped(BackoffPolicy policy, long maxDelay, TimeUnit unit) {
+    if (policy == null) {
+      throw new IllegalArgumentException("Policy cannot be null");
+    }
+    validateDelay(maxDelay);
+    return new CappedBackoff(policy, unit.toNanos(maxDelay));
+  }
+
+  private static void validateDelay(long delay) {
+    if (delay < 0) {
+      throw new IllegalArgumentException("Delay cannot be negative");
+    }
+  }
+
+  private static void validateDelays(long baseDelay, long maxDelay) {
+    validateDelay(baseDelay);
+    if (baseDelay > maxDelay) {
+      throw new IllegalArgumentException("Base delay cannot be greater than max delay");
+    }
+  }
+
+  /**
+   * @return Random value between min and max inclusive.
+   */
+  private static long randomBetween(long min, long max) {
+    if (max <= min) {
+      return min;
+    }
+    if (max == Long.MAX_VALUE) {
+      return ThreadLocalRandom.current().nextLong(min, max);
+    }
+    return ThreadLocalRandom.current().nextLong(min, max + 1);
+  }
+
+  /**
+   * @return base * 2^(attempt - 1), or cap if that is greater.
+   */
+  private static long doubling(long base, int attempt, long cap) {
+    int shift = attempt - 1;
+    if (shift >= 63 || base > (cap >> shift)) {
+      return cap;
+    }
+    return base << shift;
+  }
+
+  private static final class FixedBackoff implements BackoffPolicy {
+    private final long delayNanos;
+
+    private FixedBackoff(long delayNanos) {
+      this.delayNanos = delayNanos;
+    }
+
+    @Override
+    public long nextDelayNanos(int attempt, long previousDelayNanos) {
+      return delayNanos;
+    }
+  }
+
+  private static final class ExponentialBackoff implements BackoffPolicy {
+    private final long initialDelayNanos;
+    private final double multiplier;
+
+    private ExponentialBackoff(long initialDelayNanos, double multiplier) {
+      this.initialDelayNanos = initialDelayNanos;
+      this.multiplier = multiplier;
+    }
+
+    @Override
+    public long nextDelayNanos(int attempt, long previousDelayNanos) {
+      double delay = initialDelayNanos * Math.pow(multiplier, attempt - 1);
+      // the cast saturates at Long.MAX_VALUE
+      return (long) delay;
+    }
+  }
+
+  private static final class FullJitterBackoff implements BackoffPolicy {
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    private FullJitterBackoff(long baseDelayNanos, long maxDelayNanos) {
+      this.baseDelayNanos = baseDelayNanos;
+      this.maxDelayNanos = maxDelayNanos;
+    }
+
+    @Override
+    public long nextDelayNanos(int attempt, long previousDelayNanos) {
+      return randomBetween(0, doubling(baseDelayNanos, attempt, maxDelayNanos));
+    }
+  }
+
+  private static final class DecorrelatedJitterBackoff implements BackoffPolicy {
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    private DecorrelatedJitterBackoff(long baseDelayNanos, long maxDelayNanos) {
+      this.baseDelayNanos = baseDelayNanos;
+      this.maxDelayNanos = maxDelayNanos;
+    }
+
+    @Override
+    public long nextDelayNanos(int attempt, long previousDelayNanos) {
+      long previous = Math.max(baseDelayNanos, previousDelayNanos);
+      long ceiling = previous > maxDelayNanos / 3 ? maxDelayNanos : previous * 3;
+      return randomBetween(baseDelayNanos, ceiling);
+    }
+  }
+
+  private static final class CappedBackoff implements BackoffPolicy {
+    private final BackoffPolicy policy;
+    private final long maxDelayNanos;
+
+    private CappedBackoff(BackoffPolicy policy, long maxDelayNanos) {
+      this.policy = policy;
+      this.maxDelayNanos = maxDelayNanos;
+    }
+
+    @Override
+    public long nextDelayNanos(int attempt, long previousDelayNanos) {
+      return Math.min(maxDelayNanos, policy.nextDelayNanos(attempt, previousDelayNanos));
+    }
+  }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+/**
+ * Decides how long {@link RetryTemplate} waits between attempts. Implementations should be stateless so that a single
+ * instance can be shared between templates and threads; any state needed across attempts is passed in. See
+ * {@link BackoffPolicies} for the built in policies.
+ */
+public interface BackoffPolicy {
+
+  /**
+   * @param attempt The number of attempts that have failed so far, starting at 1.
+   * @param previousDelayNanos The delay returned for the previous attempt, or 0 after the first attempt.
+   * @return The number of nanoseconds to wait before the next attempt. A negative value is treated as 0: the policy
+   *         only decides how long to wait, whether to retry at all is up to the template.
+   */
+  long nextDelayNanos(int attempt, long previousDelayNanos);
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Outcome of {@link RetryTemplate#executeBatch(java.util.Collection, RetryTemplate.BatchRetryCallback)}. During each
+ * round the callback reports the outcome of every item passed to it with {@link #succeeded(Object, Object)} or
+ * {@link #failed(Object, Exception)}; both may be called from any thread. Once the execution is over it holds the
+ * result of every item that succeeded and the last exception of every item that did not. Items are used as map keys,
+ * so they must implement equals and hashCode.
+ */
+public class BatchRetryResult<I, R> {
+
+  private final Map<I, R> results = new LinkedHashMap<I, R>();
+  private final Map<I, Exception> failures = new LinkedHashMap<I, Exception>();
+  private final Set<I> reported = new HashSet<I>();
+  private int rounds = 0;
+
+  BatchRetryResult() {
+  }
+
+  /**
+   * Reports that an item was processed successfully in the current round.
+   */
+  public synchronized void succeeded(I item, R result) {
+    reported.add(item);
+    failures.remove(item);
+    results.put(item, result);
+  }
+
+  /**
+   * Reports that an item failed in the current round. It is retried in the next round if the exception is retryable.
+   */
+  public synchronized void failed(I item, Exception e) {
+    reported.add(item);
+    failures.put(item, e);
+  }
+
+  /**
+   * @return The results of the items that succeeded, in the order they succeeded.
+   */
+  public synchronized Map<I, R> getResults() {
+    return Collections.unmodifiableMap(new LinkedHashMap<I, R>(results));
+  }
+
+  /**
+   * @return The last exception of each item that did not succeed.
+   */
+  public synchronized Map<I, Exception> getFailures() {
+    return Collections.unmodifiableMap(new LinkedHashMap<I, Exception>(failures));
+  }
+
+  /**
+   * @return true if every item succeeded.
+   */
+  public synchronized boolean isSuccessful() {
+    return failures.isEmpty();
+  }
+
+  /**
+   * @return The number of times the callback was called.
+   */
+  public synchronized int getRounds() {
+    return rounds;
+  }
+
+  synchronized void startRound() {
+    rounds++;
+    reported.clear();
+  }
+
+  /**
+   * Marks pending items that were not reported as failed, with the exception thrown by the callback if it threw one.
+   * 
+   * @return The items that did not succeed in this round.
+   */
+  synchronized List<I> endRound(List<I> pending, Exception roundFailure) {
+    List<I> failed = new ArrayList<I>();
+    for (I item : pending) {
+      if (!reported.contains(item)) {
+        failures.put(item, roundFailure != null ? roundFailure : new IllegalStateException("No outcome reported for "
+            + item));
+      }
+      if (failures.containsKey(item)) {
+        failed.add(item);
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Marks items that have no outcome as failed, as happens when no attempts are allowed.
+   */
+  synchronized void notProcessed(List<I> items) {
+    for (I item : items) {
+      if (!results.containsKey(item) && !failures.containsKey(item)) {
+        failures.put(item, new IllegalStateException("Not processed, no attempts left for " + item));
+      }
+    }
+  }
+
+  /**
+   * Marks items that have not succeeded as failed with the exception that stopped the execution, replacing the
+   * exception of any earlier round.
+   */
+  synchronized void stopped(List<I> items, Exception e) {
+    for (I item : items) {
+      if (!results.containsKey(item)) {
+        failures.put(item, e);
+      }
+    }
+  }
+
+  synchronized Exception getFailure(I item) {
+    return failures.get(item);
+  }
+
+}
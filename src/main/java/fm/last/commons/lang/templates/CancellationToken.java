@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import fm.last.commons.lang.time.Clock;
+
+/**
+ * Lets another thread stop an execution of a {@link RetryTemplate} without interrupting the thread running it, see
+ * {@link RetryTemplate#execute(RetryTemplate.RetryCallback, CancellationToken)}. Cancelling wakes the execution if it
+ * is waiting between attempts and prevents any further attempts; an attempt already in progress is left to finish.
+ * One token can be shared by many executions, eg. all those started for a request or by a component being shut down.
+ */
+public class CancellationToken {
+
+  private final CountDownLatch cancelled = new CountDownLatch(1);
+
+  /**
+   * Cancels all executions using this token. Has no effect if already cancelled.
+   */
+  public void cancel() {
+    cancelled.countDown();
+  }
+
+  public boolean isCancelled() {
+    return cancelled.getCount() == 0;
+  }
+
+  /**
+   * Waits until the token is cancelled or the given time has passed on the clock.
+   * 
+   * @return true if the token was cancelled.
+   */
+  boolean await(Clock clock, long timeoutNanos) throws InterruptedException {
+    return clock.await(cancelled, timeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+import fm.last.commons.lang.templates.RetryTemplate.RetryCallback;
+import fm.last.commons.lang.time.Clock;
+
+/**
+ * Stops calling a dependency that is failing so that callers fail fast instead of waiting on calls that are likely to
+ * fail. The breaker starts CLOSED and records the outcome of the most recent calls in a sliding window. Once enough
+ * calls have been recorded and the proportion of failures reaches the threshold it trips to OPEN, and all calls are
+ * rejected with a {@link CircuitBreakerOpenException}. After the open duration it moves to HALF_OPEN and lets a small
+ * number of trial calls through: if they all succeed it closes again, if any fails it re-opens. If the outcome of the
+ * trial calls has not been reported by the end of another open duration it also re-opens, so that a lost report cannot
+ * leave the breaker half open for good.
+ * <p>
+ * A breaker can guard single calls with {@link #execute(RetryCallback)} or every attempt made by a
+ * {@link RetryTemplate}, see {@link RetryTemplate#setCircuitBreaker(CircuitBreaker)}. Callers using
+ * {@link #tryAcquirePermission()} directly must report the outcome of every permitted call through its
+ * {@link Permit}. An outcome only counts towards the period it was permitted in, so a slow call let through while
+ * CLOSED cannot close or re-open the breaker once it has moved on. All state changes are lock-free.
+ */
+public class CircuitBreaker {
+  private static Logger log = Logger.getLogger(CircuitBreaker.class);
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private static final int NONE = 0;
+  private static final int SUCCESS = 1;
+  private static final int FAILURE = 2;
+
+  private final int windowSize;
+  private final int minimumCalls;
+  private final double failureRateThreshold;
+  private final long openDurationNanos;
+  private final int halfOpenPermits;
+  private final Clock clock;
+
+  private final AtomicReference<Status> status = new AtomicReference<Status>(new Status(State.CLOSED, 0, 0));
+  private final AtomicIntegerArray window;
+  private final AtomicLong windowCursor = new AtomicLong();
+  private final AtomicInteger recordedCalls = new AtomicInteger();
+  private final AtomicInteger failedCalls = new AtomicInteger();
+
+  /**
+   * Creates a breaker that trips once the whole window has been filled, and lets a single trial call through when half
+   * open.
+   * 
+   * @param windowSize Number of most recent calls to consider.
+   * @param failureRateThreshold Proportion of failed calls, between 0 and 1, at which the breaker opens.
+   * @param openDuration How long to reject calls for before letting trial calls through.
+   */
+  public CircuitBreaker(int windowSize, double failureRateThreshold, long openDuration, TimeUnit unit) {
+    this(windowSize, windowSize, failureRateThreshold, openDuration, unit, 1, Clock.getInstance());
+  }
+
+  /**
+   * @param windowSize Number of most recent calls to consider.
+   * @param minimumCalls Number of calls that must be recorded before the breaker can open.
+   * @param failureRateThreshold Proportion of failed calls, between 0 and 1, at which the breaker opens.
+   * @param openDuration How long to reject calls for before letting trial calls through.
+   * @param halfOpenPermits Number of trial calls that must succeed before the breaker closes again.
+   * @param clock Source of time for the open duration.
+   */
+  public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openDuration,
+      TimeUnit unit, int halfOpenPermits, Clock clock) {
+    if (windowSize < 1) {
+      throw new IllegalArgumentException("Window size must be at least 1");
+    }
+    if (minimumCalls < 1 || minimumCalls > windowSize) {
+      throw new IllegalArgumentException("Minimum calls must be between 1 and the window size");
+    }
+    if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+      throw new IllegalArgumentException("Failure rate threshold must be greater than 0 and at most 1");
+    }
+    if (openDuration < 0) {
+      throw new IllegalArgumentException("Open duration cannot be negative");
+    }
+    if (halfOpenPermits < 1) {
+      throw new IllegalArgumentException("Half open permits must be at least 1");
+    }
+    if (clock == null) {
+      throw new IllegalArgumentException("Clock cannot be null");
+    }
+    this.windowSize = windowSize;
+    this.minimumCalls = minimumCalls;
+    this.failureRateThreshold = failureRateThreshold;
+    openDurationNanos = unit.toNanos(openDuration);
+    this.halfOpenPermits = halfOpenPermits;
+    this.clock = clock;
+    window = new AtomicIntegerArray(windowSize);
+  }
+
+  /**
+   * Makes a single call through the breaker.
+   * 
+   * @throws CircuitBreakerOpenException If the breaker is not letting calls through.
+   */
+  public <T> T execute(RetryCallback<T> callback) throws Exception {
+    Permit permit = tryAcquirePermission();
+    if (permit == null) {
+      throw new CircuitBreakerOpenException("Circuit breaker is " + getState());
+    }
+    boolean success = false;
+    try {
+      T result = callback.doWithRetry();
+      success = true;
+      return result;
+    } finally {
+      if (success) {
+        permit.onSuccess();
+      } else {
+        permit.onFailure();
+      }
+    }
+  }
+
+  /**
+   * @return A permit to make a call now, through which its outcome must be reported, or null if the call is rejected.
+   */
+  public Permit tryAcquirePermission() {
+    while (true) {
+      Status current = status.get();
+      switch (current.state) {
+      case CLOSED:
+        return current.permit;
+      case OPEN:
+        long now = clock.nanoTime();
+        if (now - current.sinceNanos < openDurationNanos) {
+          return null;
+        }
+        if (status.compareAndSet(current, new Status(State.HALF_OPEN, now, halfOpenPermits))) {
+          log.info("Circuit breaker half open");
+        }
+        break;
+      case HALF_OPEN:
+        if (current.tryAcquireTrial()) {
+          return current.permit;
+        }
+        if (clock.nanoTime() - current.sinceNanos < openDurationNanos) {
+          return null;
+        }
+        log.warn("Circuit breaker trial calls not reported");
+        open(current);
+        break;
+      }
+    }
+  }
+
+  private void onSuccess(Status permitted) {
+    if (status.get() != permitted) {
+      // the breaker has moved on since the call was permitted
+      return;
+    }
+    if (permitted.state == State.CLOSED) {
+      record(SUCCESS);
+    } else if (permitted.recordTrialSuccess() >= halfOpenPermits) {
+      if (status.compareAndSet(permitted, new Status(State.CLOSED, 0, 0))) {
+        clearWindow();
+        log.info("Circuit breaker closed");
+      }
+    }
+  }
+
+  private void onFailure(Status permitted) {
+    if (status.get() != permitted) {
+      return;
+    }
+    if (permitted.state == State.CLOSED) {
+      record(FAILURE);
+      int recorded = recordedCalls.get();
+      if (recorded >= minimumCalls && failedCalls.get() >= failureRateThreshold * recorded) {
+        open(permitted);
+      }
+    } else {
+      open(permitted);
+    }
+  }
+
+  public State getState() {
+    return status.get().state;
+  }
+
+  /**
+   * @return The proportion of failed calls in the current window, or 0 if no calls have been recorded.
+   */
+  public double getFailureRate() {
+    int recorded = recordedCalls.get();
+    return recorded == 0 ? 0 : (double) failedCalls.get() / recorded;
+  }
+
+  private void open(Status current) {
+    if (status.compareAndSet(current, new Status(State.OPEN, clock.nanoTime(), 0))) {
+      log.warn("Circuit breaker opened, failure rate " + getFailureRate());
+    }
+  }
+
+  private void record(int outcome) {
+    int slot = (int) (windowCursor.getAndIncrement() % windowSize);
+    updateCounts(window.getAndSet(slot, outcome), outcome);
+  }
+
+  private void clearWindow() {
+    for (int slot = 0; slot < windowSize; slot++) {
+      updateCounts(window.getAndSet(slot, NONE), NONE);
+    }
+  }
+
+  /**
+   * Keeps the counters in step with a window slot being overwritten.
+   */
+  private void updateCounts(int previous, int outcome) {
+    if (previous == NONE && outcome != NONE) {
+      recordedCalls.incrementAndGet();
+    } else if (previous != NONE && outcome == NONE) {
+      recordedCalls.decrementAndGet();
+    }
+    if (previous == FAILURE && outcome != FAILURE) {
+      failedCalls.decrementAndGet();
+    } else if (previous != FAILURE && outcome == FAILURE) {
+      failedCalls.incrementAndGet();
+    }
+  }
+
+  /**
+   * Permission to make one call, given by {@link CircuitBreaker#tryAcquirePermission()}. Exactly one of the methods
+   * must be called once the call has completed.
+   */
+  public final class Permit {
+    private final Status status;
+
+    private Permit(Status status) {
+      this.status = status;
+    }
+
+    /**
+     * Reports that the permitted call succeeded.
+     */
+    public void onSuccess() {
+      CircuitBreaker.this.onSuccess(status);
+    }
+
+    /**
+     * Reports that the permitted call failed.
+     */
+    public void onFailure() {
+      CircuitBreaker.this.onFailure(status);
+    }
+  }
+
+  /**
+   * Immutable apart from the trial counters, which belong to a single half open period. A new instance is swapped in on
+   * every transition, so that outcomes of calls permitted in a previous period can be told apart and ignored, and stale
+   * updates fail their compare and set. All calls permitted in one period share its permit.
+   */
+  private final class Status {
+    private final State state;
+    private final long sinceNanos;
+    private final AtomicInteger trialsAvailable;
+    private final AtomicInteger trialSuccesses = new AtomicInteger();
+    private final Permit permit = new Permit(this);
+
+    private Status(State state, long sinceNanos, int trials) {
+      this.state = state;
+      this.sinceNanos = sinceNanos;
+      trialsAvailable = new AtomicInteger(trials);
+    }
+
+    private boolean tryAcquireTrial() {
+      while (true) {
+        int available = trialsAvailable.get();
+        if (available <= 0) {
+          return false;
+        }
+        if (trialsAvailable.compareAndSet(available, available - 1)) {
+          return true;
+        }
+      }
+    }
+
+    private int recordTrialSuccess() {
+      return trialSuccesses.incrementAndGet();
+    }
+  }
+
+}
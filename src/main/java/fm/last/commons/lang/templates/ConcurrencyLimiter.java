@@ -0,0 +1,292 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import fm.last.commons.lang.templates.RetryTemplate.RetryCallback;
+import fm.last.commons.lang.time.Clock;
+
+/**
+ * Limits the number of concurrent calls to a dependency, adapting the limit to what the dependency can currently
+ * handle. The limit follows an AIMD (additive increase, multiplicative decrease) scheme: every call that succeeds
+ * within the latency threshold while the limit is in use raises the limit by 1/limit, so by about one per limit's
+ * worth of calls, and a call that fails or is slower than the threshold multiplies it by the backoff ratio. Only one
+ * decrease is applied for calls that were already in flight when the limit was last decreased, so a burst of slow
+ * calls does not collapse the limit.
+ * <p>
+ * Calls over the limit can be shed with {@link #execute(RetryCallback)}, or queued for a bounded time with
+ * {@link #execute(RetryCallback, long, TimeUnit)}. To limit every attempt made by a {@link RetryTemplate} call the
+ * limiter from within the template's callback. Callers using {@link #tryAcquire()} or
+ * {@link #acquire(long, TimeUnit)} directly must release every permit they are given.
+ */
+public class ConcurrencyLimiter {
+  private static Logger log = Logger.getLogger(ConcurrencyLimiter.class);
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition permitAvailable = lock.newCondition();
+
+  private double backoffRatio = 0.9;
+  private long latencyThresholdNanos = Long.MAX_VALUE;
+  private Clock clock = Clock.getInstance();
+
+  private double limit;
+  private int inFlight;
+  private long lastDecreaseNanos;
+  private boolean decreased;
+
+  /**
+   * @param initialLimit Number of concurrent calls allowed before any have completed.
+   * @param minLimit Lowest the limit will fall to, must be at least 1.
+   * @param maxLimit Highest the limit will rise to.
+   */
+  public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+    if (minLimit < 1) {
+      throw new IllegalArgumentException("Minimum limit must be at least 1");
+    }
+    if (maxLimit < minLimit) {
+      throw new IllegalArgumentException("Maximum limit cannot be less than the minimum limit");
+    }
+    if (initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("Initial limit must be between the minimum and maximum limits");
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    limit = initialLimit;
+  }
+
+  /**
+   * Makes a single call if the limit allows it.
+   * 
+   * @throws ConcurrencyLimitExceededException If the limit has been reached.
+   */
+  public <T> T execute(RetryCallback<T> callback) throws Exception {
+    Permit permit = tryAcquire();
+    if (permit == null) {
+      throw new ConcurrencyLimitExceededException("Concurrency limit of " + getLimit() + " reached");
+    }
+    return execute(callback, permit);
+  }
+
+  /**
+   * Makes a single call, waiting up to the given timeout for the number of calls in flight to fall below the limit.
+   * 
+   * @throws ConcurrencyLimitExceededException If the limit was still reached when the timeout elapsed.
+   */
+  public <T> T execute(RetryCallback<T> callback, long timeout, TimeUnit unit) throws Exception {
+    Permit permit = acquire(timeout, unit);
+    if (permit == null) {
+      throw new ConcurrencyLimitExceededException("Concurrency limit of " + getLimit() + " reached after waiting "
+          + timeout + " " + unit);
+    }
+    return execute(callback, permit);
+  }
+
+  private <T> T execute(RetryCallback<T> callback, Permit permit) throws Exception {
+    boolean success = false;
+    try {
+      T result = callback.doWithRetry();
+      success = true;
+      return result;
+    } finally {
+      if (success) {
+        permit.onSuccess();
+      } else {
+        permit.onFailure();
+      }
+    }
+  }
+
+  /**
+   * @return A permit to make a call, or null if the limit has been reached.
+   */
+  public Permit tryAcquire() {
+    lock.lock();
+    try {
+      if (inFlight >= (int) limit) {
+        return null;
+      }
+      return newPermit();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits up to the given timeout for the number of calls in flight to fall below the limit.
+   * 
+   * @return A permit to make a call, or null if the timeout elapsed first.
+   */
+  public Permit acquire(long timeout, TimeUnit unit) throws InterruptedException {
+    long remainingNanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (inFlight >= (int) limit) {
+        if (remainingNanos <= 0) {
+          return null;
+        }
+        remainingNanos = permitAvailable.awaitNanos(remainingNanos);
+      }
+      return newPermit();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private Permit newPermit() {
+    inFlight++;
+    return new Permit(clock.nanoTime(), inFlight);
+  }
+
+  private void release(Permit permit, boolean success, boolean sample) {
+    long nowNanos = clock.nanoTime();
+    lock.lock();
+    try {
+      inFlight--;
+      int previousLimit = (int) limit;
+      if (sample) {
+        if (!success || nowNanos - permit.startNanos > latencyThresholdNanos) {
+          if (!decreased || permit.startNanos - lastDecreaseNanos > 0) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            lastDecreaseNanos = nowNanos;
+            decreased = true;
+            if (log.isDebugEnabled()) {
+              log.debug("Concurrency limit decreased to " + (int) limit);
+            }
+          }
+        } else if (permit.inFlightAtStart * 2 >= limit) {
+          limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+      }
+      if ((int) limit > previousLimit) {
+        permitAvailable.signalAll();
+      } else if (inFlight < (int) limit) {
+        permitAvailable.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of calls currently allowed in flight.
+   */
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of permits currently held.
+   */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sets the factor applied to the limit when a call fails or is too slow, between 0 and 1. Defaults to 0.9.
+   */
+  public void setBackoffRatio(double backoffRatio) {
+    if (backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("Backoff ratio must be between 0 and 1");
+    }
+    this.backoffRatio = backoffRatio;
+  }
+
+  /**
+   * Sets the latency above which a successful call is treated as a sign of overload. By default only failures decrease
+   * the limit.
+   */
+  public void setLatencyThreshold(long latencyThreshold, TimeUnit unit) {
+    if (latencyThreshold <= 0) {
+      throw new IllegalArgumentException("Latency threshold must be positive");
+    }
+    latencyThresholdNanos = unit.toNanos(latencyThreshold);
+  }
+
+  /**
+   * Sets the source of time used to measure call latency.
+   */
+  public void setClock(Clock clock) {
+    if (clock == null) {
+      throw new IllegalArgumentException("Clock cannot be null");
+    }
+    this.clock = clock;
+  }
+
+  /**
+   * Permission to make one call. Exactly one of the release methods must be called once the call completes.
+   */
+  public final class Permit {
+    private final long startNanos;
+    private final int inFlightAtStart;
+    private boolean released;
+
+    private Permit(long startNanos, int inFlightAtStart) {
+      this.startNanos = startNanos;
+      this.inFlightAtStart = inFlightAtStart;
+    }
+
+    /**
+     * Releases the permit after a successful call, which may raise the limit.
+     */
+    public void onSuccess() {
+      release(true, true);
+    }
+
+    /**
+     * Releases the permit after a call that failed in a way that suggests the dependency is overloaded, which lowers
+     * the limit.
+     */
+    public void onFailure() {
+      release(false, true);
+    }
+
+    /**
+     * Releases the permit without adjusting the limit, for calls whose outcome says nothing about the dependency's
+     * capacity.
+     */
+    public void onIgnore() {
+      release(false, false);
+    }
+
+    private void release(boolean success, boolean sample) {
+      synchronized (this) {
+        if (released) {
+          throw new IllegalStateException("Permit already released");
+        }
+        released = true;
+      }
+      ConcurrencyLimiter.this.release(this, success, sample);
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import fm.last.commons.lang.exception.LastExceptionUtils;
+
+/**
+ * Decides which exceptions are worth retrying, see {@link RetryTemplate#setExceptionClassifier(ExceptionClassifier)}.
+ * An exception matches a type if it, any of its causes or any SQLException chained to them with getNextException is
+ * of that type. Abort types win over retry types, and if no retry types are given every exception that does not match
+ * an abort type is retried. For example, to retry SQL failures except for constraint violations:
+ * 
+ * <pre>
+ * new ExceptionClassifier().retryOn(SQLException.class).abortOn(SQLIntegrityConstraintViolationException.class);
+ * </pre>
+ * 
+ * Override {@link #isRetryable(Exception)} for rules that cannot be expressed by type, eg. on SQL state or error code.
+ */
+public class ExceptionClassifier {
+
+  private final List<Class<? extends Throwable>> retryTypes = new CopyOnWriteArrayList<Class<? extends Throwable>>();
+  private final List<Class<? extends Throwable>> abortTypes = new CopyOnWriteArrayList<Class<? extends Throwable>>();
+
+  /**
+   * Only retry exceptions matching the given type, or one of the other retry types.
+   * 
+   * @return this ExceptionClassifier for method chaining
+   */
+  public ExceptionClassifier retryOn(Class<? extends Throwable> type) {
+    if (type == null) {
+      throw new IllegalArgumentException("Type cannot be null");
+    }
+    retryTypes.add(type);
+    return this;
+  }
+
+  /**
+   * Never retry exceptions matching the given type.
+   * 
+   * @return this ExceptionClassifier for method chaining
+   */
+  public ExceptionClassifier abortOn(Class<? extends Throwable> type) {
+    if (type == null) {
+      throw new IllegalArgumentException("Type cannot be null");
+    }
+    abortTypes.add(type);
+    return this;
+  }
+
+  /**
+   * @return true if another attempt should be made after the given exception.
+   */
+  public boolean isRetryable(Exception e) {
+    for (Class<? extends Throwable> type : abortTypes) {
+      if (LastExceptionUtils.isOrContainsThrowableOfType(e, type)) {
+        return false;
+      }
+    }
+    if (retryTypes.isEmpty()) {
+      return true;
+    }
+    for (Class<? extends Throwable> type : retryTypes) {
+      if (LastExceptionUtils.isOrContainsThrowableOfType(e, type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+
+import fm.last.commons.lang.templates.RetryTemplate.RetryCallback;
+import fm.last.commons.lang.time.Clock;
+
+/**
+ * Cuts tail latency of idempotent calls by not waiting for a slow attempt to fail. The first attempt is started
+ * straight away; if it has not completed after the hedge delay a second attempt of the same callback is started
+ * alongside it, and so on up to the maximum attempts. The first attempt to succeed provides the result and the others
+ * are cancelled (interrupting them if they are running). A failed attempt immediately starts the next one if no other
+ * attempt is still running, and the last failure is thrown once every attempt has failed. Here is an example which
+ * sends a second request if the first has not answered within 50ms:
+ * 
+ * <pre>
+ * HedgingTemplate template = new HedgingTemplate(2, 50, TimeUnit.MILLISECONDS);
+ * String value = template.execute(new RetryTemplate.RetryCallback&lt;String&gt;() {
+ *   public String doWithRetry() throws Exception {
+ *     return replicas.next().get(key);
+ *   }
+ * });
+ * </pre>
+ * 
+ * Instead of a fixed delay the template can hedge at a percentile of recently observed latencies, see
+ * {@link #setHedgeDelayPercentile(double)}. As attempts overlap, the callback's doWithRetry and onException may be
+ * called concurrently and must be thread safe. Callbacks must only be used for operations that are safe to repeat.
+ */
+public class HedgingTemplate {
+  private static Logger log = Logger.getLogger(HedgingTemplate.class);
+
+  private static final int LATENCY_SAMPLES = 256;
+  private static final int MIN_LATENCY_SAMPLES = 32;
+  private static final int PERCENTILE_REFRESH_INTERVAL = 32;
+
+  private final int maxAttempts;
+  private final long hedgeDelayNanos;
+  private ExecutorService executor;
+  private ScheduledExecutorService scheduler;
+  private Clock clock = Clock.getInstance();
+
+  private volatile double hedgeDelayPercentile = 0;
+  private volatile long percentileDelayNanos = -1;
+  private final AtomicLongArray latencySamples = new AtomicLongArray(LATENCY_SAMPLES);
+  private final AtomicLong latencySampleCount = new AtomicLong();
+
+  /**
+   * @param maxAttempts Maximum number of attempts, including the first.
+   * @param hedgeDelay How long to wait for an attempt before starting the next one.
+   */
+  public HedgingTemplate(int maxAttempts, long hedgeDelay, TimeUnit unit) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("Max attempts must be at least 1");
+    }
+    if (hedgeDelay < 0) {
+      throw new IllegalArgumentException("Hedge delay cannot be negative");
+    }
+    this.maxAttempts = maxAttempts;
+    hedgeDelayNanos = unit.toNanos(hedgeDelay);
+  }
+
+  /**
+   * Calls doWithRetry on the callback, hedging with further attempts while it is slow, and waits for the first
+   * successful result.
+   */
+  public <T> T execute(RetryCallback<T> callback) throws Exception {
+    CompletableFuture<T> future = executeAsync(callback);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      // a Throwable that is neither, which can only be rethrown wrapped
+      throw e;
+    }
+  }
+
+  /**
+   * Calls doWithRetry on the callback, hedging with further attempts while it is slow, without blocking the calling
+   * thread. Cancelling the returned future cancels all attempts.
+   * 
+   * @return A future completed with the result of the first successful attempt, or exceptionally with the last
+   *         exception if every attempt failed.
+   */
+  public <T> CompletableFuture<T> executeAsync(RetryCallback<T> callback) {
+    HedgedExecution<T> execution = new HedgedExecution<T>(callback);
+    execution.startAttempt();
+    return execution.result;
+  }
+
+  /**
+   * Hedge after the given percentile, between 0 and 100, of the latencies of recent successful attempts rather than
+   * after the fixed delay. The fixed delay is still used until enough latencies have been observed. 0 turns this off.
+   */
+  public void setHedgeDelayPercentile(double hedgeDelayPercentile) {
+    if (hedgeDelayPercentile < 0 || hedgeDelayPercentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100");
+    }
+    this.hedgeDelayPercentile = hedgeDelayPercentile;
+    percentileDelayNanos = -1;
+  }
+
+  /**
+   * @return The delay currently used before starting another attempt.
+   */
+  public long getHedgeDelay(TimeUnit unit) {
+    long percentileDelay = percentileDelayNanos;
+    return unit.convert(hedgeDelayPercentile > 0 && percentileDelay >= 0 ? percentileDelay : hedgeDelayNanos,
+        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Sets the executor that runs the attempts. It must be able to run maxAttempts callbacks at once for hedging to
+   * be effective. If not set an unbounded pool of daemon threads shared by all instances is used.
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Sets the scheduler used to start hedged attempts. If not set the scheduler shared with {@link RetryTemplate} is
+   * used.
+   */
+  public void setScheduler(ScheduledExecutorService scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Sets the clock used to measure attempt latencies.
+   */
+  public void setClock(Clock clock) {
+    if (clock == null) {
+      throw new IllegalArgumentException("Clock cannot be null");
+    }
+    this.clock = clock;
+  }
+
+  private ExecutorService getExecutor() {
+    return executor != null ? executor : DefaultExecutor.INSTANCE;
+  }
+
+  private ScheduledExecutorService getScheduler() {
+    return scheduler != null ? scheduler : RetryTemplate.defaultScheduler();
+  }
+
+  private void recordLatency(long latencyNanos) {
+    if (hedgeDelayPercentile <= 0) {
+      return;
+    }
+    // a long so that the ring buffer index never wraps negative
+    long count = latencySampleCount.incrementAndGet();
+    latencySamples.set((int) ((count - 1) % LATENCY_SAMPLES), latencyNanos);
+    if (count >= MIN_LATENCY_SAMPLES && count % PERCENTILE_REFRESH_INTERVAL == 0) {
+      percentileDelayNanos = percentile((int) Math.min(count, LATENCY_SAMPLES));
+    }
+  }
+
+  private long percentile(int samples) {
+    long[] sorted = new long[samples];
+    for (int i = 0; i < samples; i++) {
+      sorted[i] = latencySamples.get(i);
+    }
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(hedgeDelayPercentile / 100 * samples) - 1;
+    return sorted[Math.max(0, Math.min(samples - 1, index))];
+  }
+
+  /**
+   * Lazily created pool of daemon threads shared by all instances that do not have their own executor.
+   */
+  private static final class DefaultExecutor {
+    private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new DaemonThreadFactory(
+        "HedgingTemplate-executor"));
+  }
+
+  /**
+   * State of a single execution. Transitions are guarded by the execution's monitor, which is only ever contended by
+   * the few attempts of one execution.
+   */
+  private final class HedgedExecution<T> implements BiConsumer<T, Throwable> {
+    private final RetryCallback<T> callback;
+    private final CompletableFuture<T> result = new CompletableFuture<T>();
+    private final List<Future<?>> attempts = new ArrayList<Future<?>>();
+    private int started = 0;
+    private int running = 0;
+
+    private HedgedExecution(RetryCallback<T> callback) {
+      this.callback = callback;
+      result.whenComplete(this);
+    }
+
+    private synchronized void startAttempt() {
+      if (result.isDone() || started >= maxAttempts) {
+        return;
+      }
+      started++;
+      running++;
+      final long startNanos = clock.nanoTime();
+      try {
+        attempts.add(getExecutor().submit(new Runnable() {
+          @Override
+          public void run() {
+            runAttempt(startNanos);
+          }
+        }));
+        if (started < maxAttempts) {
+          getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+              startAttempt();
+            }
+          }, getHedgeDelay(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        }
+      } catch (RejectedExecutionException e) {
+        result.completeExceptionally(e);
+      }
+    }
+
+    private void runAttempt(long startNanos) {
+      if (result.isDone()) {
+        return;
+      }
+      T value;
+      try {
+        value = callback.doWithRetry();
+      } catch (Exception e) {
+        if (result.isDone()) {
+          // lost the race, most likely interrupted by the cancellation
+          return;
+        }
+        try {
+          callback.onException(e);
+        } catch (RuntimeException onExceptionFailure) {
+          // as in RetryTemplate a failing onException ends the execution, but this attempt must still be accounted for
+          e.addSuppressed(onExceptionFailure);
+          result.completeExceptionally(e);
+        }
+        onFailure(e);
+        return;
+      } catch (Throwable t) {
+        result.completeExceptionally(t);
+        return;
+      }
+      long latencyNanos = clock.nanoTime() - startNanos;
+      // complete first, so that nothing that goes wrong with the bookkeeping can turn the success into a failure
+      result.complete(value);
+      recordLatency(latencyNanos);
+    }
+
+    private synchronized void onFailure(Exception e) {
+      running--;
+      if (running > 0) {
+        log.warn("Attempt failed, waiting for " + running + " other attempts");
+      } else if (started >= maxAttempts) {
+        log.warn("Attempt failed, max attempts reached");
+        result.completeExceptionally(e);
+      } else {
+        log.warn("Attempt failed, starting attempt " + (started + 1));
+        startAttempt();
+      }
+    }
+
+    /**
+     * Cancels the outstanding attempts once there is a result, or the caller has cancelled.
+     */
+    @Override
+    public synchronized void accept(T value, Throwable throwable) {
+      for (Future<?> attempt : attempts) {
+        attempt.cancel(true);
+      }
+    }
+  }
+
+}
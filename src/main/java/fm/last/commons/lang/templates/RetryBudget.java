@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries to a proportion of successful calls so that a failing dependency does not get retry storms on top of
+ * its normal load. Every success deposits retryRatio tokens into a bucket and every retry withdraws a whole token; when
+ * the bucket is empty retries are refused. The bucket holds at most maxRetries tokens, so only recent successes count
+ * and under sustained failure the extra load is bounded by maxRetries rather than by the number of calls times
+ * maxAttempts. The bucket starts full.
+ * <p>
+ * A single instance is meant to be shared by all {@link RetryTemplate}s calling the same dependency, see
+ * {@link RetryTemplate#setRetryBudget(RetryBudget)}. It is lock-free and safe to use from any number of threads.
+ */
+public class RetryBudget {
+
+  /** Tokens are stored in thousandths so that fractional deposits can be made with integer arithmetic. */
+  private static final long TOKEN = 1000;
+
+  private final long depositPerSuccess;
+  private final long maxBalance;
+  private final AtomicLong balance;
+
+  /**
+   * @param retryRatio Number of retries allowed per successful call, eg. 0.1 allows one retry for every ten successes.
+   * @param maxRetries Maximum number of retries that can be banked, this is also the number available initially.
+   */
+  public RetryBudget(double retryRatio, int maxRetries) {
+    if (retryRatio < 0 || Double.isNaN(retryRatio)) {
+      throw new IllegalArgumentException("Retry ratio cannot be negative");
+    }
+    if (maxRetries < 0) {
+      throw new IllegalArgumentException("Max retries cannot be negative");
+    }
+    maxBalance = maxRetries * TOKEN;
+    // a deposit larger than the bucket only fills it, and capping it keeps the sum in recordSuccess from overflowing
+    depositPerSuccess = Math.min(maxBalance, Math.round(retryRatio * TOKEN));
+    balance = new AtomicLong(maxBalance);
+  }
+
+  /**
+   * Records a successful call, adding to the retries available.
+   */
+  public void recordSuccess() {
+    while (true) {
+      long current = balance.get();
+      if (current >= maxBalance) {
+        // full, avoid contending on the CAS
+        return;
+      }
+      if (balance.compareAndSet(current, Math.min(maxBalance, current + depositPerSuccess))) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Withdraws one retry from the budget if one is available.
+   * 
+   * @return true if the caller may retry, false if the budget is exhausted.
+   */
+  public boolean tryAcquireRetry() {
+    while (true) {
+      long current = balance.get();
+      if (current < TOKEN) {
+        return false;
+      }
+      if (balance.compareAndSet(current, current - TOKEN)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @return The number of retries currently available, which may be fractional.
+   */
+  public double getAvailableRetries() {
+    return (double) balance.get() / TOKEN;
+  }
+
+}
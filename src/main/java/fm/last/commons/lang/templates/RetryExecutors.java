@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executors for running blocking {@link RetryTemplate} executions off the calling thread, see
+ * {@link RetryTemplate#executeOn(RetryTemplate.RetryCallback, java.util.concurrent.Executor)}.
+ * <p>
+ * On Java 21 and later {@link #newVirtualThreadPerTaskExecutor()} runs each execution on its own virtual thread, so
+ * waiting between attempts parks the virtual thread and frees its carrier; tens of thousands of executions can be
+ * retrying at once without sizing a pool for the worst case. The library is built for older JVMs, so the JDK method is
+ * looked up at runtime and an unbounded pool of platform daemon threads is used where it is not available.
+ */
+public final class RetryExecutors {
+  private static Logger log = Logger.getLogger(RetryExecutors.class);
+
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findNewVirtualThreadPerTaskExecutor();
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private RetryExecutors() {
+  }
+
+  /**
+   * @return true if this JVM supports virtual threads.
+   */
+  public static boolean isVirtualThreadsAvailable() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * @return An executor that starts a new virtual thread for each task, or a cached pool of daemon threads if virtual
+   *         threads are not available.
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() {
+    if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+      try {
+        return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+      } catch (Exception e) {
+        log.warn("Could not create virtual thread executor, using platform threads", e);
+      }
+    }
+    return Executors.newCachedThreadPool(new DaemonThreadFactory("RetryTemplate-worker"));
+  }
+
+  private static Method findNewVirtualThreadPerTaskExecutor() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+/**
+ * Receives the progress of every execution of a {@link RetryTemplate}, see
+ * {@link RetryTemplate#setRetryListener(RetryListener)}. Methods are called on the thread running the attempt, so
+ * implementations must be thread safe and should be cheap. All methods do nothing; override the ones you need.
+ * {@link RetryMetrics} is a ready made implementation that collects counters.
+ */
+public abstract class RetryListener {
+
+  /**
+   * Called when an attempt succeeds, which completes the execution.
+   * 
+   * @param attempt The number of the attempt, starting at 1.
+   * @param latencyNanos How long the attempt took.
+   */
+  public void onAttemptSucceeded(int attempt, long latencyNanos) {
+  }
+
+  /**
+   * Called when an attempt throws an exception, before deciding whether to retry, or an Error, which is never retried.
+   * 
+   * @param attempt The number of the attempt, starting at 1.
+   * @param latencyNanos How long the attempt took.
+   */
+  public void onAttemptFailed(int attempt, long latencyNanos, Throwable e) {
+  }
+
+  /**
+   * Called when another attempt will be made after a failed one.
+   * 
+   * @param attempt The number of the attempt that failed.
+   * @param delayNanos How long the template will wait before the next attempt.
+   */
+  public void onRetryScheduled(int attempt, long delayNanos) {
+  }
+
+  /**
+   * Called when the execution fails without any more attempts: the maximum attempts were reached, the exception was
+   * not retryable, the time or retry budget ran out, the circuit breaker rejected the next attempt, or the execution
+   * was interrupted or cancelled, or an attempt threw an Error.
+   * 
+   * @param attempts The number of attempts made.
+   * @param e The exception or Error thrown to the caller.
+   */
+  public void onGaveUp(int attempts, Throwable e) {
+  }
+
+}
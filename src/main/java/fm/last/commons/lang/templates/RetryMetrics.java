@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link RetryListener} that keeps running totals of attempts, outcomes and time spent waiting, along with a histogram
+ * of attempt latencies. Recording only increments {@link LongAdder}s, so one instance can be shared by many templates
+ * on hot paths. The retry amplification, {@link #getAttempts()} divided by {@link #getExecutions()}, shows how much
+ * extra load retries are adding.
+ */
+public class RetryMetrics extends RetryListener {
+
+  /** Bucket i holds latencies of at least 2^(i-1) and less than 2^i nanoseconds; bucket 0 holds zero. */
+  private static final int LATENCY_BUCKETS = 64;
+
+  private final LongAdder attempts = new LongAdder();
+  private final LongAdder failedAttempts = new LongAdder();
+  private final LongAdder successes = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder delayNanos = new LongAdder();
+  private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS];
+
+  public RetryMetrics() {
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      latencyBuckets[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public void onAttemptSucceeded(int attempt, long latencyNanos) {
+    attempts.increment();
+    successes.increment();
+    recordLatency(latencyNanos);
+  }
+
+  @Override
+  public void onAttemptFailed(int attempt, long latencyNanos, Throwable e) {
+    attempts.increment();
+    failedAttempts.increment();
+    recordLatency(latencyNanos);
+  }
+
+  @Override
+  public void onRetryScheduled(int attempt, long delayNanos) {
+    retries.increment();
+    this.delayNanos.add(delayNanos);
+  }
+
+  @Override
+  public void onGaveUp(int attempts, Throwable e) {
+    failures.increment();
+  }
+
+  private void recordLatency(long latencyNanos) {
+    latencyBuckets[LATENCY_BUCKETS - Long.numberOfLeadingZeros(Math.max(0, latencyNanos))].increment();
+  }
+
+  /**
+   * @return The number of attempts made, successful or not.
+   */
+  public long getAttempts() {
+    return attempts.sum();
+  }
+
+  public long getFailedAttempts() {
+    return failedAttempts.sum();
+  }
+
+  /**
+   * @return The number of executions that returned a result.
+   */
+  public long getSuccesses() {
+    return successes.sum();
+  }
+
+  /**
+   * @return The number of executions that ended by throwing an exception.
+   */
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  public long getExecutions() {
+    return getSuccesses() + getFailures();
+  }
+
+  /**
+   * @return The number of retries scheduled.
+   */
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  /**
+   * @return The total time, in nanoseconds, spent waiting between attempts.
+   */
+  public long getTotalDelayNanos() {
+    return delayNanos.sum();
+  }
+
+  /**
+   * @param percentile Between 0 and 100.
+   * @return An upper bound, within a factor of two, of the given percentile of attempt latencies in nanoseconds, or 0
+   *         if no attempts have been recorded.
+   */
+  public long getLatencyPercentileNanos(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100");
+    }
+    long[] counts = new long[LATENCY_BUCKETS];
+    long total = 0;
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      counts[i] = latencyBuckets[i].sum();
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        // (1L << 63) - 1 wraps round to Long.MAX_VALUE, as wanted for the last bucket
+        return i == 0 ? 0 : (1L << i) - 1;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * @return The number of attempts in each latency bucket, where bucket i holds latencies of at least 2^(i-1) and less
+   *         than 2^i nanoseconds, and bucket 0 holds zero latencies.
+   */
+  public long[] getLatencyHistogram() {
+    long[] counts = new long[LATENCY_BUCKETS];
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      counts[i] = latencyBuckets[i].sum();
+    }
+    return counts;
+  }
+
+}
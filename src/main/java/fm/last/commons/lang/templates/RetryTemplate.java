@@ -15,8 +15,27 @@
  */
 package fm.last.commons.lang.templates;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import fm.last.commons.lang.time.Clock;
+
 /**
  * Simple(ish) class for retrying something on exceptions. Useful for doing things which may timeout or stop responding
  * temporarily. It logs a warning on each retry (with log4j). If it exceeds the maximum attempts the last exception is
@@ -37,6 +56,13 @@ import org.apache.log4j.Logger;
  * }
  * </pre>
  * 
+ * The fixed pause can be replaced with a {@link BackoffPolicy}, for example to spread the retries of many clients over
+ * time with exponentially growing, jittered delays:
+ * 
+ * <pre>
+ * new RetryTemplate(10, BackoffPolicies.decorrelatedJitter(100, 30000, TimeUnit.MILLISECONDS)).execute(callback);
+ * </pre>
+ * 
  * If you wish to return a value, you can return it as an object and cast it.
  * 
  * <pre>
@@ -97,6 +123,21 @@ import org.apache.log4j.Logger;
  *   }
  * });
  * </pre>
+ * 
+ * The same retries can be run without blocking the calling thread with {@link #executeAsync(RetryCallback)}. Instead of
+ * sleeping between attempts the next attempt is scheduled on a {@link ScheduledExecutorService}, so a small number of
+ * timer threads can hold any number of in-flight retries. Callbacks run on the scheduler threads and should therefore
+ * be short; for calls that are themselves asynchronous use an {@link AsyncRetryCallback} that returns a
+ * {@link CompletionStage}.
+ * 
+ * <pre>
+ * RetryTemplate template = new RetryTemplate(10, 5);
+ * CompletableFuture&lt;String&gt; future = template.executeAsync(new RetryTemplate.RetryCallback&lt;String&gt;() {
+ *   public String doWithRetry() throws Exception {
+ *     return &quot;hello world&quot;;
+ *   }
+ * });
+ * </pre>
  */
 public class RetryTemplate {
   private static Logger log = Logger.getLogger(RetryTemplate.class);
@@ -117,8 +158,53 @@ public class RetryTemplate {
     }
   }
 
+  /**
+   * Abstract base class for asynchronous operations used with {@link RetryTemplate#executeAsync(AsyncRetryCallback)}.
+   * An attempt fails if doWithRetry throws an exception or if the returned stage completes exceptionally.
+   */
+  abstract public static class AsyncRetryCallback<T> {
+    /**
+     * Override this.
+     */
+    abstract public CompletionStage<T> doWithRetry() throws Exception;
+
+    /**
+     * Does nothing. Override this if you want to do something after each exception, eg. logging.
+     */
+    public void onException(Exception e) {
+    }
+  }
+
+  /**
+   * Abstract base class for batch operations used with
+   * {@link RetryTemplate#executeBatch(Collection, BatchRetryCallback)}.
+   */
+  abstract public static class BatchRetryCallback<I, R> {
+    /**
+     * Override this. Process the items and report the outcome of each to the result. Items whose outcome is not
+     * reported count as failed, with the exception thrown by this method if it throws one.
+     */
+    abstract public void doWithRetry(List<I> items, BatchRetryResult<I, R> result) throws Exception;
+
+    /**
+     * Does nothing. Override this if you want to do something after doWithRetry throws an exception, eg. logging.
+     */
+    public void onException(Exception e) {
+    }
+  }
+
   private int maxAttempts = 10;
   private int sleepTimeInSeconds = 10;
+  private BackoffPolicy backoffPolicy = BackoffPolicies.fixed(sleepTimeInSeconds, TimeUnit.SECONDS);
+  /** The policy made from sleepTimeInSeconds, which keeps {@link #retrySleep()} in use until it is replaced. */
+  private BackoffPolicy fixedSleepPolicy = backoffPolicy;
+  private ScheduledExecutorService scheduler;
+  private RetryBudget retryBudget;
+  private CircuitBreaker circuitBreaker;
+  private ExceptionClassifier exceptionClassifier;
+  private long timeBudgetNanos = -1;
+  private Clock clock = Clock.getInstance();
+  private RetryListener retryListener;
 
   public RetryTemplate() {
   }
@@ -126,40 +212,651 @@ public class RetryTemplate {
   public RetryTemplate(int maxAttempts, int sleepSecs) {
     this.maxAttempts = maxAttempts;
     sleepTimeInSeconds = sleepSecs;
+    backoffPolicy = BackoffPolicies.fixed(sleepSecs, TimeUnit.SECONDS);
+    fixedSleepPolicy = backoffPolicy;
+  }
+
+  public RetryTemplate(int maxAttempts, BackoffPolicy backoffPolicy) {
+    this.maxAttempts = maxAttempts;
+    setBackoffPolicy(backoffPolicy);
   }
 
   /**
    * Calls doWithRetry on the callback object while an exception occurs or we reach the maximum retries.
    */
   public <T> T execute(RetryCallback<T> callback) throws Exception {
-    int attempts = 0;
-    T result = null;
-    while (attempts++ < maxAttempts) {
+    return execute(callback, new Execution(timeBudgetNanos, null));
+  }
+
+  /**
+   * Calls doWithRetry on the callback object while an exception occurs, until we reach the maximum retries or the token
+   * is cancelled. Cancelling the token wakes the calling thread if it is waiting between attempts.
+   * 
+   * @throws CancellationException If the token was cancelled before an attempt succeeded. Its cause is the exception
+   *           thrown by the last attempt, if any.
+   */
+  public <T> T execute(RetryCallback<T> callback, CancellationToken cancellationToken) throws Exception {
+    if (cancellationToken == null) {
+      throw new IllegalArgumentException("Cancellation token cannot be null");
+    }
+    return execute(callback, new Execution(timeBudgetNanos, cancellationToken));
+  }
+
+  /**
+   * Calls doWithRetry on the callback object while an exception occurs, until we reach the maximum retries or run out
+   * of time. This overrides any time budget set on the template, which makes it suitable for passing on the remaining
+   * time of a request with an end to end deadline.
+   * 
+   * @param timeBudget The time allowed for all attempts and the pauses between them, see
+   *          {@link #setTimeBudget(long, TimeUnit)}.
+   */
+  public <T> T execute(RetryCallback<T> callback, long timeBudget, TimeUnit unit) throws Exception {
+    if (timeBudget < 0) {
+      throw new IllegalArgumentException("Time budget cannot be negative");
+    }
+    return execute(callback, new Execution(unit.toNanos(timeBudget), null));
+  }
+
+  private <T> T execute(RetryCallback<T> callback, Execution execution) throws Exception {
+    while (execution.hasAttemptsLeft()) {
+      execution.beforeAttempt();
+      T result;
       try {
         result = callback.doWithRetry();
-        break;
       } catch (Exception e) {
+        execution.onFailure(e);
         // user may override this method for doing logging, or connection closing / reopening.
         callback.onException(e);
-        if (attempts >= maxAttempts) {
-          log.warn("Attempt failed, max attempts reached");
+        if (!execution.shouldRetry(e)) {
           throw e;
-        } else {
-          log.warn("Attempt failed, retry " + attempts + " in " + sleepTimeInSeconds + " seconds");
-          retrySleep();
         }
+        execution.sleep();
+        continue;
+      } catch (Throwable t) {
+        execution.onAbandoned(t);
+        throw t;
+      }
+      // outside the try, so that the bookkeeping can never make a successful call look failed and repeat it
+      execution.onSuccess();
+      return result;
+    }
+
+    return null;
+  }
+
+  /**
+   * Calls doWithRetry on the callback object with the items, then repeatedly with just the items that failed until all
+   * have succeeded or we reach the maximum retries. Each call is one attempt, so all items share the attempts, backoff,
+   * time budget and retry budget; a call in which any item fails counts as a failed attempt. Items that fail with an
+   * exception that is not retryable are not passed to later calls. Unlike {@link #execute(RetryCallback)} failures are
+   * not thrown but reported in the returned result, so that callers always know which items went through. If the
+   * circuit breaker rejects a call, or the thread is interrupted, the items still pending are reported as failed with
+   * the {@link CircuitBreakerOpenException} or InterruptedException and the interrupt flag is left set. If no attempts
+   * are allowed at all, every item is reported as failed with an IllegalStateException.
+   * 
+   * @return The result or last exception of every item.
+   */
+  public <I, R> BatchRetryResult<I, R> executeBatch(Collection<? extends I> items, BatchRetryCallback<I, R> callback) {
+    BatchRetryResult<I, R> result = new BatchRetryResult<I, R>();
+    Execution execution = new Execution(timeBudgetNanos, null);
+    List<I> pending = new ArrayList<I>(items);
+    while (!pending.isEmpty() && execution.hasAttemptsLeft()) {
+      try {
+        execution.beforeAttempt();
+      } catch (CircuitBreakerOpenException e) {
+        result.stopped(pending, e);
+        return result;
+      }
+      result.startRound();
+      Exception roundFailure = null;
+      try {
+        callback.doWithRetry(Collections.unmodifiableList(pending), result);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        execution.onAbandoned(e);
+        // keep whatever the callback reported before it was interrupted
+        result.endRound(pending, e);
+        return result;
+      } catch (Exception e) {
+        roundFailure = e;
+        callback.onException(e);
+      } catch (Throwable t) {
+        execution.onAbandoned(t);
+        throw t;
+      }
+      List<I> failed = result.endRound(pending, roundFailure);
+      if (failed.isEmpty()) {
+        execution.onSuccess();
+        break;
+      }
+      pending = new ArrayList<I>();
+      for (I item : failed) {
+        Exception e = result.getFailure(item);
+        if (exceptionClassifier == null || exceptionClassifier.isRetryable(e)) {
+          pending.add(item);
+        }
+      }
+      Exception e = result.getFailure(pending.isEmpty() ? failed.get(0) : pending.get(0));
+      execution.onFailure(e);
+      if (pending.isEmpty()) {
+        execution.giveUp("Batch failed with non-retryable exceptions only", e);
+        break;
+      }
+      if (log.isEnabledFor(Level.WARN)) {
+        log.warn(failed.size() + " of " + items.size() + " items failed");
+      }
+      if (!execution.shouldRetry(e)) {
+        break;
+      }
+      try {
+        execution.sleep();
+      } catch (InterruptedException interrupt) {
+        result.stopped(pending, interrupt);
+        return result;
+      }
+    }
+    if (result.getRounds() == 0) {
+      // maxAttempts is not positive
+      result.notProcessed(pending);
+    }
+    return result;
+  }
+
+  /**
+   * Calls doWithRetry on the callback object until it succeeds or we reach the maximum retries, without blocking the
+   * calling thread. Attempts are run on the scheduler and the pause between attempts is a scheduled delay rather than a
+   * sleep. Cancelling the returned future stops any further attempts.
+   * 
+   * @return A future completed with the result of the first successful attempt, or exceptionally with the last
+   *         exception once the maximum attempts have been reached.
+   */
+  public <T> CompletableFuture<T> executeAsync(final RetryCallback<T> callback) {
+    return executeAsync(new AsyncRetryCallback<T>() {
+      @Override
+      public CompletionStage<T> doWithRetry() throws Exception {
+        return CompletableFuture.completedFuture(callback.doWithRetry());
+      }
+
+      @Override
+      public void onException(Exception e) {
+        callback.onException(e);
       }
+    });
+  }
+
+  /**
+   * Calls doWithRetry on the callback object until the returned stage completes successfully or we reach the maximum
+   * retries. No thread is blocked while waiting for the outcome of an attempt or between attempts.
+   * 
+   * @return A future completed with the result of the first successful attempt, or exceptionally with the last
+   *         exception once the maximum attempts have been reached.
+   */
+  public <T> CompletableFuture<T> executeAsync(AsyncRetryCallback<T> callback) {
+    AsyncExecution<T> execution = new AsyncExecution<T>(callback);
+    if (execution.execution.hasAttemptsLeft()) {
+      execution.schedule(0);
+    } else {
+      execution.result.complete(null);
     }
+    return execution.result;
+  }
 
+  /**
+   * Runs {@link #execute(RetryCallback)} on the given executor, so that the callback and the waits between attempts
+   * happen on the executor's thread rather than the caller's. This suits callbacks that block, which must not run on
+   * the scheduler used by {@link #executeAsync(RetryCallback)}. Cancelling the returned future wakes the execution if
+   * it is waiting between attempts and prevents any further attempts.
+   * 
+   * @return A future completed with the result of the execution, or exceptionally with what it threw.
+   */
+  public <T> CompletableFuture<T> executeOn(final RetryCallback<T> callback, Executor executor) {
+    final CompletableFuture<T> result = new CompletableFuture<T>();
+    final CancellationToken cancellationToken = new CancellationToken();
+    result.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T value, Throwable throwable) {
+        if (result.isCancelled()) {
+          cancellationToken.cancel();
+        }
+      }
+    });
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            result.complete(execute(callback, new Execution(timeBudgetNanos, cancellationToken)));
+          } catch (Throwable t) {
+            result.completeExceptionally(t);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(e);
+    }
     return result;
   }
 
+  /**
+   * Runs {@link #execute(RetryCallback)} on a new virtual thread, so that waiting between attempts parks the virtual
+   * thread instead of holding a platform thread. Falls back to a shared pool of platform threads on JVMs without
+   * virtual threads, see {@link RetryExecutors}.
+   * 
+   * @return A future completed with the result of the execution, or exceptionally with what it threw.
+   */
+  public <T> CompletableFuture<T> executeOnVirtualThread(RetryCallback<T> callback) {
+    return executeOn(callback, VirtualThreadExecutor.INSTANCE);
+  }
+
+  /**
+   * Sets the scheduler used by {@link #executeAsync(AsyncRetryCallback)}. If not set a scheduler shared by all
+   * RetryTemplate instances is used.
+   */
+  public void setScheduler(ScheduledExecutorService scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  private ScheduledExecutorService getScheduler() {
+    return scheduler != null ? scheduler : DefaultScheduler.INSTANCE;
+  }
+
+  /**
+   * @return The scheduler shared by all instances that do not have their own.
+   */
+  static ScheduledExecutorService defaultScheduler() {
+    return DefaultScheduler.INSTANCE;
+  }
+
+  /**
+   * Sets the policy deciding how long to wait between attempts, replacing the fixed delay given to the constructor.
+   */
+  public void setBackoffPolicy(BackoffPolicy backoffPolicy) {
+    if (backoffPolicy == null) {
+      throw new IllegalArgumentException("Backoff policy cannot be null");
+    }
+    this.backoffPolicy = backoffPolicy;
+  }
+
+  /**
+   * Sets a budget, usually shared between templates, that must allow each retry. Retries stop early once the budget is
+   * exhausted.
+   */
+  public void setRetryBudget(RetryBudget retryBudget) {
+    this.retryBudget = retryBudget;
+  }
+
+  /**
+   * Sets a breaker that every attempt must pass through. While the breaker is open attempts are not made and a
+   * {@link CircuitBreakerOpenException} is thrown straight away, with the previous attempt's exception (if any) as its
+   * cause.
+   */
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+   * Sets the classifier deciding which exceptions are retried. Without one every exception is retried. Exceptions that
+   * are not retryable are thrown straight away, after being passed to the callback's onException.
+   */
+  public void setExceptionClassifier(ExceptionClassifier exceptionClassifier) {
+    this.exceptionClassifier = exceptionClassifier;
+  }
+
+  /**
+   * Limits the total time spent on an execution, including the pauses between attempts. Before each retry the pause
+   * is shortened so that another attempt, assumed to take as long as the previous one, still fits in the time left; if
+   * even an immediate retry would not fit the last exception is thrown instead. Attempts in progress are not
+   * interrupted. By default there is no limit.
+   */
+  public void setTimeBudget(long timeBudget, TimeUnit unit) {
+    if (timeBudget < 0) {
+      throw new IllegalArgumentException("Time budget cannot be negative");
+    }
+    timeBudgetNanos = unit.toNanos(timeBudget);
+  }
+
+  /**
+   * Sets a listener to be told about every attempt, eg. a {@link RetryMetrics} to monitor how many retries are being
+   * made. Warnings are still logged for failed attempts; set this class's log level to ERROR to turn them off.
+   */
+  public void setRetryListener(RetryListener retryListener) {
+    this.retryListener = retryListener;
+  }
+
+  /**
+   * Sets the clock used to measure attempts against the time budget and for the listener, and to wait between attempts.
+   * A {@link fm.last.commons.lang.time.ManualClock} lets tests run through long backoffs without sleeping.
+   */
+  public void setClock(Clock clock) {
+    if (clock == null) {
+      throw new IllegalArgumentException("Clock cannot be null");
+    }
+    this.clock = clock;
+  }
+
+  /**
+   * Waits between attempts of {@link #execute(RetryCallback)} using the template's clock, see
+   * {@link Clock#sleep(long, TimeUnit)}. If the thread is interrupted the execution is abandoned: the interrupt flag
+   * is restored and the InterruptedException thrown to the caller, so that executor shutdowns and cancellations take
+   * effect straight away.
+   * <p>
+   * While the template uses the fixed sleep given to its constructor, full length sleeps are delegated to
+   * {@link #retrySleep()} so that subclasses overriding it keep working. Executions with a {@link CancellationToken},
+   * including those started by {@link #executeOn(RetryCallback, Executor)}, do not call this but wait with
+   * {@link Clock#await(java.util.concurrent.CountDownLatch, long, TimeUnit)} so that cancelling wakes them.
+   */
+  protected void retrySleep(long delayNanos) throws InterruptedException {
+    if (backoffPolicy == fixedSleepPolicy && delayNanos == TimeUnit.SECONDS.toNanos(Math.max(0, sleepTimeInSeconds))) {
+      retrySleep();
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("Sleep between attempts interrupted");
+      }
+      return;
+    }
+    if (delayNanos > 0) {
+      try {
+        clock.sleep(delayNanos, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException interrupt) {
+        log.warn("Sleep between attempts interrupted, giving up");
+        Thread.currentThread().interrupt();
+        throw interrupt;
+      }
+    }
+  }
+
+  /**
+   * Sleeps for the fixed time given to the constructor. If the thread is interrupted the interrupt flag is restored,
+   * and the execution is abandoned.
+   * 
+   * @deprecated Override {@link #retrySleep(long)} instead, which is given the delay chosen by the backoff policy and
+   *             the time budget. This is only called while the template uses the fixed sleep given to its constructor.
+   */
+  @Deprecated
   protected void retrySleep() {
     if (sleepTimeInSeconds > 0) {
       try {
-        Thread.sleep(sleepTimeInSeconds * 1000);
-      } catch (InterruptedException interupt) {
-        log.warn("sleep time interupted");
+        clock.sleep(sleepTimeInSeconds, TimeUnit.SECONDS);
+      } catch (InterruptedException interrupt) {
+        log.warn("Sleep between attempts interrupted, giving up");
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Lazily created scheduler of daemon threads shared by all instances that do not have their own.
+   */
+  private static final class DefaultScheduler {
+    private static final ScheduledExecutorService INSTANCE = Executors.newScheduledThreadPool(Runtime.getRuntime()
+        .availableProcessors(), new DaemonThreadFactory("RetryTemplate-scheduler"));
+  }
+
+  /**
+   * Lazily created executor shared by all instances for {@link RetryTemplate#executeOnVirtualThread(RetryCallback)}.
+   */
+  private static final class VirtualThreadExecutor {
+    private static final ExecutorService INSTANCE = RetryExecutors.newVirtualThreadPerTaskExecutor();
+  }
+
+  /**
+   * Progress of a single execution, shared by the blocking and asynchronous paths. Attempts never overlap, so this is
+   * only ever touched by one thread at a time.
+   */
+  private final class Execution {
+    private final RetryListener listener = retryListener;
+    private final CancellationToken cancellationToken;
+    private final boolean hasDeadline;
+    private final boolean timed;
+    private final long deadlineNanos;
+    private int attempts = 0;
+    private long delayNanos = 0;
+    /** The wait before the next attempt, once {@link #shouldRetry(Exception)} has allowed one. */
+    private long sleepNanos = 0;
+    private long attemptStartNanos;
+    private long lastAttemptNanos;
+    private Exception lastFailure;
+    private CircuitBreaker.Permit permit;
+
+    private Execution(long timeBudgetNanos, CancellationToken cancellationToken) {
+      this.cancellationToken = cancellationToken;
+      hasDeadline = timeBudgetNanos >= 0;
+      timed = hasDeadline || listener != null;
+      deadlineNanos = hasDeadline ? clock.nanoTime() + timeBudgetNanos : 0;
+    }
+
+    private boolean hasAttemptsLeft() {
+      return attempts < maxAttempts;
+    }
+
+    private void beforeAttempt() {
+      if (cancellationToken != null && cancellationToken.isCancelled()) {
+        throw cancelled();
+      }
+      if (circuitBreaker != null) {
+        permit = circuitBreaker.tryAcquirePermission();
+        if (permit == null) {
+          CircuitBreakerOpenException e = new CircuitBreakerOpenException("Circuit breaker is "
+              + circuitBreaker.getState() + ", not attempting call", lastFailure);
+          if (listener != null) {
+            listener.onGaveUp(attempts, e);
+          }
+          throw e;
+        }
+      }
+      attempts++;
+      if (timed) {
+        attemptStartNanos = clock.nanoTime();
+      }
+    }
+
+    /**
+     * Records a successful attempt. Nothing thrown here reaches the caller, as the call has already succeeded.
+     */
+    private void onSuccess() {
+      try {
+        if (retryBudget != null) {
+          retryBudget.recordSuccess();
+        }
+        if (permit != null) {
+          permit.onSuccess();
+        }
+        if (listener != null) {
+          listener.onAttemptSucceeded(attempts, clock.nanoTime() - attemptStartNanos);
+        }
+      } catch (RuntimeException e) {
+        log.error("Failed to record successful attempt", e);
+      }
+    }
+
+    private void onFailure(Exception e) {
+      lastFailure = e;
+      reportFailure(e);
+    }
+
+    /**
+     * Reports an attempt that ended with something that is never retried, such as an Error, which also ends the
+     * execution. The circuit breaker must hear about it like any other failure, or a trial call would never be
+     * accounted for.
+     */
+    private void onAbandoned(Throwable t) {
+      reportFailure(t);
+      if (listener != null) {
+        listener.onGaveUp(attempts, t);
+      }
+    }
+
+    private void reportFailure(Throwable t) {
+      if (timed) {
+        lastAttemptNanos = clock.nanoTime() - attemptStartNanos;
+      }
+      if (permit != null) {
+        permit.onFailure();
+      }
+      if (listener != null) {
+        listener.onAttemptFailed(attempts, lastAttemptNanos, t);
+      }
+    }
+
+    /**
+     * Decides whether a failed attempt should be followed by another one, logging the reason if not, and if so how long
+     * to wait first, see {@link #sleepNanos}.
+     * 
+     * @return false if there should not be another attempt.
+     */
+    private boolean shouldRetry(Exception e) {
+      if (attempts >= maxAttempts) {
+        giveUp("Attempt failed, max attempts reached", e);
+        return false;
+      }
+      if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+        giveUp("Attempt interrupted, giving up", e);
+        return false;
+      }
+      if (exceptionClassifier != null && !exceptionClassifier.isRetryable(e)) {
+        giveUp("Attempt failed with non-retryable exception", e);
+        return false;
+      }
+      // a negative delay from a custom policy, eg. after a jitter underflow, means no wait rather than giving up
+      delayNanos = Math.max(0, backoffPolicy.nextDelayNanos(attempts, delayNanos));
+      sleepNanos = delayNanos;
+      if (hasDeadline) {
+        long availableNanos = deadlineNanos - clock.nanoTime() - lastAttemptNanos;
+        if (availableNanos < 0) {
+          giveUp("Attempt failed, time budget exhausted", e);
+          return false;
+        }
+        sleepNanos = Math.min(sleepNanos, availableNanos);
+      }
+      if (retryBudget != null && !retryBudget.tryAcquireRetry()) {
+        giveUp("Attempt failed, retry budget exhausted", e);
+        return false;
+      }
+      if (log.isEnabledFor(Level.WARN)) {
+        log.warn("Attempt failed, retry " + attempts + " in " + TimeUnit.NANOSECONDS.toMillis(sleepNanos) + " ms");
+      }
+      if (listener != null) {
+        listener.onRetryScheduled(attempts, sleepNanos);
+      }
+      return true;
+    }
+
+    private void sleep() throws InterruptedException {
+      try {
+        if (cancellationToken == null) {
+          retrySleep(sleepNanos);
+        } else if (cancellationToken.await(clock, sleepNanos)) {
+          throw cancelled();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (listener != null) {
+          listener.onGaveUp(attempts, e);
+        }
+        throw e;
+      }
+    }
+
+    private CancellationException cancelled() {
+      log.warn("Execution cancelled");
+      CancellationException e = new CancellationException("Execution cancelled after " + attempts + " attempts");
+      e.initCause(lastFailure);
+      if (listener != null) {
+        listener.onGaveUp(attempts, e);
+      }
+      return e;
+    }
+
+    private void giveUp(String message, Exception e) {
+      log.warn(message);
+      if (listener != null) {
+        listener.onGaveUp(attempts, e);
+      }
+    }
+  }
+
+  /**
+   * An asynchronous execution, which moves from thread to thread as attempts complete.
+   */
+  private final class AsyncExecution<T> implements Runnable, BiConsumer<T, Throwable> {
+    private final AsyncRetryCallback<T> callback;
+    private final CompletableFuture<T> result = new CompletableFuture<T>();
+    private final Execution execution = new Execution(timeBudgetNanos, null);
+
+    private AsyncExecution(AsyncRetryCallback<T> callback) {
+      this.callback = callback;
+    }
+
+    @Override
+    public void run() {
+      if (result.isDone()) {
+        // cancelled by the caller
+        return;
+      }
+      CompletionStage<T> stage;
+      try {
+        execution.beforeAttempt();
+      } catch (CircuitBreakerOpenException e) {
+        result.completeExceptionally(e);
+        return;
+      }
+      try {
+        stage = callback.doWithRetry();
+      } catch (Exception e) {
+        onFailure(e);
+        return;
+      } catch (Throwable t) {
+        execution.onAbandoned(t);
+        result.completeExceptionally(t);
+        return;
+      }
+      if (stage == null) {
+        result.complete(null);
+        execution.onSuccess();
+      } else {
+        stage.whenComplete(this);
+      }
+    }
+
+    @Override
+    public void accept(T value, Throwable throwable) {
+      if (throwable == null) {
+        // complete first, as HedgingTemplate does, so that the caller has the result whatever the bookkeeping does
+        result.complete(value);
+        execution.onSuccess();
+        return;
+      }
+      if (throwable instanceof CompletionException && throwable.getCause() != null) {
+        throwable = throwable.getCause();
+      }
+      if (throwable instanceof Exception) {
+        onFailure((Exception) throwable);
+      } else {
+        // as with execute, Errors are not retried
+        execution.onAbandoned(throwable);
+        result.completeExceptionally(throwable);
+      }
+    }
+
+    private void onFailure(Exception e) {
+      execution.onFailure(e);
+      try {
+        callback.onException(e);
+      } catch (RuntimeException onExceptionFailure) {
+        result.completeExceptionally(onExceptionFailure);
+        return;
+      }
+      if (!execution.shouldRetry(e)) {
+        result.completeExceptionally(e);
+        return;
+      }
+      schedule(execution.sleepNanos);
+    }
+
+    private void schedule(long delayNanos) {
+      try {
+        getScheduler().schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        result.completeExceptionally(e);
       }
     }
   }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import java.io.Closeable;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+/**
+ * A {@link Clock} for hot paths that read the time often but do not need it to the millisecond, such as timestamping
+ * log events or checking expiry times. A background thread samples the source clock at the configured resolution and
+ * publishes the readings through volatile fields, so {@link #currentTimeMillis()} and {@link #nanoTime()} are a single
+ * memory read. Both readings lag the source clock by up to the resolution, plus however long the ticker thread is
+ * delayed by the scheduler.
+ * <p>
+ * Each instance owns a daemon thread, so share one instance rather than creating them per use, and {@link #close()}
+ * it when it is no longer needed. The clock stops advancing once closed.
+ */
+public class CachingClock extends Clock implements Closeable {
+  private static Logger log = Logger.getLogger(CachingClock.class);
+
+  private static final AtomicInteger threadCount = new AtomicInteger();
+
+  private final Clock source;
+  private final long resolutionNanos;
+  private final Thread ticker;
+
+  private volatile long currentTimeMillis;
+  private volatile long nanoTime;
+  private volatile boolean closed;
+
+  /**
+   * Creates a clock caching the system time.
+   * 
+   * @param resolution How often to update the cached time.
+   */
+  public CachingClock(long resolution, TimeUnit unit) {
+    this(Clock.getInstance(), resolution, unit);
+  }
+
+  /**
+   * @param source The clock to sample.
+   * @param resolution How often to update the cached time.
+   */
+  public CachingClock(Clock source, long resolution, TimeUnit unit) {
+    if (source == null) {
+      throw new IllegalArgumentException("Source clock cannot be null");
+    }
+    if (resolution <= 0) {
+      throw new IllegalArgumentException("Resolution must be positive");
+    }
+    this.source = source;
+    resolutionNanos = unit.toNanos(resolution);
+    tick();
+    ticker = new Thread(new Ticker(), "CachingClock-ticker-" + threadCount.incrementAndGet());
+    ticker.setDaemon(true);
+    ticker.start();
+  }
+
+  private void tick() {
+    currentTimeMillis = source.currentTimeMillis();
+    nanoTime = source.nanoTime();
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return currentTimeMillis;
+  }
+
+  @Override
+  public long nanoTime() {
+    return nanoTime;
+  }
+
+  @Override
+  public Calendar getCalendarInstance() {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(currentTimeMillis);
+    return calendar;
+  }
+
+  @Override
+  public Date newDate() {
+    return new Date(currentTimeMillis);
+  }
+
+  @Override
+  public DateTime newDateTime() {
+    return new DateTime(currentTimeMillis);
+  }
+
+  /**
+   * @return How often the cached time is updated.
+   */
+  public long getResolution(TimeUnit unit) {
+    return unit.convert(resolutionNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Stops the ticker thread and waits for it to exit, unless called from the ticker thread itself. The clock keeps
+   * returning the last time it read.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    if (Thread.currentThread() == ticker) {
+      // the source clock closed us while being read, the loop exits once the tick returns
+      return;
+    }
+    LockSupport.unpark(ticker);
+    boolean interrupted = false;
+    while (ticker.isAlive()) {
+      try {
+        ticker.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private class Ticker implements Runnable {
+    @Override
+    public void run() {
+      boolean failing = false;
+      while (!closed) {
+        LockSupport.parkNanos(this, resolutionNanos);
+        if (closed) {
+          break;
+        }
+        // a failing source must not kill the thread, or the cached time would freeze for good
+        try {
+          tick();
+          if (failing) {
+            log.info("Source clock recovered");
+            failing = false;
+          }
+        } catch (RuntimeException e) {
+          if (!failing) {
+            log.error("Source clock failed, keeping the last time read until it recovers", e);
+            failing = true;
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -17,13 +17,26 @@ package fm.last.commons.lang.time;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.MutableDateTime;
 
 public abstract class Clock {
 
   public static final Clock INSTANCE = new SystemClock();
 
+  private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+  private static final ThreadLocal<Calendar> threadCalendar = new ThreadLocal<Calendar>() {
+    @Override
+    protected Calendar initialValue() {
+      return Calendar.getInstance();
+    }
+  };
+
   public static Clock getInstance() {
     return INSTANCE;
   }
@@ -38,4 +51,67 @@ public abstract class Clock {
 
   abstract public DateTime newDateTime();
 
+  /**
+   * Blocks the calling thread for the given duration as measured by this clock.
+   */
+  public void sleep(long duration, TimeUnit unit) throws InterruptedException {
+    unit.sleep(duration);
+  }
+
+  /**
+   * Blocks the calling thread until the latch has counted down or the given duration has passed as measured by this
+   * clock, whichever comes first.
+   * 
+   * @return true if the latch counted down.
+   */
+  public boolean await(CountDownLatch latch, long duration, TimeUnit unit) throws InterruptedException {
+    return latch.await(duration, unit);
+  }
+
+  /**
+   * @return The number of days since 1970-01-01 in UTC.
+   */
+  public long currentEpochDay() {
+    return Math.floorDiv(currentTimeMillis(), MILLIS_PER_DAY);
+  }
+
+  /**
+   * @return The number of days since 1970-01-01 in the given time zone.
+   */
+  public long currentEpochDay(DateTimeZone zone) {
+    long millis = currentTimeMillis();
+    return Math.floorDiv(millis + zone.getOffset(millis), MILLIS_PER_DAY);
+  }
+
+  /**
+   * Sets the given date to the current time, so that a date can be reused instead of calling {@link #newDate()}.
+   * 
+   * @return The date passed in.
+   */
+  public Date setToNow(Date date) {
+    date.setTime(currentTimeMillis());
+    return date;
+  }
+
+  /**
+   * Sets the given date time to the current time, so that it can be reused instead of calling {@link #newDateTime()}.
+   * 
+   * @return The date time passed in.
+   */
+  public MutableDateTime setToNow(MutableDateTime dateTime) {
+    dateTime.setMillis(currentTimeMillis());
+    return dateTime;
+  }
+
+  /**
+   * Returns a calendar owned by the calling thread, set to the current time in the default time zone as it was when
+   * the thread first called this method. The same instance is returned on every call from a thread, so it must not be
+   * kept or passed to another thread. Use {@link #getCalendarInstance()} for a calendar that can be.
+   */
+  public Calendar getThreadLocalCalendar() {
+    Calendar calendar = threadCalendar.get();
+    calendar.setTimeInMillis(currentTimeMillis());
+    return calendar;
+  }
+
 }
@@ -15,20 +15,31 @@
  */
 package fm.last.commons.lang.time;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.joda.time.LocalDate;
-import org.joda.time.Period;
-import org.joda.time.PeriodType;
 
 /**
  * Represents an Iterable range of LocalDates. This is a discrete set of LocalDates, which makes it distinct from the
  * joda-time Interval class, which represents a continuous interval between two precise Instants.
+ * <p>
+ * The range is held as a pair of epoch days, the number of days since 1970-01-01, so size, containment and set
+ * operations are simple integer arithmetic. Dates in other chronologies, such as Buddhist, are converted to ISO, so
+ * the dates returned are always ISO.
  */
 public class DateRange implements Iterable<LocalDate> {
 
-  private final LocalDate firstDate;
-  private final LocalDate lastDate;
+  private final int firstDay;
+  private final int lastDay;
 
   /**
    * Create a new DateRange from firstDate to lastDate (inclusive)
@@ -38,8 +49,27 @@ public class DateRange implements Iterable<LocalDate> {
    */
   public DateRange(LocalDate firstDate, LocalDate lastDate) {
     validateDates(firstDate, lastDate);
-    this.firstDate = firstDate;
-    this.lastDate = lastDate;
+    firstDay = EpochDays.fromLocalDate(firstDate);
+    lastDay = EpochDays.fromLocalDate(lastDate);
+    // compare once converted, as dates in different chronologies cannot be compared field by field
+    if (firstDay > lastDay) {
+      throw new IllegalArgumentException("First date cannot be after last date");
+    }
+  }
+
+  private DateRange(int firstDay, int lastDay) {
+    this.firstDay = firstDay;
+    this.lastDay = lastDay;
+  }
+
+  /**
+   * Create a new DateRange from the firstDay to the lastDay (inclusive), given as days since 1970-01-01.
+   */
+  public static DateRange ofEpochDays(int firstDay, int lastDay) {
+    if (firstDay > lastDay) {
+      throw new IllegalArgumentException("First date cannot be after last date");
+    }
+    return new DateRange(firstDay, lastDay);
   }
 
   private void validateDates(LocalDate firstDate, LocalDate lastDate) {
@@ -49,9 +79,6 @@ public class DateRange implements Iterable<LocalDate> {
     if (lastDate == null) {
       throw new IllegalArgumentException("Last date cannot be null");
     }
-    if (firstDate.isAfter(lastDate)) {
-      throw new IllegalArgumentException("First date cannot be after last date");
-    }
   }
 
   @Override
@@ -59,28 +86,155 @@ public class DateRange implements Iterable<LocalDate> {
     return new DateRangeIterator();
   }
 
+  /**
+   * @return A spliterator that knows its size and splits the range in half by number of days.
+   */
+  @Override
+  public Spliterator<LocalDate> spliterator() {
+    return new DateRangeSpliterator(firstDay, lastDay);
+  }
+
+  /**
+   * @return The dates in the range, in order.
+   */
+  public Stream<LocalDate> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   * @return The dates in the range, split evenly by number of days for processing in parallel.
+   */
+  public Stream<LocalDate> parallelStream() {
+    return StreamSupport.stream(spliterator(), true);
+  }
+
   public LocalDate getFirstDate() {
-    return firstDate;
+    return EpochDays.toLocalDate(firstDay);
   }
 
   public LocalDate getLastDate() {
-    return lastDate;
+    return EpochDays.toLocalDate(lastDay);
+  }
+
+  /**
+   * @return The first date in the range as the number of days since 1970-01-01.
+   */
+  public int getFirstEpochDay() {
+    return firstDay;
+  }
+
+  /**
+   * @return The last date in the range as the number of days since 1970-01-01.
+   */
+  public int getLastEpochDay() {
+    return lastDay;
   }
 
   /**
    * @return The number of days (inclusive) between the first and last dates in the range
    */
   public int numberOfDays() {
-    Period period = new Period(firstDate, lastDate, PeriodType.days());
-    return period.getDays() + 1; // Add one to be inclusive of lastDate as well
+    return lastDay - firstDay + 1;
+  }
+
+  /**
+   * @return The days in the range, in order, as the number of days since 1970-01-01.
+   */
+  public IntStream epochDays() {
+    return IntStream.rangeClosed(firstDay, lastDay);
+  }
+
+  public boolean contains(LocalDate date) {
+    if (date == null) {
+      throw new IllegalArgumentException("Date cannot be null");
+    }
+    return containsEpochDay(EpochDays.fromLocalDate(date));
+  }
+
+  /**
+   * @param epochDay A date as the number of days since 1970-01-01.
+   */
+  public boolean containsEpochDay(int epochDay) {
+    return firstDay <= epochDay && epochDay <= lastDay;
+  }
+
+  /**
+   * @return true if every date in the other range is also in this one.
+   */
+  public boolean contains(DateRange other) {
+    return firstDay <= other.firstDay && other.lastDay <= lastDay;
+  }
+
+  /**
+   * @return true if the ranges have at least one date in common.
+   */
+  public boolean overlaps(DateRange other) {
+    return firstDay <= other.lastDay && other.firstDay <= lastDay;
+  }
+
+  /**
+   * @return The dates in both ranges, or null if the ranges do not overlap.
+   */
+  public DateRange intersection(DateRange other) {
+    if (!overlaps(other)) {
+      return null;
+    }
+    return new DateRange(Math.max(firstDay, other.firstDay), Math.min(lastDay, other.lastDay));
+  }
+
+  /**
+   * @return The dates in either range.
+   * @throws IllegalArgumentException If the ranges neither overlap nor abut, as their union would not be a range.
+   */
+  public DateRange union(DateRange other) {
+    if (firstDay > other.lastDay + 1L || other.firstDay > lastDay + 1L) {
+      throw new IllegalArgumentException("Ranges " + this + " and " + other + " are not contiguous");
+    }
+    return new DateRange(Math.min(firstDay, other.firstDay), Math.max(lastDay, other.lastDay));
+  }
+
+  /**
+   * @return The dates between the two ranges, or null if they overlap or abut.
+   */
+  public DateRange gap(DateRange other) {
+    if (lastDay + 1L < other.firstDay) {
+      return new DateRange(lastDay + 1, other.firstDay - 1);
+    }
+    if (other.lastDay + 1L < firstDay) {
+      return new DateRange(other.lastDay + 1, firstDay - 1);
+    }
+    return null;
+  }
+
+  /**
+   * Splits the range into consecutive ranges of as near equal size as possible, with the longer ones first.
+   * 
+   * @param parts The number of ranges wanted. Fewer are returned if the range has fewer days than this.
+   */
+  public List<DateRange> split(int parts) {
+    if (parts < 1) {
+      throw new IllegalArgumentException("Parts must be at least 1");
+    }
+    int days = numberOfDays();
+    int count = Math.min(parts, days);
+    int size = days / count;
+    int remainder = days % count;
+    List<DateRange> ranges = new ArrayList<DateRange>(count);
+    int first = firstDay;
+    for (int i = 0; i < count; i++) {
+      int last = first + size - 1 + (i < remainder ? 1 : 0);
+      ranges.add(new DateRange(first, last));
+      first = last + 1;
+    }
+    return ranges;
   }
 
   @Override
   public int hashCode() {
     final int prime = 31;
     int result = 1;
-    result = prime * result + firstDate.hashCode();
-    result = prime * result + lastDate.hashCode();
+    result = prime * result + firstDay;
+    result = prime * result + lastDay;
     return result;
   }
 
@@ -96,32 +250,94 @@ public class DateRange implements Iterable<LocalDate> {
       return false;
     }
     DateRange other = (DateRange) obj;
-    if (!firstDate.equals(other.firstDate)) {
+    if (firstDay != other.firstDay) {
       return false;
     }
-    if (!lastDate.equals(other.lastDate)) {
+    if (lastDay != other.lastDay) {
       return false;
     }
     return true;
   }
 
+  @Override
+  public String toString() {
+    return getFirstDate() + "/" + getLastDate();
+  }
+
+  private static class DateRangeSpliterator implements Spliterator<LocalDate> {
+    private long currentDay;
+    private final int lastDay;
+
+    private DateRangeSpliterator(int firstDay, int lastDay) {
+      currentDay = firstDay;
+      this.lastDay = lastDay;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super LocalDate> action) {
+      if (currentDay > lastDay) {
+        return false;
+      }
+      action.accept(EpochDays.toLocalDate((int) currentDay++));
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super LocalDate> action) {
+      long day = currentDay;
+      currentDay = lastDay + 1L;
+      for (; day <= lastDay; day++) {
+        action.accept(EpochDays.toLocalDate((int) day));
+      }
+    }
+
+    @Override
+    public Spliterator<LocalDate> trySplit() {
+      long remaining = lastDay - currentDay + 1;
+      if (remaining < 2) {
+        return null;
+      }
+      int splitFirstDay = (int) currentDay;
+      int splitLastDay = (int) (currentDay + remaining / 2 - 1);
+      currentDay = splitLastDay + 1L;
+      return new DateRangeSpliterator(splitFirstDay, splitLastDay);
+    }
+
+    @Override
+    public long estimateSize() {
+      return lastDay - currentDay + 1;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | DISTINCT | SORTED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    @Override
+    public Comparator<? super LocalDate> getComparator() {
+      // LocalDates are in their natural order
+      return null;
+    }
+  }
+
   private class DateRangeIterator implements Iterator<LocalDate> {
-    private LocalDate currentDate;
+    private long currentDay;
 
     private DateRangeIterator() {
-      currentDate = firstDate;
+      currentDay = firstDay;
     }
 
     @Override
     public boolean hasNext() {
-      return !currentDate.isAfter(lastDate);
+      return currentDay <= lastDay;
     }
 
     @Override
     public LocalDate next() {
-      LocalDate current = currentDate;
-      currentDate = currentDate.plusDays(1);
-      return current;
+      if (currentDay > lastDay) {
+        throw new NoSuchElementException();
+      }
+      return EpochDays.toLocalDate((int) currentDay++);
     }
 
     @Override
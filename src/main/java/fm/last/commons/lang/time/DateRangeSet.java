@@ -0,0 +1,248 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.joda.time.LocalDate;
+
+/**
+ * An immutable set of dates held as sorted, non-overlapping, non-adjacent {@link DateRange}s. Overlapping and adjacent
+ * ranges are coalesced when the set is built, so the set has a single representation however it was built, and
+ * membership is a binary search over the epoch days of the range boundaries.
+ * <p>
+ * Build large sets with a {@link Builder}, which keeps the ranges in primitive arrays until they are sorted and
+ * merged. Use a {@link DateRangeTree} to find which of the original ranges contain a date.
+ */
+public final class DateRangeSet implements Iterable<DateRange> {
+
+  private static final DateRangeSet EMPTY = new DateRangeSet(new int[0], new int[0]);
+
+  private final int[] firstDays;
+  private final int[] lastDays;
+
+  private DateRangeSet(int[] firstDays, int[] lastDays) {
+    this.firstDays = firstDays;
+    this.lastDays = lastDays;
+  }
+
+  public static DateRangeSet of(Collection<DateRange> ranges) {
+    Builder builder = new Builder(ranges.size());
+    for (DateRange range : ranges) {
+      builder.add(range);
+    }
+    return builder.build();
+  }
+
+  public static DateRangeSet of(DateRange... ranges) {
+    return of(Arrays.asList(ranges));
+  }
+
+  public static Builder builder() {
+    return new Builder(16);
+  }
+
+  public boolean contains(LocalDate date) {
+    if (date == null) {
+      throw new IllegalArgumentException("Date cannot be null");
+    }
+    return containsEpochDay(EpochDays.fromLocalDate(date));
+  }
+
+  /**
+   * @param epochDay A date as the number of days since 1970-01-01.
+   */
+  public boolean containsEpochDay(int epochDay) {
+    return indexOf(epochDay) >= 0;
+  }
+
+  /**
+   * @return true if every date in the range is in this set.
+   */
+  public boolean contains(DateRange range) {
+    int index = indexOf(range.getFirstEpochDay());
+    return index >= 0 && lastDays[index] >= range.getLastEpochDay();
+  }
+
+  /**
+   * @return true if any date in the range is in this set.
+   */
+  public boolean overlaps(DateRange range) {
+    // the last merged range starting on or before the end of the given range
+    int index = floorIndex(range.getLastEpochDay());
+    return index >= 0 && lastDays[index] >= range.getFirstEpochDay();
+  }
+
+  /**
+   * @return The merged range containing the date, or null if the date is not in this set.
+   */
+  public DateRange getRangeContaining(LocalDate date) {
+    if (date == null) {
+      throw new IllegalArgumentException("Date cannot be null");
+    }
+    int index = indexOf(EpochDays.fromLocalDate(date));
+    return index < 0 ? null : getRange(index);
+  }
+
+  private int indexOf(int epochDay) {
+    int index = floorIndex(epochDay);
+    return index >= 0 && lastDays[index] >= epochDay ? index : -1;
+  }
+
+  /**
+   * @return The index of the last range starting on or before the given day, or -1 if there is none.
+   */
+  private int floorIndex(int epochDay) {
+    int index = Arrays.binarySearch(firstDays, epochDay);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  private DateRange getRange(int index) {
+    return DateRange.ofEpochDays(firstDays[index], lastDays[index]);
+  }
+
+  /**
+   * @return The merged ranges, in order.
+   */
+  public List<DateRange> getRanges() {
+    return new AbstractList<DateRange>() {
+      @Override
+      public DateRange get(int index) {
+        return getRange(index);
+      }
+
+      @Override
+      public int size() {
+        return firstDays.length;
+      }
+    };
+  }
+
+  @Override
+  public Iterator<DateRange> iterator() {
+    return getRanges().iterator();
+  }
+
+  /**
+   * @return The number of merged ranges.
+   */
+  public int numberOfRanges() {
+    return firstDays.length;
+  }
+
+  /**
+   * @return The number of dates in the set.
+   */
+  public long numberOfDays() {
+    long days = 0;
+    for (int i = 0; i < firstDays.length; i++) {
+      days += lastDays[i] - firstDays[i] + 1L;
+    }
+    return days;
+  }
+
+  public boolean isEmpty() {
+    return firstDays.length == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + Arrays.hashCode(firstDays);
+    result = prime * result + Arrays.hashCode(lastDays);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof DateRangeSet)) {
+      return false;
+    }
+    DateRangeSet other = (DateRangeSet) obj;
+    return Arrays.equals(firstDays, other.firstDays) && Arrays.equals(lastDays, other.lastDays);
+  }
+
+  @Override
+  public String toString() {
+    return getRanges().toString();
+  }
+
+  /**
+   * Collects ranges in primitive arrays and sorts and merges them once, in {@link #build()}.
+   */
+  public static final class Builder {
+    private long[] ranges;
+    private int size;
+
+    private Builder(int capacity) {
+      ranges = new long[Math.max(capacity, 1)];
+    }
+
+    public Builder add(DateRange range) {
+      if (range == null) {
+        throw new IllegalArgumentException("Range cannot be null");
+      }
+      return addEpochDays(range.getFirstEpochDay(), range.getLastEpochDay());
+    }
+
+    /**
+     * Adds the range from the firstDay to the lastDay (inclusive), given as days since 1970-01-01.
+     */
+    public Builder addEpochDays(int firstDay, int lastDay) {
+      if (firstDay > lastDay) {
+        throw new IllegalArgumentException("First date cannot be after last date");
+      }
+      if (size == ranges.length) {
+        ranges = Arrays.copyOf(ranges, size * 2);
+      }
+      // sorting on the packed value orders by first day, the last day only breaks ties
+      ranges[size++] = (long) firstDay << 32 | lastDay & 0xFFFFFFFFL;
+      return this;
+    }
+
+    public DateRangeSet build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+      long[] sorted = Arrays.copyOf(ranges, size);
+      Arrays.sort(sorted);
+      int[] firstDays = new int[size];
+      int[] lastDays = new int[size];
+      int count = 0;
+      for (long range : sorted) {
+        int first = (int) (range >> 32);
+        int last = (int) range;
+        if (count > 0 && first <= lastDays[count - 1] + 1L) {
+          lastDays[count - 1] = Math.max(lastDays[count - 1], last);
+        } else {
+          firstDays[count] = first;
+          lastDays[count] = last;
+          count++;
+        }
+      }
+      return new DateRangeSet(Arrays.copyOf(firstDays, count), Arrays.copyOf(lastDays, count));
+    }
+  }
+
+}
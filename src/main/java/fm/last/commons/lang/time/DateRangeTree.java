@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.joda.time.LocalDate;
+
+/**
+ * An immutable interval tree of {@link DateRange}s, each with an associated value, for finding the values whose ranges
+ * contain a date or overlap a range. The ranges are kept sorted by first day in primitive arrays, which are read as an
+ * implicit balanced binary search tree, with each node holding the latest last day in its subtree; a query takes
+ * O(log n + k) time for k matches, and the tree takes a few words per range.
+ * <p>
+ * Build large trees with a {@link Builder}, which sorts once when {@link Builder#build()} is called. Use a
+ * {@link DateRangeSet} if only the dates covered matter, not which ranges cover them.
+ * 
+ * @param <V> The type of value associated with each range.
+ */
+public final class DateRangeTree<V> {
+
+  private final int[] firstDays;
+  private final int[] lastDays;
+  private final int[] maxLastDays;
+  private final Object[] values;
+
+  private DateRangeTree(int[] firstDays, int[] lastDays, Object[] values) {
+    this.firstDays = firstDays;
+    this.lastDays = lastDays;
+    this.values = values;
+    maxLastDays = new int[firstDays.length];
+    fillMaxLastDays(0, firstDays.length - 1);
+  }
+
+  /**
+   * @return A tree whose values are the ranges themselves.
+   */
+  public static DateRangeTree<DateRange> of(Collection<DateRange> ranges) {
+    Builder<DateRange> builder = new Builder<DateRange>(ranges.size());
+    for (DateRange range : ranges) {
+      builder.add(range, range);
+    }
+    return builder.build();
+  }
+
+  public static <V> Builder<V> builder() {
+    return new Builder<V>(16);
+  }
+
+  private int fillMaxLastDays(int low, int high) {
+    if (low > high) {
+      return Integer.MIN_VALUE;
+    }
+    int middle = (low + high) >>> 1;
+    int max = Math.max(lastDays[middle], Math.max(fillMaxLastDays(low, middle - 1), fillMaxLastDays(middle + 1, high)));
+    maxLastDays[middle] = max;
+    return max;
+  }
+
+  /**
+   * @return The values of the ranges containing the date, in order of the ranges' first days.
+   */
+  public List<V> getValuesContaining(LocalDate date) {
+    if (date == null) {
+      throw new IllegalArgumentException("Date cannot be null");
+    }
+    return getValuesContainingEpochDay(EpochDays.fromLocalDate(date));
+  }
+
+  /**
+   * @param epochDay A date as the number of days since 1970-01-01.
+   * @return The values of the ranges containing the date, in order of the ranges' first days.
+   */
+  public List<V> getValuesContainingEpochDay(int epochDay) {
+    List<V> matches = new ArrayList<V>();
+    collectOverlapping(0, firstDays.length - 1, epochDay, epochDay, matches);
+    return matches;
+  }
+
+  /**
+   * @return The values of the ranges sharing at least one date with the given range, in order of the ranges' first
+   *         days.
+   */
+  public List<V> getValuesOverlapping(DateRange range) {
+    List<V> matches = new ArrayList<V>();
+    collectOverlapping(0, firstDays.length - 1, range.getFirstEpochDay(), range.getLastEpochDay(), matches);
+    return matches;
+  }
+
+  /**
+   * @return true if any range contains the date.
+   */
+  public boolean containsEpochDay(int epochDay) {
+    int low = 0;
+    int high = firstDays.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (maxLastDays[middle] < epochDay) {
+        return false;
+      }
+      if (firstDays[middle] <= epochDay && epochDay <= lastDays[middle]) {
+        return true;
+      }
+      // if the left subtree reaches the day, a match is there or nowhere: every range to the right starts after it
+      int leftHigh = middle - 1;
+      if (low <= leftHigh && maxLastDays[(low + leftHigh) >>> 1] >= epochDay) {
+        high = leftHigh;
+      } else if (firstDays[middle] <= epochDay) {
+        low = middle + 1;
+      } else {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void collectOverlapping(int low, int high, int firstDay, int lastDay, List<V> matches) {
+    if (low > high) {
+      return;
+    }
+    int middle = (low + high) >>> 1;
+    if (maxLastDays[middle] < firstDay) {
+      return;
+    }
+    collectOverlapping(low, middle - 1, firstDay, lastDay, matches);
+    if (firstDays[middle] > lastDay) {
+      return;
+    }
+    if (lastDays[middle] >= firstDay) {
+      matches.add((V) values[middle]);
+    }
+    collectOverlapping(middle + 1, high, firstDay, lastDay, matches);
+  }
+
+  /**
+   * @return The number of ranges in the tree.
+   */
+  public int size() {
+    return firstDays.length;
+  }
+
+  /**
+   * Collects ranges in primitive arrays and sorts them once, in {@link #build()}.
+   */
+  public static final class Builder<V> {
+    private int[] firstDays;
+    private int[] lastDays;
+    private Object[] values;
+    private int size;
+
+    private Builder(int capacity) {
+      capacity = Math.max(capacity, 1);
+      firstDays = new int[capacity];
+      lastDays = new int[capacity];
+      values = new Object[capacity];
+    }
+
+    public Builder<V> add(DateRange range, V value) {
+      if (range == null) {
+        throw new IllegalArgumentException("Range cannot be null");
+      }
+      if (size == firstDays.length) {
+        firstDays = Arrays.copyOf(firstDays, size * 2);
+        lastDays = Arrays.copyOf(lastDays, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      firstDays[size] = range.getFirstEpochDay();
+      lastDays[size] = range.getLastEpochDay();
+      values[size] = value;
+      size++;
+      return this;
+    }
+
+    public DateRangeTree<V> build() {
+      // sort indexes by first day, keeping insertion order for ties
+      long[] order = new long[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = (long) firstDays[i] << 32 | i;
+      }
+      Arrays.sort(order);
+      int[] sortedFirstDays = new int[size];
+      int[] sortedLastDays = new int[size];
+      Object[] sortedValues = new Object[size];
+      for (int i = 0; i < size; i++) {
+        int index = (int) order[i];
+        sortedFirstDays[i] = firstDays[index];
+        sortedLastDays[i] = lastDays[index];
+        sortedValues[i] = values[index];
+      }
+      return new DateRangeTree<V>(sortedFirstDays, sortedLastDays, sortedValues);
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * Conversions between ISO dates and the number of days since 1970-01-01, using the proleptic Gregorian calendar
+ * arithmetic from Howard Hinnant's chrono-compatible date algorithms, so no chronology lookups are needed. Dates in
+ * other chronologies are converted to ISO first.
+ */
+final class EpochDays {
+
+  private static final int DAYS_PER_ERA = 146097;
+  private static final int DAYS_FROM_YEAR_0_TO_EPOCH = 719468;
+  private static final Chronology ISO_UTC = ISOChronology.getInstanceUTC();
+
+  private EpochDays() {
+  }
+
+  /**
+   * @throws IllegalArgumentException If the date is too far from 1970 to count in an int.
+   */
+  static int fromLocalDate(LocalDate date) {
+    if (date.getChronology() != ISO_UTC) {
+      // the fields of a Buddhist or Julian date mean a different day, but the underlying millis are the same
+      long millis = date.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+      return checkedEpochDay(Math.floorDiv(millis, DateTimeConstants.MILLIS_PER_DAY));
+    }
+    return fromFields(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth());
+  }
+
+  /**
+   * @throws IllegalArgumentException If the date is too far from 1970 to count in an int.
+   */
+  static int fromFields(int year, int month, int day) {
+    // years start in March so that the leap day is the last day of the year
+    long y = month <= 2 ? year - 1L : year;
+    long era = Math.floorDiv(y, 400);
+    long yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return checkedEpochDay(era * DAYS_PER_ERA + dayOfEra - DAYS_FROM_YEAR_0_TO_EPOCH);
+  }
+
+  private static int checkedEpochDay(long epochDay) {
+    if (epochDay < Integer.MIN_VALUE || epochDay > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Date is out of range: " + epochDay + " days from 1970-01-01");
+    }
+    return (int) epochDay;
+  }
+
+  static LocalDate toLocalDate(int epochDay) {
+    long fields = toFields(epochDay);
+    return new LocalDate(year(fields), month(fields), day(fields));
+  }
+
+  /**
+   * @return The year, month and day packed into a long, to be read with {@link #year(long)}, {@link #month(long)} and
+   *         {@link #day(long)}, so that callers can get all three without allocating.
+   */
+  static long toFields(int epochDay) {
+    long days = (long) epochDay + DAYS_FROM_YEAR_0_TO_EPOCH;
+    long era = Math.floorDiv(days, DAYS_PER_ERA);
+    long dayOfEra = days - era * DAYS_PER_ERA;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    int dayOfYear = (int) (dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100));
+    int marchBasedMonth = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * marchBasedMonth + 2) / 5 + 1;
+    int month = marchBasedMonth < 10 ? marchBasedMonth + 3 : marchBasedMonth - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    return year << 9 | month << 5 | day;
+  }
+
+  static int year(long fields) {
+    return (int) (fields >> 9);
+  }
+
+  static int month(long fields) {
+    return (int) (fields >> 5) & 0xF;
+  }
+
+  static int day(long fields) {
+    return (int) fields & 0x1F;
+  }
+
+  /**
+   * @return The number of days in the month, or 0 if the month is not between 1 and 12.
+   */
+  static int lengthOfMonth(int year, int month) {
+    switch (month) {
+    case 2:
+      return isLeapYear(year) ? 29 : 28;
+    case 4:
+    case 6:
+    case 9:
+    case 11:
+      return 30;
+    case 1:
+    case 3:
+    case 5:
+    case 7:
+    case 8:
+    case 10:
+    case 12:
+      return 31;
+    default:
+      return 0;
+    }
+  }
+
+  static boolean isLeapYear(int year) {
+    return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+  }
+
+}
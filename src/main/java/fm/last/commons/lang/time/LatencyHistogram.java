@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of latencies in nanoseconds with log-linear buckets, in the style of HdrHistogram. Each power
+ * of two range is split into 16 linear buckets, so every recorded value is known to within 1/16, about 6%, whatever its
+ * magnitude, from nanoseconds to centuries, in 960 counters. Values below 32 are counted exactly.
+ * <p>
+ * Recording is lock-free and never allocates, so one histogram may be shared by many threads, but every recording
+ * updates a shared counter; {@link LatencyRecorder} spreads recordings across several histograms when contention
+ * matters. Queries read the counters one at a time, so a histogram being recorded to gives a close but not atomic view.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT_BITS = SUB_BUCKET_BITS - 1;
+  private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_BITS;
+  static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong minNanos = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong maxNanos = new AtomicLong(-1);
+
+  /**
+   * Records a latency. Negative latencies, which a clock that is not monotonic can produce, are recorded as zero.
+   */
+  public void recordNanos(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(indexOf(value));
+    updateMin(value);
+    updateMax(value);
+  }
+
+  public void record(long duration, TimeUnit unit) {
+    recordNanos(unit.toNanos(duration));
+  }
+
+  /**
+   * Adds all the values recorded by another histogram to this one.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = other.counts.get(i);
+      if (count != 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+    updateMin(other.minNanos.get());
+    updateMax(other.maxNanos.get());
+  }
+
+  /**
+   * @return A copy of this histogram that further recordings do not affect.
+   */
+  public LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram();
+    copy.add(this);
+    return copy;
+  }
+
+  /**
+   * Clears all recorded values. Values recorded while the histogram is being reset may be partly lost.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    minNanos.set(Long.MAX_VALUE);
+    maxNanos.set(-1);
+  }
+
+  private void updateMin(long value) {
+    long current;
+    while (value < (current = minNanos.get())) {
+      if (minNanos.compareAndSet(current, value)) {
+        return;
+      }
+    }
+  }
+
+  private void updateMax(long value) {
+    long current;
+    while (value > (current = maxNanos.get())) {
+      if (maxNanos.compareAndSet(current, value)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return The number of values recorded.
+   */
+  public long getCount() {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * @return The smallest value recorded, or 0 if none have been.
+   */
+  public long getMinNanos() {
+    long min = minNanos.get();
+    return min == Long.MAX_VALUE ? 0 : min;
+  }
+
+  /**
+   * @return The largest value recorded, or 0 if none have been.
+   */
+  public long getMaxNanos() {
+    return Math.max(0, maxNanos.get());
+  }
+
+  /**
+   * @return The mean of the recorded values, taking each to be the middle of its bucket, or 0 if none have been
+   *         recorded.
+   */
+  public double getMeanNanos() {
+    long total = 0;
+    double sum = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = counts.get(i);
+      if (count != 0) {
+        total += count;
+        sum += count * (lowestEquivalentValue(i) / 2.0 + highestEquivalentValue(i) / 2.0);
+      }
+    }
+    return total == 0 ? 0 : sum / total;
+  }
+
+  /**
+   * @param percentile Between 0 and 100.
+   * @return The largest value that falls in the same bucket as the given percentile of recorded values, so an upper
+   *         bound within about 6%, or 0 if no values have been recorded.
+   */
+  public long getPercentileNanos(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100");
+    }
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(highestEquivalentValue(i), getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  /**
+   * @return The bucket that a non-negative value is counted in.
+   */
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_HALF_COUNT_BITS;
+    return (shift << SUB_BUCKET_HALF_COUNT_BITS) + (int) (value >>> shift);
+  }
+
+  static long lowestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index >>> SUB_BUCKET_HALF_COUNT_BITS) - 1;
+    return (long) (index - (shift << SUB_BUCKET_HALF_COUNT_BITS)) << shift;
+  }
+
+  static long highestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index >>> SUB_BUCKET_HALF_COUNT_BITS) - 1;
+    return lowestEquivalentValue(index) + (1L << shift) - 1;
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+/**
+ * Records latencies from many threads into a fixed number of {@link LatencyHistogram}s, chosen by thread, so that
+ * threads recording at the same time rarely update the same counters. {@link #snapshot()} merges them into a single
+ * histogram for percentile queries. Memory use is fixed by the number of processors, not the number of threads.
+ */
+public class LatencyRecorder {
+
+  private final Clock clock;
+  private final LatencyHistogram[] stripes;
+  private final int mask;
+
+  /**
+   * Creates a recorder that measures time with the system clock.
+   */
+  public LatencyRecorder() {
+    this(Clock.getInstance());
+  }
+
+  /**
+   * @param clock Source of time for {@link #startNanos()} and {@link #recordSince(long)}.
+   */
+  public LatencyRecorder(Clock clock) {
+    if (clock == null) {
+      throw new IllegalArgumentException("Clock cannot be null");
+    }
+    this.clock = clock;
+    int stripeCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+    stripes = new LatencyHistogram[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new LatencyHistogram();
+    }
+    mask = stripeCount - 1;
+  }
+
+  public void recordNanos(long nanos) {
+    stripes[(int) Thread.currentThread().getId() & mask].recordNanos(nanos);
+  }
+
+  /**
+   * @return The current time of the recorder's clock, to pass to {@link #recordSince(long)}.
+   */
+  public long startNanos() {
+    return clock.nanoTime();
+  }
+
+  /**
+   * Records the time elapsed since the given reading of {@link #startNanos()}.
+   * 
+   * @return The elapsed time in nanoseconds.
+   */
+  public long recordSince(long startNanos) {
+    long elapsedNanos = clock.nanoTime() - startNanos;
+    recordNanos(elapsedNanos);
+    return elapsedNanos;
+  }
+
+  /**
+   * @return A new histogram holding everything recorded so far.
+   */
+  public LatencyHistogram snapshot() {
+    LatencyHistogram snapshot = new LatencyHistogram();
+    for (LatencyHistogram stripe : stripes) {
+      snapshot.add(stripe);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Clears all recorded values. Values recorded while the recorder is being reset may be partly lost.
+   */
+  public void reset() {
+    for (LatencyHistogram stripe : stripes) {
+      stripe.reset();
+    }
+  }
+
+}
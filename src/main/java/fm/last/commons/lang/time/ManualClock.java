@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+
+/**
+ * A {@link Clock} that only moves when told to, for testing time dependent code without waiting. Time starts at the
+ * given instant and moves forward with {@link #advance(long, TimeUnit)}, or when code under test calls
+ * {@link #sleep(long, TimeUnit)}. {@link #nanoTime()} counts nanoseconds since the epoch, so both readings stay in
+ * step.
+ * <p>
+ * If a {@link VirtualTimeScheduler} is attached to the clock, advancing it runs the scheduler's tasks that fall due, in
+ * order, on the advancing thread, with the clock set to each task's due time while it runs.
+ */
+public class ManualClock extends Clock {
+
+  private volatile long nanoTime;
+  private volatile VirtualTimeScheduler scheduler;
+
+  /**
+   * Creates a clock set to 1970-01-01T00:00:00Z.
+   */
+  public ManualClock() {
+    this(0);
+  }
+
+  /**
+   * @param currentTimeMillis The time to start at, in milliseconds since the epoch.
+   */
+  public ManualClock(long currentTimeMillis) {
+    nanoTime = TimeUnit.MILLISECONDS.toNanos(currentTimeMillis);
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return Math.floorDiv(nanoTime, TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  @Override
+  public long nanoTime() {
+    return nanoTime;
+  }
+
+  @Override
+  public Calendar getCalendarInstance() {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(currentTimeMillis());
+    return calendar;
+  }
+
+  @Override
+  public Date newDate() {
+    return new Date(currentTimeMillis());
+  }
+
+  @Override
+  public DateTime newDateTime() {
+    return new DateTime(currentTimeMillis());
+  }
+
+  /**
+   * Moves the clock forward, running any scheduled tasks that fall due.
+   */
+  public void advance(long duration, TimeUnit unit) {
+    if (duration < 0) {
+      throw new IllegalArgumentException("Cannot move the clock backwards");
+    }
+    long targetNanos = nanoTime + unit.toNanos(duration);
+    VirtualTimeScheduler scheduler = this.scheduler;
+    if (scheduler != null) {
+      scheduler.runUntil(targetNanos);
+    }
+    moveTo(targetNanos);
+  }
+
+  /**
+   * Advances the clock instead of blocking, as the calling thread would have woken up at that time.
+   */
+  @Override
+  public void sleep(long duration, TimeUnit unit) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException("sleep interrupted");
+    }
+    if (duration > 0) {
+      advance(duration, unit);
+    }
+  }
+
+  /**
+   * Returns straight away if the latch has already counted down, and otherwise advances the clock by the whole duration
+   * as {@link #sleep(long, TimeUnit)} does.
+   */
+  @Override
+  public boolean await(CountDownLatch latch, long duration, TimeUnit unit) throws InterruptedException {
+    if (latch.getCount() == 0) {
+      return true;
+    }
+    sleep(duration, unit);
+    return latch.getCount() == 0;
+  }
+
+  synchronized void moveTo(long targetNanos) {
+    if (targetNanos - nanoTime > 0) {
+      nanoTime = targetNanos;
+    }
+  }
+
+  synchronized void attach(VirtualTimeScheduler scheduler) {
+    if (this.scheduler != null) {
+      throw new IllegalStateException("Clock already has a scheduler");
+    }
+    this.scheduler = scheduler;
+  }
+
+}
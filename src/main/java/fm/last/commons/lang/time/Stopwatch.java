@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures elapsed time with a {@link Clock}'s monotonic {@link Clock#nanoTime()}. A stopwatch can be restarted and
+ * reused, so timing a loop need not allocate, but is not safe for use by more than one thread at a time.
+ */
+public final class Stopwatch {
+
+  private final Clock clock;
+  private long startNanos;
+
+  private Stopwatch(Clock clock) {
+    this.clock = clock;
+    startNanos = clock.nanoTime();
+  }
+
+  /**
+   * @return A running stopwatch using the system clock.
+   */
+  public static Stopwatch start() {
+    return start(Clock.getInstance());
+  }
+
+  /**
+   * @return A running stopwatch using the given clock.
+   */
+  public static Stopwatch start(Clock clock) {
+    if (clock == null) {
+      throw new IllegalArgumentException("Clock cannot be null");
+    }
+    return new Stopwatch(clock);
+  }
+
+  public long elapsedNanos() {
+    return clock.nanoTime() - startNanos;
+  }
+
+  public long elapsed(TimeUnit unit) {
+    return unit.convert(elapsedNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Starts timing again from now.
+   * 
+   * @return The time elapsed before the restart, in nanoseconds.
+   */
+  public long restart() {
+    long nowNanos = clock.nanoTime();
+    long elapsedNanos = nowNanos - startNanos;
+    startNanos = nowNanos;
+    return elapsedNanos;
+  }
+
+  /**
+   * Records the elapsed time, and restarts the stopwatch so the next call records the following interval.
+   * 
+   * @return The time recorded, in nanoseconds.
+   */
+  public long recordTo(LatencyRecorder recorder) {
+    long elapsedNanos = restart();
+    recorder.recordNanos(elapsedNanos);
+    return elapsedNanos;
+  }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A hierarchical timing wheel for large numbers of timeouts, such as per-session or per-lease expiry, where a
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor}'s heap would make every schedule and cancel O(log n).
+ * Scheduling and cancelling are O(1): a timeout is linked into the slot for its deadline on the lowest wheel whose
+ * span covers it, and unlinked on cancel. Each wheel has the given number of slots, and each slot of a higher wheel
+ * spans a whole revolution of the wheel below; when the lowest wheel comes round, the due slot of the wheel above is
+ * moved down.
+ * <p>
+ * The wheel does not run a thread of its own. Each call to {@link #advance()} reads the clock and runs every timeout
+ * that has come due since the last call, in one batch, on the calling thread, so it is typically called from a single
+ * scheduled task or event loop every tick. Timeouts never run early, and run up to one tick plus the interval between
+ * calls to {@link #advance()} late; a delay too large to reach never runs at all. All methods are thread-safe; tasks
+ * run without the wheel's lock held, so they may schedule or cancel other timeouts.
+ */
+public class TimingWheel {
+  private static Logger log = Logger.getLogger(TimingWheel.class);
+
+  private final Clock clock;
+  private final long startNanos;
+  private final long tickNanos;
+  private final int wheelBits;
+  private final int wheelMask;
+  private final Slot[][] wheels;
+  private final int[] wheelCounts;
+  private final Slot due = new Slot();
+
+  private long currentTick;
+  private int pending;
+
+  /**
+   * Creates a wheel driven by the system clock.
+   * 
+   * @param tickDuration The resolution of the wheel.
+   * @param wheelSize The number of slots in each wheel, a power of two of at least 2.
+   */
+  public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+    this(tickDuration, unit, wheelSize, Clock.getInstance());
+  }
+
+  /**
+   * @param tickDuration The resolution of the wheel.
+   * @param wheelSize The number of slots in each wheel, a power of two of at least 2.
+   * @param clock Source of time for deadlines.
+   */
+  public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize, Clock clock) {
+    if (tickDuration <= 0) {
+      throw new IllegalArgumentException("Tick duration must be positive");
+    }
+    if (wheelSize < 2 || Integer.bitCount(wheelSize) != 1) {
+      throw new IllegalArgumentException("Wheel size must be a power of two of at least 2");
+    }
+    if (clock == null) {
+      throw new IllegalArgumentException("Clock cannot be null");
+    }
+    this.clock = clock;
+    tickNanos = unit.toNanos(tickDuration);
+    wheelBits = Integer.numberOfTrailingZeros(wheelSize);
+    wheelMask = wheelSize - 1;
+    int levels = (Long.SIZE - 1 + wheelBits - 1) / wheelBits;
+    wheels = new Slot[levels][];
+    wheelCounts = new int[levels];
+    startNanos = clock.nanoTime();
+  }
+
+  /**
+   * Schedules a task to run once the delay has elapsed.
+   * 
+   * @return A handle for cancelling the task.
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    if (task == null) {
+      throw new IllegalArgumentException("Task cannot be null");
+    }
+    long nowNanos = clock.nanoTime() - startNanos;
+    long delayNanos = Math.max(0, unit.toNanos(delay));
+    // saturate rather than overflow into the past, leaving the timeout on the top wheel
+    long deadlineNanos = delayNanos > Long.MAX_VALUE - nowNanos ? Long.MAX_VALUE : nowNanos + delayNanos;
+    // round up so that timeouts never run early
+    long deadlineTick = deadlineNanos / tickNanos + (deadlineNanos % tickNanos == 0 ? 0 : 1);
+    Timeout timeout = new Timeout(task, deadlineNanos, deadlineTick);
+    synchronized (this) {
+      insert(timeout);
+      pending++;
+    }
+    return timeout;
+  }
+
+  /**
+   * Runs every timeout that has come due, on the calling thread. A task that throws an exception is logged and does not
+   * stop the others from running. An {@link Error} is rethrown, and the timeouts that had not yet run are left due for
+   * the next call.
+   * 
+   * @return The number of timeouts run.
+   */
+  public int advance() {
+    Timeout expired;
+    synchronized (this) {
+      long targetTick = (clock.nanoTime() - startNanos) / tickNanos;
+      while (currentTick < targetTick && pending > due.size) {
+        int level = 0;
+        while (wheelCounts[level] == 0) {
+          level++;
+        }
+        if (level > 0) {
+          // nothing can come due before the lowest occupied wheel next moves timeouts down
+          int shift = level * wheelBits;
+          long nextCascade = ((currentTick >>> shift) + 1) << shift;
+          if (nextCascade > targetTick) {
+            break;
+          }
+          currentTick = nextCascade - 1;
+        }
+        currentTick++;
+        cascade();
+        Slot slot = slot(0, currentTick);
+        if (slot != null && slot.size > 0) {
+          wheelCounts[0] -= slot.size;
+          due.appendAll(slot);
+        }
+      }
+      currentTick = Math.max(currentTick, targetTick);
+      pending -= due.size;
+      expired = due.removeAll();
+    }
+    int count = 0;
+    while (expired != null) {
+      Timeout timeout = expired;
+      expired = timeout.next;
+      timeout.next = null;
+      count++;
+      try {
+        timeout.task.run();
+      } catch (RuntimeException e) {
+        log.error("Timeout task failed", e);
+      } catch (Error e) {
+        requeue(expired);
+        throw e;
+      }
+    }
+    return count;
+  }
+
+  private synchronized void requeue(Timeout expired) {
+    while (expired != null) {
+      Timeout timeout = expired;
+      expired = timeout.next;
+      due.append(timeout);
+      pending++;
+    }
+  }
+
+  /**
+   * @return The number of timeouts waiting to run.
+   */
+  public synchronized int getPendingCount() {
+    return pending;
+  }
+
+  private void insert(Timeout timeout) {
+    long deadlineTick = timeout.deadlineTick;
+    if (deadlineTick <= currentTick) {
+      timeout.state = Timeout.EXPIRED;
+      due.append(timeout);
+      return;
+    }
+    int level = 0;
+    while (level < wheels.length - 1
+        && (deadlineTick >>> (level * wheelBits)) - (currentTick >>> (level * wheelBits)) > wheelMask) {
+      level++;
+    }
+    Slot[] wheel = wheels[level];
+    if (wheel == null) {
+      wheel = new Slot[wheelMask + 1];
+      wheels[level] = wheel;
+    }
+    int index = (int) (deadlineTick >>> (level * wheelBits)) & wheelMask;
+    Slot slot = wheel[index];
+    if (slot == null) {
+      slot = new Slot();
+      wheel[index] = slot;
+    }
+    timeout.level = level;
+    slot.append(timeout);
+    wheelCounts[level]++;
+  }
+
+  private void cascade() {
+    int top = 1;
+    while (top < wheels.length && (currentTick & ((1L << (top * wheelBits)) - 1)) == 0) {
+      top++;
+    }
+    // move timeouts down from the highest wheel that has come round first
+    for (int level = top - 1; level >= 1; level--) {
+      Slot slot = slot(level, currentTick);
+      if (slot != null && slot.size > 0) {
+        wheelCounts[level] -= slot.size;
+        Timeout timeout = slot.removeAll();
+        while (timeout != null) {
+          Timeout next = timeout.next;
+          timeout.next = null;
+          insert(timeout);
+          timeout = next;
+        }
+      }
+    }
+  }
+
+  private Slot slot(int level, long tick) {
+    Slot[] wheel = wheels[level];
+    return wheel == null ? null : wheel[(int) (tick >>> (level * wheelBits)) & wheelMask];
+  }
+
+  private synchronized boolean cancel(Timeout timeout) {
+    if (timeout.state != Timeout.PENDING) {
+      return false;
+    }
+    timeout.slot.remove(timeout);
+    wheelCounts[timeout.level]--;
+    pending--;
+    timeout.state = Timeout.CANCELLED;
+    return true;
+  }
+
+  /**
+   * Handle for a scheduled task.
+   */
+  public final class Timeout {
+    private static final int PENDING = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private final Runnable task;
+    /** Nanoseconds since the wheel started. */
+    private final long deadlineNanos;
+    private final long deadlineTick;
+    private int state;
+    private int level;
+    private Slot slot;
+    private Timeout previous;
+    private Timeout next;
+
+    private Timeout(Runnable task, long deadlineNanos, long deadlineTick) {
+      this.task = task;
+      this.deadlineNanos = deadlineNanos;
+      this.deadlineTick = deadlineTick;
+    }
+
+    /**
+     * Stops the task from running.
+     * 
+     * @return false if the task has already been cancelled or has come due.
+     */
+    public boolean cancel() {
+      return TimingWheel.this.cancel(this);
+    }
+
+    public boolean isCancelled() {
+      synchronized (TimingWheel.this) {
+        return state == CANCELLED;
+      }
+    }
+
+    /**
+     * @return true if the task has come due, whether or not it has finished running.
+     */
+    public boolean isExpired() {
+      synchronized (TimingWheel.this) {
+        return state == EXPIRED;
+      }
+    }
+
+    /**
+     * @return The time left until the task is due, which is negative once it is overdue.
+     */
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(deadlineNanos - (clock.nanoTime() - startNanos), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Doubly linked list of the timeouts in one slot, linked through the timeouts themselves so that adding and removing
+   * never allocates.
+   */
+  private static final class Slot {
+    private Timeout head;
+    private Timeout tail;
+    private int size;
+
+    void append(Timeout timeout) {
+      timeout.slot = this;
+      timeout.previous = tail;
+      timeout.next = null;
+      if (tail == null) {
+        head = timeout;
+      } else {
+        tail.next = timeout;
+      }
+      tail = timeout;
+      size++;
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.previous == null) {
+        head = timeout.next;
+      } else {
+        timeout.previous.next = timeout.next;
+      }
+      if (timeout.next == null) {
+        tail = timeout.previous;
+      } else {
+        timeout.next.previous = timeout.previous;
+      }
+      timeout.slot = null;
+      timeout.previous = null;
+      timeout.next = null;
+      size--;
+    }
+
+    /**
+     * Moves every timeout in the other slot to the end of this one, marking them expired.
+     */
+    void appendAll(Slot other) {
+      for (Timeout timeout = other.head; timeout != null; timeout = timeout.next) {
+        timeout.slot = this;
+        timeout.state = Timeout.EXPIRED;
+      }
+      if (tail == null) {
+        head = other.head;
+      } else {
+        tail.next = other.head;
+        other.head.previous = tail;
+      }
+      tail = other.tail;
+      size += other.size;
+      other.head = null;
+      other.tail = null;
+      other.size = 0;
+    }
+
+    /**
+     * Empties the slot.
+     * 
+     * @return The first timeout, from which the rest can be reached through their next links.
+     */
+    Timeout removeAll() {
+      Timeout first = head;
+      for (Timeout timeout = head; timeout != null; timeout = timeout.next) {
+        timeout.slot = null;
+        timeout.previous = null;
+      }
+      head = null;
+      tail = null;
+      size = 0;
+      return first;
+    }
+  }
+
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ScheduledExecutorService} driven by a {@link ManualClock}, for testing code that schedules work without
+ * waiting for it. Nothing runs until the clock is advanced: tasks that fall due are then run in order of due time on
+ * the thread advancing the clock, with the clock set to each task's due time. Tasks submitted with
+ * {@link #execute(Runnable)} or {@link #submit(Callable)} are due immediately and run on the next
+ * {@link #runDueTasks()} or advance.
+ * <p>
+ * {@link #shutdown()} cancels periodic tasks but leaves delayed tasks to run when they fall due.
+ * {@link #awaitTermination(long, TimeUnit)} never blocks, as there is no other thread to wait for.
+ */
+public class VirtualTimeScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+  private final ManualClock clock;
+  private final PriorityQueue<VirtualTask<?>> queue = new PriorityQueue<VirtualTask<?>>();
+  private long sequence;
+  private boolean shutdown;
+
+  /**
+   * Creates a scheduler with its own clock set to 1970-01-01T00:00:00Z.
+   */
+  public VirtualTimeScheduler() {
+    this(new ManualClock());
+  }
+
+  /**
+   * @param clock The clock that drives this scheduler. A clock can drive only one scheduler.
+   */
+  public VirtualTimeScheduler(ManualClock clock) {
+    if (clock == null) {
+      throw new IllegalArgumentException("Clock cannot be null");
+    }
+    clock.attach(this);
+    this.clock = clock;
+  }
+
+  public ManualClock getClock() {
+    return clock;
+  }
+
+  /**
+   * Moves the clock forward, running the tasks that fall due.
+   */
+  public void advance(long duration, TimeUnit unit) {
+    clock.advance(duration, unit);
+  }
+
+  /**
+   * Runs the tasks that are due now without moving the clock.
+   */
+  public void runDueTasks() {
+    clock.advance(0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return The number of tasks waiting to run, not counting cancelled tasks.
+   */
+  public synchronized int getPendingTaskCount() {
+    int count = 0;
+    for (VirtualTask<?> task : queue) {
+      if (!task.isCancelled()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  void runUntil(long targetNanos) {
+    while (true) {
+      VirtualTask<?> task;
+      synchronized (this) {
+        task = queue.peek();
+        if (task == null || task.timeNanos - targetNanos > 0) {
+          return;
+        }
+        queue.poll();
+      }
+      clock.moveTo(task.timeNanos);
+      task.run();
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    schedule(command, 0, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+    if (command == null) {
+      throw new NullPointerException();
+    }
+    return enqueue(new VirtualTask<Object>(Executors.callable(command), triggerTime(delay, unit), 0));
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    if (callable == null) {
+      throw new NullPointerException();
+    }
+    return enqueue(new VirtualTask<V>(callable, triggerTime(delay, unit), 0));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+    if (command == null) {
+      throw new NullPointerException();
+    }
+    if (period <= 0) {
+      throw new IllegalArgumentException("Period must be positive");
+    }
+    return enqueue(new VirtualTask<Object>(Executors.callable(command), triggerTime(initialDelay, unit),
+        unit.toNanos(period)));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+    if (command == null) {
+      throw new NullPointerException();
+    }
+    if (delay <= 0) {
+      throw new IllegalArgumentException("Delay must be positive");
+    }
+    return enqueue(new VirtualTask<Object>(Executors.callable(command), triggerTime(initialDelay, unit),
+        -unit.toNanos(delay)));
+  }
+
+  private long triggerTime(long delay, TimeUnit unit) {
+    return after(clock.nanoTime(), Math.max(0, unit.toNanos(delay)));
+  }
+
+  /**
+   * Saturates rather than overflowing into the past, which would run a task with a huge delay straight away.
+   */
+  private static long after(long timeNanos, long delayNanos) {
+    long sum = timeNanos + delayNanos;
+    return sum < timeNanos ? Long.MAX_VALUE : sum;
+  }
+
+  private synchronized <V> VirtualTask<V> enqueue(VirtualTask<V> task) {
+    if (shutdown) {
+      throw new RejectedExecutionException("Scheduler has been shut down");
+    }
+    task.sequence = sequence++;
+    queue.add(task);
+    return task;
+  }
+
+  private synchronized void reschedule(VirtualTask<?> task) {
+    if (shutdown) {
+      task.cancel(false);
+    } else {
+      task.sequence = sequence++;
+      queue.add(task);
+    }
+  }
+
+  private synchronized void remove(VirtualTask<?> task) {
+    queue.remove(task);
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    shutdown = true;
+    for (Iterator<VirtualTask<?>> iterator = queue.iterator(); iterator.hasNext();) {
+      VirtualTask<?> task = iterator.next();
+      if (task.isPeriodic()) {
+        iterator.remove();
+        task.cancel(false);
+      }
+    }
+  }
+
+  @Override
+  public synchronized List<Runnable> shutdownNow() {
+    shutdown = true;
+    List<Runnable> pending = new ArrayList<Runnable>(queue);
+    queue.clear();
+    return pending;
+  }
+
+  @Override
+  public synchronized boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public synchronized boolean isTerminated() {
+    return shutdown && queue.isEmpty();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) {
+    return isTerminated();
+  }
+
+  private class VirtualTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+    private final long periodNanos;
+    private long timeNanos;
+    private long sequence;
+
+    VirtualTask(Callable<V> callable, long timeNanos, long periodNanos) {
+      super(callable);
+      this.timeNanos = timeNanos;
+      this.periodNanos = periodNanos;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(timeNanos - clock.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      if (other == this) {
+        return 0;
+      }
+      if (other instanceof VirtualTask) {
+        VirtualTask<?> task = (VirtualTask<?>) other;
+        if (timeNanos != task.timeNanos) {
+          return timeNanos - task.timeNanos < 0 ? -1 : 1;
+        }
+        return sequence < task.sequence ? -1 : 1;
+      }
+      long difference = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+      return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+    }
+
+    @Override
+    public boolean isPeriodic() {
+      return periodNanos != 0;
+    }
+
+    @Override
+    public void run() {
+      if (!isPeriodic()) {
+        super.run();
+      } else if (runAndReset()) {
+        timeNanos = periodNanos > 0 ? after(timeNanos, periodNanos) : after(clock.nanoTime(), -periodNanos);
+        reschedule(this);
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        remove(this);
+      }
+      return cancelled;
+    }
+  }
+
+}
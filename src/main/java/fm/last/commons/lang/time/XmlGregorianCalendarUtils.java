@@ -15,17 +15,55 @@
  */
 package fm.last.commons.lang.time;
 
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDateTime;
 import org.joda.time.LocalTime;
+import org.joda.time.chrono.ISOChronology;
 
 /**
  * Utility functions for working with DateTime objects.
  */
 public final class XmlGregorianCalendarUtils {
 
+  private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+  private static final long MILLIS_PER_HOUR = TimeUnit.HOURS.toMillis(1);
+  private static final long MILLIS_PER_MINUTE = TimeUnit.MINUTES.toMillis(1);
+  private static final long MILLIS_PER_SECOND = TimeUnit.SECONDS.toMillis(1);
+
+  /** XML Schema allows time zone offsets of up to 14 hours either side of UTC. */
+  private static final int MAX_OFFSET_MINUTES = 14 * 60;
+
+  /** Fixed offset zones by offset in minutes, shifted so that -14:00 is at index 0. */
+  private static final AtomicReferenceArray<DateTimeZone> offsetZones = new AtomicReferenceArray<DateTimeZone>(
+      2 * MAX_OFFSET_MINUTES + 1);
+
+  /**
+   * DatatypeFactory.newInstance() looks up the implementation on every call, and factories are not guaranteed to be
+   * thread safe, so each thread keeps its own.
+   */
+  private static final ThreadLocal<DatatypeFactory> datatypeFactory = new ThreadLocal<DatatypeFactory>() {
+    @Override
+    protected DatatypeFactory initialValue() {
+      try {
+        return DatatypeFactory.newInstance();
+      } catch (DatatypeConfigurationException e) {
+        throw new IllegalStateException("No DatatypeFactory available", e);
+      }
+    }
+  };
+
   /**
    * Private constructor to prevent instantiation.
    */
@@ -52,13 +90,234 @@ public final class XmlGregorianCalendarUtils {
     return new LocalDateTime(year, calendar.getMonth(), calendar.getDay(), hour, minute, second, millisecond);
   }
 
+  /**
+   * Converts from an XMLGregorianCalendar to a DateTime in the calendar's time zone offset, or in the default time zone
+   * if the calendar has none. Fields are treated as by {@link #convertToLocalDateTime(XMLGregorianCalendar)}.
+   * 
+   * @param calendar XMLGregorianCalendar object.
+   * @return The calendar converted to a DateTime.
+   * @throws IllegalArgumentException If the calendar has no year, month or day, such as an xsd:time or xsd:gYear.
+   */
   public static DateTime convertToDateTime(XMLGregorianCalendar calendar) {
     if (calendar == null) {
       return null;
     }
-    // for now we just delegate to version which doesn't deal with time zones, this method should be amended to take TZ
-    // into consideration if needed
-    return convertToLocalDateTime(calendar).toDateTime();
+    int offsetMinutes = calendar.getTimezone();
+    if (offsetMinutes == DatatypeConstants.FIELD_UNDEFINED) {
+      DateTimeZone zone = DateTimeZone.getDefault();
+      return new DateTime(zone.convertLocalToUTC(toLocalMillis(calendar), false), zone);
+    }
+    return new DateTime(toLocalMillis(calendar) - offsetMinutes * MILLIS_PER_MINUTE, getOffsetZone(offsetMinutes));
+  }
+
+  /**
+   * Computes the instant an XMLGregorianCalendar represents straight from its fields, without creating any objects. A
+   * calendar without a time zone is taken to be in the default time zone. Fields are treated as by
+   * {@link #convertToLocalDateTime(XMLGregorianCalendar)}.
+   * 
+   * @param calendar XMLGregorianCalendar object.
+   * @return Milliseconds since 1970-01-01T00:00:00Z.
+   * @throws IllegalArgumentException If the calendar has no year, month or day, such as an xsd:time or xsd:gYear.
+   */
+  public static long convertToEpochMillis(XMLGregorianCalendar calendar) {
+    if (calendar == null) {
+      throw new IllegalArgumentException("Calendar cannot be null");
+    }
+    return toEpochMillis(calendar, DateTimeZone.getDefault());
+  }
+
+  /**
+   * Converts a batch of calendars to a column of instants, as by {@link #convertToEpochMillis(XMLGregorianCalendar)},
+   * without creating any objects per calendar.
+   * 
+   * @param calendars The calendars to convert, which may include nulls.
+   * @param epochMillis Receives the instant of each calendar at the same index, or 0 for nulls. Must be at least as
+   *          long as the list of calendars.
+   * @param nulls Receives true at the index of each null calendar and false elsewhere, or may be null if the calendars
+   *          are known not to include any nulls.
+   * @return The number of calendars converted, not counting nulls.
+   * @throws IllegalArgumentException If a calendar has no year, month or day, such as an xsd:time or xsd:gYear.
+   */
+  public static int convertToEpochMillis(List<XMLGregorianCalendar> calendars, long[] epochMillis, boolean[] nulls) {
+    int size = calendars.size();
+    checkColumnLength(size, epochMillis.length, nulls);
+    DateTimeZone defaultZone = DateTimeZone.getDefault();
+    int converted = 0;
+    for (int i = 0; i < size; i++) {
+      XMLGregorianCalendar calendar = calendars.get(i);
+      if (isNull(calendar, i, nulls)) {
+        epochMillis[i] = 0;
+      } else {
+        epochMillis[i] = toEpochMillis(calendar, defaultZone);
+        converted++;
+      }
+    }
+    return converted;
+  }
+
+  /**
+   * @see #convertToEpochMillis(List, long[], boolean[])
+   */
+  public static int convertToEpochMillis(XMLGregorianCalendar[] calendars, long[] epochMillis, boolean[] nulls) {
+    return convertToEpochMillis(Arrays.asList(calendars), epochMillis, nulls);
+  }
+
+  /**
+   * Converts a batch of calendars to a column of dates, as the number of days since 1970-01-01. The date is the one
+   * written in each calendar's fields, whatever its time zone, as for an xsd:date. A non-positive year is treated as
+   * by {@link #convertToLocalDateTime(XMLGregorianCalendar)}.
+   * 
+   * @param calendars The calendars to convert, which may include nulls.
+   * @param epochDays Receives the date of each calendar at the same index, or 0 for nulls. Must be at least as long as
+   *          the list of calendars.
+   * @param nulls Receives true at the index of each null calendar and false elsewhere, or may be null if the calendars
+   *          are known not to include any nulls.
+   * @return The number of calendars converted, not counting nulls.
+   * @throws IllegalArgumentException If a calendar has no year, month or day, such as an xsd:time or xsd:gYear.
+   */
+  public static int convertToEpochDays(List<XMLGregorianCalendar> calendars, int[] epochDays, boolean[] nulls) {
+    int size = calendars.size();
+    checkColumnLength(size, epochDays.length, nulls);
+    int converted = 0;
+    for (int i = 0; i < size; i++) {
+      XMLGregorianCalendar calendar = calendars.get(i);
+      if (isNull(calendar, i, nulls)) {
+        epochDays[i] = 0;
+      } else {
+        epochDays[i] = toEpochDay(calendar);
+        converted++;
+      }
+    }
+    return converted;
+  }
+
+  /**
+   * @see #convertToEpochDays(List, int[], boolean[])
+   */
+  public static int convertToEpochDays(XMLGregorianCalendar[] calendars, int[] epochDays, boolean[] nulls) {
+    return convertToEpochDays(Arrays.asList(calendars), epochDays, nulls);
+  }
+
+  private static void checkColumnLength(int size, int columnLength, boolean[] nulls) {
+    if (columnLength < size) {
+      throw new IllegalArgumentException("Output array holds " + columnLength + " values, need " + size);
+    }
+    if (nulls != null && nulls.length < size) {
+      throw new IllegalArgumentException("Null mask holds " + nulls.length + " values, need " + size);
+    }
+  }
+
+  private static boolean isNull(XMLGregorianCalendar calendar, int index, boolean[] nulls) {
+    boolean isNull = calendar == null;
+    if (nulls != null) {
+      nulls[index] = isNull;
+    } else if (isNull) {
+      throw new IllegalArgumentException("Calendar at index " + index + " is null and there is no null mask");
+    }
+    return isNull;
+  }
+
+  private static long toEpochMillis(XMLGregorianCalendar calendar, DateTimeZone defaultZone) {
+    int offsetMinutes = calendar.getTimezone();
+    if (offsetMinutes == DatatypeConstants.FIELD_UNDEFINED) {
+      return defaultZone.convertLocalToUTC(toLocalMillis(calendar), false);
+    }
+    return toLocalMillis(calendar) - offsetMinutes * MILLIS_PER_MINUTE;
+  }
+
+  private static int toEpochDay(XMLGregorianCalendar calendar) {
+    int year = calendar.getYear();
+    int month = calendar.getMonth();
+    int day = calendar.getDay();
+    if (year == DatatypeConstants.FIELD_UNDEFINED || month == DatatypeConstants.FIELD_UNDEFINED
+        || day == DatatypeConstants.FIELD_UNDEFINED) {
+      throw new IllegalArgumentException("Calendar has no complete date: " + calendar);
+    }
+    return EpochDays.fromFields(year > 0 ? year : 0, month, day);
+  }
+
+  private static long toLocalMillis(XMLGregorianCalendar calendar) {
+    int hour = calendar.getHour() > 0 ? calendar.getHour() : 0;
+    int minute = calendar.getMinute() > 0 ? calendar.getMinute() : 0;
+    int second = calendar.getSecond() > 0 ? calendar.getSecond() : 0;
+    int millisecond = calendar.getMillisecond() > 0 ? calendar.getMillisecond() : 0;
+    long epochDay = toEpochDay(calendar);
+    return epochDay * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE + second
+        * MILLIS_PER_SECOND + millisecond;
+  }
+
+  /**
+   * @return A fixed offset zone, shared by all conversions with the same offset.
+   */
+  static DateTimeZone getOffsetZone(int offsetMinutes) {
+    if (offsetMinutes < -MAX_OFFSET_MINUTES || offsetMinutes > MAX_OFFSET_MINUTES) {
+      return DateTimeZone.forOffsetMillis((int) (offsetMinutes * MILLIS_PER_MINUTE));
+    }
+    int index = offsetMinutes + MAX_OFFSET_MINUTES;
+    DateTimeZone zone = offsetZones.get(index);
+    if (zone == null) {
+      zone = offsetMinutes == 0 ? DateTimeZone.UTC : DateTimeZone.forOffsetMillis((int) (offsetMinutes
+          * MILLIS_PER_MINUTE));
+      offsetZones.lazySet(index, zone);
+    }
+    return zone;
+  }
+
+  /**
+   * Converts from a DateTime to an XMLGregorianCalendar with the DateTime's offset from UTC at that instant. Dates in
+   * other chronologies are converted to ISO, as xsd dates are. XML Schema offsets are whole minutes, so a DateTime in
+   * a zone with an offset that is not, such as local mean time, is given in UTC instead.
+   * 
+   * @param dateTime DateTime object.
+   * @return The DateTime converted to an XMLGregorianCalendar.
+   */
+  public static XMLGregorianCalendar convertToXmlGregorianCalendar(DateTime dateTime) {
+    if (dateTime == null) {
+      return null;
+    }
+    DateTimeZone zone = dateTime.getZone();
+    int offsetMillis = zone.getOffset(dateTime.getMillis());
+    if (offsetMillis % MILLIS_PER_MINUTE != 0) {
+      // truncating the offset would change the instant
+      zone = DateTimeZone.UTC;
+      offsetMillis = 0;
+    }
+    // returns the same DateTime if it is already ISO in that zone
+    dateTime = dateTime.withChronology(ISOChronology.getInstance(zone));
+    return datatypeFactory.get().newXMLGregorianCalendar(dateTime.getYear(), dateTime.getMonthOfYear(),
+        dateTime.getDayOfMonth(), dateTime.getHourOfDay(), dateTime.getMinuteOfHour(), dateTime.getSecondOfMinute(),
+        dateTime.getMillisOfSecond(), (int) (offsetMillis / MILLIS_PER_MINUTE));
+  }
+
+  /**
+   * Converts from a LocalDateTime to an XMLGregorianCalendar without a time zone.
+   * 
+   * @param localDateTime LocalDateTime object.
+   * @return The LocalDateTime converted to an XMLGregorianCalendar.
+   */
+  public static XMLGregorianCalendar convertToXmlGregorianCalendar(LocalDateTime localDateTime) {
+    if (localDateTime == null) {
+      return null;
+    }
+    return datatypeFactory.get().newXMLGregorianCalendar(localDateTime.getYear(), localDateTime.getMonthOfYear(),
+        localDateTime.getDayOfMonth(), localDateTime.getHourOfDay(), localDateTime.getMinuteOfHour(),
+        localDateTime.getSecondOfMinute(), localDateTime.getMillisOfSecond(), DatatypeConstants.FIELD_UNDEFINED);
+  }
+
+  /**
+   * Converts from an OffsetDateTime to an XMLGregorianCalendar with the same offset, truncated to milliseconds.
+   * 
+   * @param dateTime OffsetDateTime object.
+   * @return The OffsetDateTime converted to an XMLGregorianCalendar.
+   */
+  public static XMLGregorianCalendar convertToXmlGregorianCalendar(OffsetDateTime dateTime) {
+    if (dateTime == null) {
+      return null;
+    }
+    return datatypeFactory.get().newXMLGregorianCalendar(dateTime.getYear(), dateTime.getMonthValue(),
+        dateTime.getDayOfMonth(), dateTime.getHour(), dateTime.getMinute(), dateTime.getSecond(),
+        (int) TimeUnit.NANOSECONDS.toMillis(dateTime.getNano()),
+        (int) TimeUnit.SECONDS.toMinutes(dateTime.getOffset().getTotalSeconds()));
   }
 
   /**
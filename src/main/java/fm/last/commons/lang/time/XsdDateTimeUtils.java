@@ -0,0 +1,605 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+
+/**
+ * Parses and formats the xsd:date, xsd:dateTime and xsd:time lexical forms directly from and to {@link CharSequence},
+ * {@code char[]} and ASCII/UTF-8 {@code byte[]} slices, without going through {@code DatatypeFactory} and
+ * {@code XMLGregorianCalendar}. The primitive parse and format methods do not allocate except to report invalid input.
+ * <p>
+ * Years may have up to six digits and may be negative; as in XML Schema 1.1 and ISO 8601, year 0000 is 1 BC. Fractional
+ * seconds are truncated to milliseconds. Values without a time zone are taken to be in the default time zone, as in
+ * {@link XmlGregorianCalendarUtils}.
+ */
+public final class XsdDateTimeUtils {
+
+  /** The longest text written by the format methods, e.g. {@code -999999-12-31T23:59:59.999+14:00}. */
+  public static final int MAX_DATE_TIME_LENGTH = 32;
+
+  private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+  private static final int MILLIS_PER_HOUR = (int) TimeUnit.HOURS.toMillis(1);
+  private static final int MILLIS_PER_MINUTE = (int) TimeUnit.MINUTES.toMillis(1);
+  private static final int MILLIS_PER_SECOND = (int) TimeUnit.SECONDS.toMillis(1);
+
+  private static final int MAX_YEAR = 999999;
+  private static final int MAX_OFFSET_MINUTES = 14 * 60;
+  private static final int MIN_EPOCH_DAY = EpochDays.fromFields(-MAX_YEAR, 1, 1);
+  private static final int MAX_EPOCH_DAY = EpochDays.fromFields(MAX_YEAR, 12, 31);
+
+  private static final long INVALID_DATE = Long.MIN_VALUE;
+  private static final int INVALID = -1;
+  private static final int NO_OFFSET = Integer.MAX_VALUE;
+  private static final int INVALID_OFFSET = Integer.MIN_VALUE;
+
+  private static final String DATE = "xsd:date";
+  private static final String DATE_TIME = "xsd:dateTime";
+  private static final String TIME = "xsd:time";
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private XsdDateTimeUtils() {
+  }
+
+  /**
+   * Parses an xsd:dateTime such as {@code 2013-01-31T12:30:00.250+01:00}.
+   * 
+   * @param text The text to parse.
+   * @return The number of milliseconds since 1970-01-01T00:00:00Z.
+   * @throws IllegalArgumentException If the text is not an xsd:dateTime.
+   */
+  public static long parseDateTime(CharSequence text) {
+    checkNotNull(text);
+    return parseDateTime(text, 0, text.length());
+  }
+
+  /**
+   * Parses the xsd:dateTime between {@code start} (inclusive) and {@code end} (exclusive).
+   * 
+   * @see #parseDateTime(CharSequence)
+   */
+  public static long parseDateTime(CharSequence text, int start, int end) {
+    checkRange(text, start, end, text == null ? 0 : text.length());
+    return dateTimeToEpochMillis(text, start, end);
+  }
+
+  /**
+   * Parses the xsd:dateTime in {@code length} chars from {@code offset}.
+   * 
+   * @see #parseDateTime(CharSequence)
+   */
+  public static long parseDateTime(char[] text, int offset, int length) {
+    checkRange(text, offset, offset + length, text == null ? 0 : text.length);
+    return dateTimeToEpochMillis(text, offset, offset + length);
+  }
+
+  /**
+   * Parses the ASCII or UTF-8 xsd:dateTime in {@code length} bytes from {@code offset}.
+   * 
+   * @see #parseDateTime(CharSequence)
+   */
+  public static long parseDateTime(byte[] text, int offset, int length) {
+    checkRange(text, offset, offset + length, text == null ? 0 : text.length);
+    return dateTimeToEpochMillis(text, offset, offset + length);
+  }
+
+  /**
+   * Parses an xsd:date such as {@code 2013-01-31} or {@code 2013-01-31Z}. A time zone is checked but does not change
+   * the result.
+   * 
+   * @param text The text to parse.
+   * @return The number of days since 1970-01-01.
+   * @throws IllegalArgumentException If the text is not an xsd:date.
+   */
+  public static int parseDate(CharSequence text) {
+    checkNotNull(text);
+    return parseDate(text, 0, text.length());
+  }
+
+  /**
+   * Parses the xsd:date between {@code start} (inclusive) and {@code end} (exclusive).
+   * 
+   * @see #parseDate(CharSequence)
+   */
+  public static int parseDate(CharSequence text, int start, int end) {
+    checkRange(text, start, end, text == null ? 0 : text.length());
+    return dateToEpochDay(text, start, end);
+  }
+
+  /**
+   * Parses the xsd:date in {@code length} chars from {@code offset}.
+   * 
+   * @see #parseDate(CharSequence)
+   */
+  public static int parseDate(char[] text, int offset, int length) {
+    checkRange(text, offset, offset + length, text == null ? 0 : text.length);
+    return dateToEpochDay(text, offset, offset + length);
+  }
+
+  /**
+   * Parses the ASCII or UTF-8 xsd:date in {@code length} bytes from {@code offset}.
+   * 
+   * @see #parseDate(CharSequence)
+   */
+  public static int parseDate(byte[] text, int offset, int length) {
+    checkRange(text, offset, offset + length, text == null ? 0 : text.length);
+    return dateToEpochDay(text, offset, offset + length);
+  }
+
+  /**
+   * Parses an xsd:time such as {@code 12:30:00.250}. A time zone is checked but does not change the result, and
+   * {@code 24:00:00} is the same as {@code 00:00:00}.
+   * 
+   * @param text The text to parse.
+   * @return The number of milliseconds since midnight.
+   * @throws IllegalArgumentException If the text is not an xsd:time.
+   */
+  public static int parseTime(CharSequence text) {
+    checkNotNull(text);
+    return parseTime(text, 0, text.length());
+  }
+
+  /**
+   * Parses the xsd:time between {@code start} (inclusive) and {@code end} (exclusive).
+   * 
+   * @see #parseTime(CharSequence)
+   */
+  public static int parseTime(CharSequence text, int start, int end) {
+    checkRange(text, start, end, text == null ? 0 : text.length());
+    return timeToMillisOfDay(text, start, end);
+  }
+
+  /**
+   * Parses the xsd:time in {@code length} chars from {@code offset}.
+   * 
+   * @see #parseTime(CharSequence)
+   */
+  public static int parseTime(char[] text, int offset, int length) {
+    checkRange(text, offset, offset + length, text == null ? 0 : text.length);
+    return timeToMillisOfDay(text, offset, offset + length);
+  }
+
+  /**
+   * Parses the ASCII or UTF-8 xsd:time in {@code length} bytes from {@code offset}.
+   * 
+   * @see #parseTime(CharSequence)
+   */
+  public static int parseTime(byte[] text, int offset, int length) {
+    checkRange(text, offset, offset + length, text == null ? 0 : text.length);
+    return timeToMillisOfDay(text, offset, offset + length);
+  }
+
+  /**
+   * Parses an xsd:dateTime into a DateTime in the text's fixed offset time zone, or in the default time zone if the
+   * text has none.
+   * 
+   * @param text The text to parse.
+   * @return The parsed DateTime.
+   * @throws IllegalArgumentException If the text is not an xsd:dateTime.
+   */
+  public static DateTime toDateTime(CharSequence text) {
+    checkNotNull(text);
+    int end = text.length();
+    int offsetMinutes = parseOffset(text, zoneStart(text, 0, end), end);
+    long epochMillis = dateTimeToEpochMillis(text, 0, end);
+    if (offsetMinutes == NO_OFFSET) {
+      return new DateTime(epochMillis);
+    }
+    return new DateTime(epochMillis, XmlGregorianCalendarUtils.getOffsetZone(offsetMinutes));
+  }
+
+  /**
+   * @param text The xsd:date to parse.
+   * @return The parsed LocalDate.
+   * @throws IllegalArgumentException If the text is not an xsd:date.
+   */
+  public static LocalDate toLocalDate(CharSequence text) {
+    return EpochDays.toLocalDate(parseDate(text));
+  }
+
+  /**
+   * @param text The xsd:time to parse.
+   * @return The parsed LocalTime.
+   * @throws IllegalArgumentException If the text is not an xsd:time.
+   */
+  public static LocalTime toLocalTime(CharSequence text) {
+    return LocalTime.fromMillisOfDay(parseTime(text));
+  }
+
+  /**
+   * Appends an instant as a UTC xsd:dateTime such as {@code 2013-01-31T11:30:00.25Z}. Milliseconds are only written if
+   * there are any, without trailing zeros.
+   * 
+   * @param builder The builder to append to.
+   * @param epochMillis The number of milliseconds since 1970-01-01T00:00:00Z.
+   * @return The builder.
+   */
+  public static StringBuilder appendDateTime(StringBuilder builder, long epochMillis) {
+    checkNotNull(builder, "builder");
+    writeDateTime(builder, 0, epochMillis, 0);
+    return builder;
+  }
+
+  /**
+   * Appends an instant as an xsd:dateTime with the zone's offset from UTC at that instant, such as
+   * {@code 2013-01-31T12:30:00.25+01:00}.
+   * 
+   * @param builder The builder to append to.
+   * @param epochMillis The number of milliseconds since 1970-01-01T00:00:00Z.
+   * @param zone The time zone to write the date and time in.
+   * @return The builder.
+   */
+  public static StringBuilder appendDateTime(StringBuilder builder, long epochMillis, DateTimeZone zone) {
+    checkNotNull(builder, "builder");
+    checkNotNull(zone, "zone");
+    writeDateTime(builder, 0, epochMillis, zone.getOffset(epochMillis) / MILLIS_PER_MINUTE);
+    return builder;
+  }
+
+  /**
+   * Writes an instant as a UTC xsd:dateTime into a buffer of at least {@link #MAX_DATE_TIME_LENGTH} chars from
+   * {@code offset}.
+   * 
+   * @return The offset after the last char written.
+   * @see #appendDateTime(StringBuilder, long)
+   */
+  public static int formatDateTime(long epochMillis, char[] buffer, int offset) {
+    checkRange(buffer, offset, offset, buffer == null ? 0 : buffer.length);
+    return writeDateTime(buffer, offset, epochMillis, 0);
+  }
+
+  /**
+   * Writes an instant as an ASCII UTC xsd:dateTime into a buffer of at least {@link #MAX_DATE_TIME_LENGTH} bytes from
+   * {@code offset}.
+   * 
+   * @return The offset after the last byte written.
+   * @see #appendDateTime(StringBuilder, long)
+   */
+  public static int formatDateTime(long epochMillis, byte[] buffer, int offset) {
+    checkRange(buffer, offset, offset, buffer == null ? 0 : buffer.length);
+    return writeDateTime(buffer, offset, epochMillis, 0);
+  }
+
+  /**
+   * Appends a date as an xsd:date without a time zone, such as {@code 2013-01-31}.
+   * 
+   * @param builder The builder to append to.
+   * @param epochDay The number of days since 1970-01-01.
+   * @return The builder.
+   */
+  public static StringBuilder appendDate(StringBuilder builder, int epochDay) {
+    checkNotNull(builder, "builder");
+    checkEpochDay(epochDay);
+    writeDate(builder, 0, epochDay);
+    return builder;
+  }
+
+  /**
+   * Appends a time as an xsd:time without a time zone, such as {@code 12:30:00.25}.
+   * 
+   * @param builder The builder to append to.
+   * @param millisOfDay The number of milliseconds since midnight.
+   * @return The builder.
+   */
+  public static StringBuilder appendTime(StringBuilder builder, int millisOfDay) {
+    checkNotNull(builder, "builder");
+    if (millisOfDay < 0 || millisOfDay >= MILLIS_PER_DAY) {
+      throw new IllegalArgumentException("millisOfDay must be between 0 and " + (MILLIS_PER_DAY - 1) + ": "
+          + millisOfDay);
+    }
+    writeTime(builder, 0, millisOfDay);
+    return builder;
+  }
+
+  private static long dateTimeToEpochMillis(Object text, int start, int end) {
+    int zoneStart = zoneStart(text, start, end);
+    int timeStart = indexOf(text, 'T', start, zoneStart) + 1;
+    if (timeStart == 0) {
+      throw invalid(DATE_TIME, text, start, end);
+    }
+    long epochDay = parseDateFields(text, start, timeStart - 1);
+    int millisOfDay = parseTimeFields(text, timeStart, zoneStart);
+    int offsetMinutes = parseOffset(text, zoneStart, end);
+    if (epochDay == INVALID_DATE || millisOfDay == INVALID || offsetMinutes == INVALID_OFFSET) {
+      throw invalid(DATE_TIME, text, start, end);
+    }
+    long localMillis = epochDay * MILLIS_PER_DAY + millisOfDay;
+    if (offsetMinutes == NO_OFFSET) {
+      return DateTimeZone.getDefault().convertLocalToUTC(localMillis, false);
+    }
+    return localMillis - (long) offsetMinutes * MILLIS_PER_MINUTE;
+  }
+
+  private static int dateToEpochDay(Object text, int start, int end) {
+    int zoneStart = zoneStart(text, start, end);
+    long epochDay = parseDateFields(text, start, zoneStart);
+    if (epochDay == INVALID_DATE || parseOffset(text, zoneStart, end) == INVALID_OFFSET) {
+      throw invalid(DATE, text, start, end);
+    }
+    return (int) epochDay;
+  }
+
+  private static int timeToMillisOfDay(Object text, int start, int end) {
+    int zoneStart = zoneStart(text, start, end);
+    int millisOfDay = parseTimeFields(text, start, zoneStart);
+    if (millisOfDay == INVALID || parseOffset(text, zoneStart, end) == INVALID_OFFSET) {
+      throw invalid(TIME, text, start, end);
+    }
+    return (int) (millisOfDay % MILLIS_PER_DAY);
+  }
+
+  /**
+   * @return The start of the time zone at the end of the text, or {@code end} if there is none.
+   */
+  private static int zoneStart(Object text, int start, int end) {
+    if (end > start && charAt(text, end - 1) == 'Z') {
+      return end - 1;
+    }
+    if (end - start >= 6 && charAt(text, end - 3) == ':') {
+      char sign = charAt(text, end - 6);
+      if (sign == '+' || sign == '-') {
+        return end - 6;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * @return The days since 1970-01-01 for {@code [-]yyyy-MM-dd}, or {@link #INVALID_DATE}.
+   */
+  private static long parseDateFields(Object text, int start, int end) {
+    int index = start;
+    boolean negative = index < end && charAt(text, index) == '-';
+    if (negative) {
+      index++;
+    }
+    int yearStart = index;
+    int year = 0;
+    while (index < end && isDigit(charAt(text, index))) {
+      year = year * 10 + charAt(text, index) - '0';
+      if (year > MAX_YEAR) {
+        return INVALID_DATE;
+      }
+      index++;
+    }
+    int yearDigits = index - yearStart;
+    if (yearDigits < 4 || yearDigits > 4 && charAt(text, yearStart) == '0' || negative && year == 0) {
+      return INVALID_DATE;
+    }
+    if (end - index != 6 || charAt(text, index) != '-' || charAt(text, index + 3) != '-') {
+      return INVALID_DATE;
+    }
+    int month = twoDigits(text, index + 1);
+    int day = twoDigits(text, index + 4);
+    if (negative) {
+      year = -year;
+    }
+    if (day < 1 || day > EpochDays.lengthOfMonth(year, month)) {
+      return INVALID_DATE;
+    }
+    return EpochDays.fromFields(year, month, day);
+  }
+
+  /**
+   * @return The millis since midnight for {@code hh:mm:ss[.s+]}, which is a whole day for {@code 24:00:00}, or
+   *         {@link #INVALID}.
+   */
+  private static int parseTimeFields(Object text, int start, int end) {
+    if (end - start < 8 || charAt(text, start + 2) != ':' || charAt(text, start + 5) != ':') {
+      return INVALID;
+    }
+    int hour = twoDigits(text, start);
+    int minute = twoDigits(text, start + 3);
+    int second = twoDigits(text, start + 6);
+    if (hour < 0 || hour > 24 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+      return INVALID;
+    }
+    int millis = 0;
+    boolean fractionIsZero = true;
+    int index = start + 8;
+    if (index < end) {
+      if (charAt(text, index) != '.' || ++index == end) {
+        return INVALID;
+      }
+      for (int scale = 100; index < end; index++, scale /= 10) {
+        char c = charAt(text, index);
+        if (!isDigit(c)) {
+          return INVALID;
+        }
+        millis += (c - '0') * scale;
+        fractionIsZero &= c == '0';
+      }
+    }
+    if (hour == 24 && (minute != 0 || second != 0 || !fractionIsZero)) {
+      return INVALID;
+    }
+    return hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE + second * MILLIS_PER_SECOND + millis;
+  }
+
+  /**
+   * @return The offset in minutes for {@code Z} or {@code (+|-)hh:mm}, {@link #NO_OFFSET} for empty text, or
+   *         {@link #INVALID_OFFSET}.
+   */
+  private static int parseOffset(Object text, int start, int end) {
+    int length = end - start;
+    if (length == 0) {
+      return NO_OFFSET;
+    }
+    if (length == 1) {
+      return charAt(text, start) == 'Z' ? 0 : INVALID_OFFSET;
+    }
+    if (length != 6) {
+      return INVALID_OFFSET;
+    }
+    int hours = twoDigits(text, start + 1);
+    int minutes = twoDigits(text, start + 4);
+    if (hours < 0 || minutes < 0 || minutes > 59) {
+      return INVALID_OFFSET;
+    }
+    int offsetMinutes = hours * 60 + minutes;
+    if (offsetMinutes > MAX_OFFSET_MINUTES) {
+      return INVALID_OFFSET;
+    }
+    return charAt(text, start) == '-' ? -offsetMinutes : offsetMinutes;
+  }
+
+  private static int writeDateTime(Object target, int index, long epochMillis, int offsetMinutes) {
+    long localMillis = epochMillis + (long) offsetMinutes * MILLIS_PER_MINUTE;
+    long epochDay = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+    checkEpochDay(epochDay);
+    index = writeDate(target, index, (int) epochDay);
+    index = put(target, index, 'T');
+    index = writeTime(target, index, (int) (localMillis - epochDay * MILLIS_PER_DAY));
+    if (offsetMinutes == 0) {
+      return put(target, index, 'Z');
+    }
+    index = put(target, index, offsetMinutes < 0 ? '-' : '+');
+    offsetMinutes = Math.abs(offsetMinutes);
+    index = putTwoDigits(target, index, offsetMinutes / 60);
+    index = put(target, index, ':');
+    return putTwoDigits(target, index, offsetMinutes % 60);
+  }
+
+  private static int writeDate(Object target, int index, int epochDay) {
+    long fields = EpochDays.toFields(epochDay);
+    int year = EpochDays.year(fields);
+    if (year < 0) {
+      index = put(target, index, '-');
+      year = -year;
+    }
+    int divisor = 1000;
+    while (divisor * 10 <= year) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      index = put(target, index, (char) ('0' + year / divisor % 10));
+    }
+    index = put(target, index, '-');
+    index = putTwoDigits(target, index, EpochDays.month(fields));
+    index = put(target, index, '-');
+    return putTwoDigits(target, index, EpochDays.day(fields));
+  }
+
+  private static int writeTime(Object target, int index, int millisOfDay) {
+    index = putTwoDigits(target, index, millisOfDay / MILLIS_PER_HOUR);
+    index = put(target, index, ':');
+    index = putTwoDigits(target, index, millisOfDay / MILLIS_PER_MINUTE % 60);
+    index = put(target, index, ':');
+    index = putTwoDigits(target, index, millisOfDay / MILLIS_PER_SECOND % 60);
+    int millis = millisOfDay % MILLIS_PER_SECOND;
+    if (millis != 0) {
+      index = put(target, index, '.');
+      for (int divisor = 100; millis != 0; divisor /= 10) {
+        index = put(target, index, (char) ('0' + millis / divisor));
+        millis %= divisor;
+      }
+    }
+    return index;
+  }
+
+  private static int twoDigits(Object text, int index) {
+    char tens = charAt(text, index);
+    char units = charAt(text, index + 1);
+    if (!isDigit(tens) || !isDigit(units)) {
+      return INVALID;
+    }
+    return (tens - '0') * 10 + units - '0';
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static int indexOf(Object text, char c, int start, int end) {
+    for (int index = start; index < end; index++) {
+      if (charAt(text, index) == c) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Reads from a CharSequence, char[] or byte[] so that one parser serves all three without wrapping the arrays.
+   */
+  private static char charAt(Object text, int index) {
+    if (text instanceof byte[]) {
+      return (char) (((byte[]) text)[index] & 0xFF);
+    }
+    if (text instanceof char[]) {
+      return ((char[]) text)[index];
+    }
+    return ((CharSequence) text).charAt(index);
+  }
+
+  /**
+   * Writes to a StringBuilder, char[] or byte[]. StringBuilders are appended to, ignoring the index.
+   */
+  private static int put(Object target, int index, char c) {
+    if (target instanceof byte[]) {
+      ((byte[]) target)[index] = (byte) c;
+    } else if (target instanceof char[]) {
+      ((char[]) target)[index] = c;
+    } else {
+      ((StringBuilder) target).append(c);
+    }
+    return index + 1;
+  }
+
+  private static int putTwoDigits(Object target, int index, int value) {
+    index = put(target, index, (char) ('0' + value / 10));
+    return put(target, index, (char) ('0' + value % 10));
+  }
+
+  private static IllegalArgumentException invalid(String type, Object text, int start, int end) {
+    StringBuilder value = new StringBuilder(end - start);
+    for (int index = start; index < end; index++) {
+      value.append(charAt(text, index));
+    }
+    return new IllegalArgumentException("Invalid " + type + ": '" + value + "'");
+  }
+
+  private static void checkEpochDay(long epochDay) {
+    if (epochDay < MIN_EPOCH_DAY || epochDay > MAX_EPOCH_DAY) {
+      throw new IllegalArgumentException("Year must be between -" + MAX_YEAR + " and " + MAX_YEAR);
+    }
+  }
+
+  private static void checkNotNull(Object value, String name) {
+    if (value == null) {
+      throw new IllegalArgumentException(name + " cannot be null");
+    }
+  }
+
+  private static void checkNotNull(Object text) {
+    checkNotNull(text, "text");
+  }
+
+  private static void checkRange(Object text, int start, int end, int length) {
+    checkNotNull(text);
+    if (start < 0 || start > end || end > length) {
+      throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length);
+    }
+  }
+
+}
@@ -16,9 +16,12 @@
 package fm.last.commons.lang.exception;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.sql.BatchUpdateException;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.List;
 
 import org.junit.Test;
@@ -112,4 +115,34 @@ public class LastExceptionUtilsTest {
     assertEquals(nested2, throwables.get(1));
   }
 
+  @Test
+  public void isOrContainsThrowableOfTypeMatchesItself() {
+    assertTrue(LastExceptionUtils.isOrContainsThrowableOfType(new IllegalArgumentException(),
+        IllegalArgumentException.class));
+    assertTrue(LastExceptionUtils.isOrContainsThrowableOfType(new IllegalArgumentException(),
+        RuntimeException.class));
+  }
+
+  @Test
+  public void isOrContainsThrowableOfTypeMatchesCause() {
+    Throwable throwable = new Exception(new IllegalStateException(new IllegalArgumentException()));
+    assertTrue(LastExceptionUtils.isOrContainsThrowableOfType(throwable, IllegalArgumentException.class));
+    assertFalse(LastExceptionUtils.isOrContainsThrowableOfType(throwable, ArrayIndexOutOfBoundsException.class));
+  }
+
+  @Test
+  public void isOrContainsThrowableOfTypeMatchesNextSQLException() {
+    SQLException sqlException = new SQLException("batch failed");
+    sqlException.setNextException(new SQLIntegrityConstraintViolationException("duplicate key"));
+    assertTrue(LastExceptionUtils.isOrContainsThrowableOfType(sqlException,
+        SQLIntegrityConstraintViolationException.class));
+    assertTrue(LastExceptionUtils.isOrContainsThrowableOfType(new Exception(sqlException),
+        SQLIntegrityConstraintViolationException.class));
+  }
+
+  @Test
+  public void isOrContainsThrowableOfTypeNull() {
+    assertFalse(LastExceptionUtils.isOrContainsThrowableOfType(null, Exception.class));
+  }
+
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.string;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ByteSplitterTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void getTokens() {
+    ByteSplitter splitter = new ByteSplitter("SAY A WORD".getBytes(UTF_8), UTF_8);
+    assertEquals("SAY", splitter.getNextToken(" "));
+    assertEquals("A", splitter.getNextToken((byte) ' '));
+    assertEquals(6, splitter.getCurrentOffset());
+    assertEquals(4, splitter.getRemainingLength());
+  }
+
+  @Test
+  public void multiByteCharacters() {
+    ByteSplitter splitter = new ByteSplitter("caf\u00e9\u2192cr\u00e8me\u2192br\u00fbl\u00e9e".getBytes(UTF_8), UTF_8);
+    assertEquals("caf\u00e9", splitter.getNextToken("\u2192"));
+    assertEquals(8, splitter.getCurrentOffset());
+    assertEquals("cr\u00e8me", splitter.getNextToken("\u2192"));
+    assertEquals("br\u00fb", splitter.getNextToken("l"));
+  }
+
+  @Test
+  public void charset() {
+    ByteSplitter splitter = new ByteSplitter("d\u00e9j\u00e0|vu".getBytes(ISO_8859_1), ISO_8859_1);
+    assertEquals(ISO_8859_1, splitter.getCharset());
+    assertEquals("d\u00e9j\u00e0", splitter.getNextToken("|"));
+    assertEquals(5, splitter.getCurrentOffset());
+  }
+
+  @Test
+  public void binaryAndTextFields() {
+    ByteBuffer record = ByteBuffer.allocate(32);
+    record.put("id=".getBytes(UTF_8)).putInt(0x0a0b0c0d).put("|n\u00e4me;".getBytes(UTF_8));
+    record.flip();
+    ByteSplitter splitter = new ByteSplitter(record, UTF_8);
+    splitter.skipDelimiter("id=");
+    assertArrayEquals(new byte[] { 10, 11, 12, 13 }, splitter.getNextBytes(4));
+    splitter.skipDelimiter("|");
+    assertEquals(5, splitter.readToken(new byte[] { ';' }));
+    assertEquals("n\u00e4me", splitter.getTokenAsString());
+    assertEquals(0, record.position());
+  }
+
+  @Test
+  public void readTokenOffsetsAndViews() {
+    byte[] bytes = "xxSAY::A::WORDxx".getBytes(UTF_8);
+    ByteSplitter splitter = new ByteSplitter(bytes, 2, 12, UTF_8);
+    assertEquals(3, splitter.readToken("::"));
+    assertEquals(0, splitter.getTokenStart());
+    assertEquals(3, splitter.getTokenEnd());
+    splitter.readToken("::");
+    ByteBuffer token = splitter.getToken();
+    assertTrue(token.isReadOnly());
+    assertEquals(1, token.remaining());
+    assertEquals('A', token.get(0));
+    assertEquals(4, splitter.readBytes(4));
+    assertEquals("WORD", splitter.getTokenAsString());
+    assertEquals(0, splitter.getRemainingLength());
+  }
+
+  @Test
+  public void directBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+    buffer.put("\u00fcber,alles".getBytes(UTF_8));
+    buffer.flip();
+    ByteSplitter splitter = new ByteSplitter(buffer, UTF_8);
+    assertEquals("\u00fcber", splitter.getNextToken(","));
+    assertEquals(6, splitter.getCurrentOffset());
+  }
+
+  @Test
+  public void memoryMappedFile() throws IOException {
+    File file = folder.newFile("records");
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write("first\nsecond\n".getBytes(UTF_8));
+    } finally {
+      out.close();
+    }
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      MappedByteBuffer buffer = randomAccessFile.getChannel().map(MapMode.READ_ONLY, 0, file.length());
+      ByteSplitter splitter = new ByteSplitter(buffer, UTF_8);
+      assertEquals("first", splitter.getNextToken((byte) '\n'));
+      assertEquals("second", splitter.getNextToken((byte) '\n'));
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void delimiterNotFound() {
+    new ByteSplitter("SAY A WORD".getBytes(UTF_8), UTF_8).getNextToken(":");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void skipMissingDelimiter() {
+    new ByteSplitter("SAY A WORD".getBytes(UTF_8), UTF_8).skipDelimiter(" ");
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void readPastEnd() {
+    new ByteSplitter("SAY".getBytes(UTF_8), UTF_8).getNextBytes(4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nullCharset() {
+    new ByteSplitter(new byte[0], null);
+  }
+
+}
@@ -18,6 +18,9 @@ package fm.last.commons.lang.string;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
 import org.junit.Test;
 
 public class StringSplitterTest {
@@ -85,4 +88,95 @@ public class StringSplitterTest {
     wordchomp.skipDelimiter(" ");
   }
 
+  @Test
+  public void regexDelimiters() {
+    StringSplitter splitter = new StringSplitter("SAY  A\tWORD|FOR");
+    assertEquals("SAY", splitter.getNextToken("\\s+"));
+    assertEquals("A", splitter.getNextToken(Pattern.compile("\\s")));
+    assertEquals("WORD", splitter.getNextToken("\\|"));
+    assertEquals(3, splitter.getRemainingLength());
+  }
+
+  @Test
+  public void anchorsMatchAtReadPosition() {
+    StringSplitter splitter = new StringSplitter("SAY A WORD");
+    splitter.getNextToken(4);
+    assertEquals("", splitter.getNextToken("^A"));
+    assertEquals(" WORD", splitter.peek(5));
+  }
+
+  @Test
+  public void sameTokensAsStringSplit() {
+    String[] inputs = { "SAY A WORD", " SAY A WORD", "SAY  A", "SAY A ", "SAY", "", "a::b:::c" };
+    String[] delimiters = { " ", " +", "::", ":", "", "$", "\\b", "(?=A)", "x*" };
+    for (String input : inputs) {
+      for (String delimiter : delimiters) {
+        StringSplitter splitter = new StringSplitter(input);
+        String rest = input;
+        while (true) {
+          String[] tokens = rest.split(delimiter, 2);
+          if (tokens.length != 2) {
+            try {
+              splitter.getNextToken(delimiter);
+              throw new AssertionError("Split '" + rest + "' on '" + delimiter + "'");
+            } catch (IllegalStateException e) {
+              break;
+            }
+          }
+          assertEquals("'" + rest + "' on '" + delimiter + "'", tokens[0], splitter.getNextToken(delimiter));
+          assertEquals(input.length() - tokens[1].length(), splitter.getCurrentOffset());
+          if (tokens[1].length() == rest.length()) {
+            break;
+          }
+          rest = tokens[1];
+        }
+      }
+    }
+  }
+
+  @Test
+  public void readTokenOffsetsAndViews() {
+    StringBuilder line = new StringBuilder("SAY::A::WORD");
+    StringSplitter splitter = new StringSplitter(line);
+    assertEquals(3, splitter.readToken("::"));
+    assertEquals(0, splitter.getTokenStart());
+    assertEquals(3, splitter.getTokenEnd());
+    assertEquals(1, splitter.readToken("::"));
+    assertEquals(5, splitter.getTokenStart());
+    CharSequence token = splitter.getToken();
+    assertEquals(1, token.length());
+    assertEquals('A', token.charAt(0));
+    assertEquals(2, splitter.readToken(2));
+    assertEquals("WO", splitter.getToken().toString());
+    assertEquals("O", splitter.getToken().subSequence(1, 2).toString());
+    assertEquals(10, splitter.getCurrentOffset());
+  }
+
+  @Test(expected = StringIndexOutOfBoundsException.class)
+  public void getTokeByIntPastEnd() {
+    StringSplitter splitter = new StringSplitter("SAY");
+    splitter.getNextToken(4);
+  }
+
+  @Test
+  public void getBytesOnCharacterBoundary() {
+    String word = "caf\u00e9 au lait";
+    StringSplitter splitter = new StringSplitter(word);
+    int numBytes = "caf\u00e9".getBytes().length;
+    assertArrayEquals("caf\u00e9".getBytes(), splitter.getNextBytes(numBytes));
+    assertEquals(4, splitter.getCurrentOffset());
+    splitter.skipDelimiter(" ");
+    assertEquals("au", splitter.getNextToken(" "));
+  }
+
+  @Test
+  public void getBytesInsideCharacter() {
+    if (!Charset.defaultCharset().name().equals("UTF-8")) {
+      return;
+    }
+    StringSplitter splitter = new StringSplitter("\u00e9t\u00e9");
+    assertArrayEquals(new byte[] { (byte) 0xc3 }, splitter.getNextBytes(1));
+    assertEquals("\ufffdt", splitter.getNextToken(2));
+  }
+
 }
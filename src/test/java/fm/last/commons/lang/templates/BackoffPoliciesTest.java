@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BackoffPoliciesTest {
+
+  private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void none() {
+    assertEquals(0, BackoffPolicies.none().nextDelayNanos(1, 0));
+    assertEquals(0, BackoffPolicies.none().nextDelayNanos(5, 0));
+  }
+
+  @Test
+  public void fixed() {
+    BackoffPolicy policy = BackoffPolicies.fixed(5, TimeUnit.SECONDS);
+    assertEquals(TimeUnit.SECONDS.toNanos(5), policy.nextDelayNanos(1, 0));
+    assertEquals(TimeUnit.SECONDS.toNanos(5), policy.nextDelayNanos(9, TimeUnit.SECONDS.toNanos(5)));
+  }
+
+  @Test
+  public void fixedNegative() {
+    assertEquals(0, BackoffPolicies.fixed(-1, TimeUnit.SECONDS).nextDelayNanos(1, 0));
+  }
+
+  @Test
+  public void exponential() {
+    BackoffPolicy policy = BackoffPolicies.exponential(100, 2, TimeUnit.MILLISECONDS);
+    assertEquals(100 * MILLI, policy.nextDelayNanos(1, 0));
+    assertEquals(200 * MILLI, policy.nextDelayNanos(2, 0));
+    assertEquals(400 * MILLI, policy.nextDelayNanos(3, 0));
+    assertEquals(800 * MILLI, policy.nextDelayNanos(4, 0));
+  }
+
+  @Test
+  public void exponentialSaturates() {
+    assertEquals(Long.MAX_VALUE, BackoffPolicies.exponential(1, 10, TimeUnit.SECONDS).nextDelayNanos(100, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void exponentialShrinking() {
+    BackoffPolicies.exponential(100, 0.5, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void fullJitter() {
+    BackoffPolicy policy = BackoffPolicies.fullJitter(100, 1000, TimeUnit.MILLISECONDS);
+    for (int i = 0; i < 1000; i++) {
+      long delay = policy.nextDelayNanos(3, 0);
+      assertTrue(delay >= 0);
+      assertTrue(delay <= 400 * MILLI);
+    }
+    for (int i = 0; i < 1000; i++) {
+      long delay = policy.nextDelayNanos(70, 0);
+      assertTrue(delay >= 0);
+      assertTrue(delay <= 1000 * MILLI);
+    }
+  }
+
+  @Test
+  public void decorrelatedJitter() {
+    BackoffPolicy policy = BackoffPolicies.decorrelatedJitter(100, 1000, TimeUnit.MILLISECONDS);
+    long delay = 0;
+    for (int i = 1; i < 1000; i++) {
+      long previous = delay;
+      delay = policy.nextDelayNanos(i, previous);
+      assertTrue(delay >= 100 * MILLI);
+      assertTrue(delay <= 1000 * MILLI);
+      assertTrue(delay <= Math.max(100 * MILLI, previous) * 3);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decorrelatedJitterBaseAfterMax() {
+    BackoffPolicies.decorrelatedJitter(1000, 100, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void capped() {
+    BackoffPolicy policy = BackoffPolicies.capped(BackoffPolicies.exponential(1, 2, TimeUnit.SECONDS), 5,
+        TimeUnit.SECONDS);
+    assertEquals(TimeUnit.SECONDS.toNanos(4), policy.nextDelayNanos(3, 0));
+    assertEquals(TimeUnit.SECONDS.toNanos(5), policy.nextDelayNanos(4, 0));
+    assertEquals(TimeUnit.SECONDS.toNanos(5), policy.nextDelayNanos(40, 0));
+  }
+
+}
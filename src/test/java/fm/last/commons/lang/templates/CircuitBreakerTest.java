@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fm.last.commons.lang.templates.CircuitBreaker.Permit;
+import fm.last.commons.lang.templates.CircuitBreaker.State;
+import fm.last.commons.lang.templates.RetryTemplate.RetryCallback;
+import fm.last.commons.lang.time.ManualClock;
+
+public class CircuitBreakerTest {
+
+  private final ManualClock clock = new ManualClock();
+  private final CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 1, TimeUnit.SECONDS, 2, clock);
+
+  private void record(int successes, int failures) {
+    for (int i = 0; i < successes; i++) {
+      breaker.tryAcquirePermission().onSuccess();
+    }
+    for (int i = 0; i < failures; i++) {
+      breaker.tryAcquirePermission().onFailure();
+    }
+  }
+
+  private void open() {
+    record(0, 4);
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void startsClosed() {
+    assertEquals(State.CLOSED, breaker.getState());
+    assertNotNull(breaker.tryAcquirePermission());
+  }
+
+  @Test
+  public void staysClosedBelowMinimumCalls() {
+    record(0, 3);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void staysClosedBelowThreshold() {
+    record(6, 4);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void opensAtThreshold() {
+    record(4, 3);
+    assertEquals(State.CLOSED, breaker.getState());
+    record(0, 1);
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void windowForgetsOldCalls() {
+    record(0, 3);
+    record(10, 0);
+    assertEquals(0.0, breaker.getFailureRate(), 0.0);
+    record(0, 4);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void rejectsWhileOpen() {
+    open();
+    assertNull(breaker.tryAcquirePermission());
+    clock.advance(999, TimeUnit.MILLISECONDS);
+    assertNull(breaker.tryAcquirePermission());
+  }
+
+  @Test
+  public void halfOpenAfterOpenDuration() {
+    open();
+    clock.advance(1, TimeUnit.SECONDS);
+    assertNotNull(breaker.tryAcquirePermission());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    assertNotNull(breaker.tryAcquirePermission());
+    // only two trial calls allowed
+    assertNull(breaker.tryAcquirePermission());
+  }
+
+  @Test
+  public void closesAfterTrialsSucceed() {
+    open();
+    clock.advance(1, TimeUnit.SECONDS);
+    Permit first = breaker.tryAcquirePermission();
+    Permit second = breaker.tryAcquirePermission();
+    first.onSuccess();
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    second.onSuccess();
+    assertEquals(State.CLOSED, breaker.getState());
+    assertEquals(0.0, breaker.getFailureRate(), 0.0);
+  }
+
+  @Test
+  public void reopensWhenTrialFails() {
+    open();
+    clock.advance(1, TimeUnit.SECONDS);
+    breaker.tryAcquirePermission().onFailure();
+    assertEquals(State.OPEN, breaker.getState());
+    assertNull(breaker.tryAcquirePermission());
+  }
+
+  @Test
+  public void reopensWhenTrialsNotReported() {
+    open();
+    clock.advance(1, TimeUnit.SECONDS);
+    assertNotNull(breaker.tryAcquirePermission());
+    assertNotNull(breaker.tryAcquirePermission());
+    clock.advance(999, TimeUnit.MILLISECONDS);
+    assertNull(breaker.tryAcquirePermission());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    clock.advance(1, TimeUnit.MILLISECONDS);
+    assertNull(breaker.tryAcquirePermission());
+    assertEquals(State.OPEN, breaker.getState());
+    clock.advance(1, TimeUnit.SECONDS);
+    assertNotNull(breaker.tryAcquirePermission());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+  }
+
+  @Test
+  public void lateOutcomesFromEarlierPeriodIgnored() {
+    Permit slowSuccess = breaker.tryAcquirePermission();
+    Permit slowFailure = breaker.tryAcquirePermission();
+    open();
+    clock.advance(1, TimeUnit.SECONDS);
+    Permit trial = breaker.tryAcquirePermission();
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    // calls permitted while closed finish during the trial
+    slowSuccess.onSuccess();
+    slowSuccess.onSuccess();
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    slowFailure.onFailure();
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    trial.onFailure();
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void executeFailsFastWhenOpen() throws Exception {
+    open();
+    try {
+      breaker.execute(new RetryCallback<String>() {
+        @Override
+        public String doWithRetry() throws Exception {
+          fail("should not be called");
+          return null;
+        }
+      });
+      fail("did not throw exception");
+    } catch (CircuitBreakerOpenException e) {
+    }
+  }
+
+  @Test
+  public void executeRecordsOutcome() throws Exception {
+    RetryCallback<String> failing = new RetryCallback<String>() {
+      @Override
+      public String doWithRetry() throws Exception {
+        throw new Exception("bla");
+      }
+    };
+    for (int i = 0; i < 4; i++) {
+      try {
+        breaker.execute(failing);
+        fail("did not throw exception");
+      } catch (CircuitBreakerOpenException e) {
+        fail("opened too early");
+      } catch (Exception e) {
+      }
+    }
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidThreshold() {
+    new CircuitBreaker(10, 1.5, 1, TimeUnit.SECONDS);
+  }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fm.last.commons.lang.templates.ConcurrencyLimiter.Permit;
+import fm.last.commons.lang.templates.RetryTemplate.RetryCallback;
+import fm.last.commons.lang.time.ManualClock;
+
+public class ConcurrencyLimiterTest {
+
+  private final ManualClock clock = new ManualClock();
+
+  private ConcurrencyLimiter newLimiter(int initialLimit, int minLimit, int maxLimit) {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(initialLimit, minLimit, maxLimit);
+    limiter.setClock(clock);
+    return limiter;
+  }
+
+  private List<Permit> acquire(ConcurrencyLimiter limiter, int permits) {
+    List<Permit> acquired = new ArrayList<Permit>();
+    for (int i = 0; i < permits; i++) {
+      Permit permit = limiter.tryAcquire();
+      assertNotNull(permit);
+      acquired.add(permit);
+    }
+    return acquired;
+  }
+
+  @Test
+  public void shedsOverLimit() throws Exception {
+    ConcurrencyLimiter limiter = newLimiter(2, 1, 10);
+    acquire(limiter, 2);
+    assertNull(limiter.tryAcquire());
+    assertEquals(2, limiter.getInFlight());
+    try {
+      limiter.execute(new RetryCallback<Object>() {
+        @Override
+        public Object doWithRetry() throws Exception {
+          fail("Should have been shed");
+          return null;
+        }
+      });
+      fail("Expected ConcurrencyLimitExceededException");
+    } catch (ConcurrencyLimitExceededException e) {
+    }
+  }
+
+  @Test
+  public void executeReleasesPermit() throws Exception {
+    ConcurrencyLimiter limiter = newLimiter(1, 1, 10);
+    assertEquals("result", limiter.execute(new RetryCallback<String>() {
+      @Override
+      public String doWithRetry() throws Exception {
+        return "result";
+      }
+    }));
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void executeFailureDecreasesLimit() throws Exception {
+    ConcurrencyLimiter limiter = newLimiter(10, 1, 10);
+    try {
+      limiter.execute(new RetryCallback<Object>() {
+        @Override
+        public Object doWithRetry() throws Exception {
+          throw new Exception("overloaded");
+        }
+      });
+      fail("Expected exception");
+    } catch (Exception e) {
+      assertEquals("overloaded", e.getMessage());
+    }
+    assertEquals(9, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void increasesWhenLimitInUse() {
+    ConcurrencyLimiter limiter = newLimiter(2, 1, 10);
+    for (int round = 0; round < 10; round++) {
+      for (Permit permit : acquire(limiter, limiter.getLimit())) {
+        permit.onSuccess();
+      }
+    }
+    assertTrue(limiter.getLimit() > 2);
+  }
+
+  @Test
+  public void doesNotIncreaseWhenIdle() {
+    ConcurrencyLimiter limiter = newLimiter(4, 1, 10);
+    for (int i = 0; i < 100; i++) {
+      limiter.tryAcquire().onSuccess();
+    }
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  public void respectsMaxLimit() {
+    ConcurrencyLimiter limiter = newLimiter(2, 1, 3);
+    for (int round = 0; round < 100; round++) {
+      for (Permit permit : acquire(limiter, limiter.getLimit())) {
+        permit.onSuccess();
+      }
+    }
+    assertEquals(3, limiter.getLimit());
+  }
+
+  @Test
+  public void decreasesOnSlowCall() {
+    ConcurrencyLimiter limiter = newLimiter(10, 1, 10);
+    limiter.setLatencyThreshold(100, TimeUnit.MILLISECONDS);
+    Permit permit = limiter.tryAcquire();
+    clock.advance(50, TimeUnit.MILLISECONDS);
+    permit.onSuccess();
+    assertEquals(10, limiter.getLimit());
+
+    permit = limiter.tryAcquire();
+    clock.advance(150, TimeUnit.MILLISECONDS);
+    permit.onSuccess();
+    assertEquals(9, limiter.getLimit());
+  }
+
+  @Test
+  public void oneDecreaseForCallsInFlight() {
+    ConcurrencyLimiter limiter = newLimiter(10, 1, 10);
+    List<Permit> permits = acquire(limiter, 5);
+    clock.advance(1, TimeUnit.NANOSECONDS);
+    for (Permit permit : permits) {
+      permit.onFailure();
+    }
+    assertEquals(9, limiter.getLimit());
+
+    clock.advance(1, TimeUnit.NANOSECONDS);
+    Permit permit = limiter.tryAcquire();
+    clock.advance(1, TimeUnit.NANOSECONDS);
+    permit.onFailure();
+    assertEquals(8, limiter.getLimit());
+  }
+
+  @Test
+  public void respectsMinLimit() {
+    ConcurrencyLimiter limiter = newLimiter(2, 2, 10);
+    for (int i = 0; i < 10; i++) {
+      clock.advance(1, TimeUnit.NANOSECONDS);
+      Permit permit = limiter.tryAcquire();
+      clock.advance(1, TimeUnit.NANOSECONDS);
+      permit.onFailure();
+    }
+    assertEquals(2, limiter.getLimit());
+  }
+
+  @Test
+  public void ignoreDoesNotChangeLimit() {
+    ConcurrencyLimiter limiter = newLimiter(1, 1, 10);
+    for (int i = 0; i < 10; i++) {
+      clock.advance(1, TimeUnit.NANOSECONDS);
+      limiter.tryAcquire().onIgnore();
+    }
+    assertEquals(1, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void releaseTwice() {
+    Permit permit = newLimiter(1, 1, 10).tryAcquire();
+    permit.onSuccess();
+    permit.onFailure();
+  }
+
+  @Test
+  public void acquireTimesOut() throws Exception {
+    ConcurrencyLimiter limiter = newLimiter(1, 1, 10);
+    acquire(limiter, 1);
+    assertNull(limiter.acquire(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void acquireQueues() throws Exception {
+    final ConcurrencyLimiter limiter = newLimiter(1, 1, 10);
+    Permit held = limiter.tryAcquire();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Permit> waiting = executor.submit(new Callable<Permit>() {
+        @Override
+        public Permit call() throws Exception {
+          return limiter.acquire(5, TimeUnit.SECONDS);
+        }
+      });
+      Thread.sleep(50);
+      assertEquals(1, limiter.getInFlight());
+      held.onIgnore();
+      assertNotNull(waiting.get(5, TimeUnit.SECONDS));
+      assertEquals(1, limiter.getInFlight());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void initialLimitOutOfRange() {
+    new ConcurrencyLimiter(11, 1, 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroMinLimit() {
+    new ConcurrencyLimiter(1, 0, 10);
+  }
+
+}
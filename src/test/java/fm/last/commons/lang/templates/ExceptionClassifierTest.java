@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+
+import org.junit.Test;
+
+public class ExceptionClassifierTest {
+
+  @Test
+  public void retriesEverythingByDefault() {
+    ExceptionClassifier classifier = new ExceptionClassifier();
+    assertTrue(classifier.isRetryable(new Exception()));
+    assertTrue(classifier.isRetryable(new IllegalArgumentException()));
+  }
+
+  @Test
+  public void abortOn() {
+    ExceptionClassifier classifier = new ExceptionClassifier().abortOn(IllegalArgumentException.class);
+    assertFalse(classifier.isRetryable(new IllegalArgumentException()));
+    assertFalse(classifier.isRetryable(new RuntimeException(new IllegalArgumentException())));
+    assertTrue(classifier.isRetryable(new IOException()));
+  }
+
+  @Test
+  public void retryOn() {
+    ExceptionClassifier classifier = new ExceptionClassifier().retryOn(IOException.class);
+    assertTrue(classifier.isRetryable(new SocketTimeoutException()));
+    assertTrue(classifier.isRetryable(new RuntimeException(new IOException())));
+    assertFalse(classifier.isRetryable(new IllegalStateException()));
+  }
+
+  @Test
+  public void abortWinsOverRetry() {
+    ExceptionClassifier classifier = new ExceptionClassifier().retryOn(SQLException.class).abortOn(
+        SQLIntegrityConstraintViolationException.class);
+    assertTrue(classifier.isRetryable(new SQLException()));
+    assertFalse(classifier.isRetryable(new SQLIntegrityConstraintViolationException()));
+  }
+
+  @Test
+  public void abortOnNextSQLException() {
+    ExceptionClassifier classifier = new ExceptionClassifier().abortOn(SQLIntegrityConstraintViolationException.class);
+    SQLException batchFailure = new SQLException("batch failed");
+    batchFailure.setNextException(new SQLIntegrityConstraintViolationException("duplicate key"));
+    assertFalse(classifier.isRetryable(batchFailure));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nullType() {
+    new ExceptionClassifier().retryOn(null);
+  }
+
+}
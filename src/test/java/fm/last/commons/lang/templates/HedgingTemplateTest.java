@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fm.last.commons.lang.templates.RetryTemplate.RetryCallback;
+
+public class HedgingTemplateTest {
+
+  /**
+   * The first attempt blocks until interrupted, later attempts return their attempt number.
+   */
+  private static class SlowFirstAttemptCallback extends RetryCallback<Integer> {
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final CountDownLatch firstInterrupted = new CountDownLatch(1);
+
+    @Override
+    public Integer doWithRetry() throws Exception {
+      int attempt = attempts.incrementAndGet();
+      if (attempt == 1) {
+        try {
+          Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+          firstInterrupted.countDown();
+          throw e;
+        }
+      }
+      return attempt;
+    }
+  }
+
+  private static class FailingCallback extends RetryCallback<Void> {
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicInteger exceptions = new AtomicInteger();
+
+    @Override
+    public Void doWithRetry() throws Exception {
+      throw new Exception("failure " + attempts.incrementAndGet());
+    }
+
+    @Override
+    public void onException(Exception e) {
+      exceptions.incrementAndGet();
+    }
+  }
+
+  @Test
+  public void fastAttemptNotHedged() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    String result = new HedgingTemplate(3, 1, TimeUnit.SECONDS).execute(new RetryCallback<String>() {
+      @Override
+      public String doWithRetry() throws Exception {
+        attempts.incrementAndGet();
+        return "hello";
+      }
+    });
+    assertEquals("hello", result);
+    Thread.sleep(1200);
+    assertEquals(1, attempts.get());
+  }
+
+  @Test
+  public void slowAttemptHedged() throws Exception {
+    SlowFirstAttemptCallback callback = new SlowFirstAttemptCallback();
+    long start = System.nanoTime();
+    assertEquals(Integer.valueOf(2), new HedgingTemplate(2, 20, TimeUnit.MILLISECONDS).execute(callback));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+    // the slow attempt is cancelled
+    assertTrue(callback.firstInterrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void allAttemptsFail() throws Exception {
+    FailingCallback callback = new FailingCallback();
+    try {
+      new HedgingTemplate(3, 10, TimeUnit.SECONDS).execute(callback);
+      fail("did not throw exception");
+    } catch (Exception e) {
+      assertTrue(e.getMessage().startsWith("failure"));
+    }
+    // failures start the next attempt without waiting for the hedge delay
+    assertEquals(3, callback.attempts.get());
+    assertEquals(3, callback.exceptions.get());
+  }
+
+  @Test(timeout = 10000)
+  public void failingOnExceptionOnLastAttempt() throws Exception {
+    final RuntimeException onExceptionFailure = new IllegalStateException("listener");
+    FailingCallback callback = new FailingCallback() {
+      @Override
+      public void onException(Exception e) {
+        throw onExceptionFailure;
+      }
+    };
+    try {
+      new HedgingTemplate(1, 10, TimeUnit.SECONDS).execute(callback);
+      fail("did not throw exception");
+    } catch (Exception e) {
+      assertEquals("failure 1", e.getMessage());
+      assertEquals(onExceptionFailure, e.getSuppressed()[0]);
+    }
+  }
+
+  @Test
+  public void errorsNotRetried() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    try {
+      new HedgingTemplate(3, 10, TimeUnit.SECONDS).execute(new RetryCallback<Void>() {
+        @Override
+        public Void doWithRetry() throws Exception {
+          attempts.incrementAndGet();
+          throw new Error("bla");
+        }
+      });
+      fail("did not throw error");
+    } catch (Error e) {
+    }
+    assertEquals(1, attempts.get());
+  }
+
+  /**
+   * Neither an Exception nor an Error, which Java only lets through a throws clause by way of generics.
+   */
+  private static class OddThrowable extends Throwable {
+    private static final long serialVersionUID = 1L;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E extends Throwable> void sneakyThrow(Throwable t) throws E {
+    throw (E) t;
+  }
+
+  @Test
+  public void otherThrowablesWrapped() throws Exception {
+    try {
+      new HedgingTemplate(3, 10, TimeUnit.SECONDS).execute(new RetryCallback<Void>() {
+        @Override
+        public Void doWithRetry() throws Exception {
+          HedgingTemplateTest.<RuntimeException> sneakyThrow(new OddThrowable());
+          return null;
+        }
+      });
+      fail("did not throw");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof OddThrowable);
+    }
+  }
+
+  @Test
+  public void cancelCancelsAttempts() throws Exception {
+    SlowFirstAttemptCallback callback = new SlowFirstAttemptCallback();
+    HedgingTemplate template = new HedgingTemplate(1, 0, TimeUnit.SECONDS);
+    CompletableFuture<Integer> future = template.executeAsync(callback);
+    while (callback.attempts.get() == 0) {
+      Thread.sleep(10);
+    }
+    future.cancel(true);
+    assertTrue(callback.firstInterrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void percentileHedgeDelay() throws Exception {
+    HedgingTemplate template = new HedgingTemplate(2, 10, TimeUnit.SECONDS);
+    template.setHedgeDelayPercentile(90);
+    assertEquals(10, template.getHedgeDelay(TimeUnit.SECONDS));
+    for (int i = 0; i < 64; i++) {
+      template.execute(new RetryCallback<Void>() {
+        @Override
+        public Void doWithRetry() throws Exception {
+          return null;
+        }
+      });
+    }
+    assertTrue(template.getHedgeDelay(TimeUnit.SECONDS) < 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroAttempts() {
+    new HedgingTemplate(0, 1, TimeUnit.SECONDS);
+  }
+
+}
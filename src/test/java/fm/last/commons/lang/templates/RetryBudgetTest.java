@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RetryBudgetTest {
+
+  @Test
+  public void startsFull() {
+    RetryBudget budget = new RetryBudget(0.1, 3);
+    assertEquals(3.0, budget.getAvailableRetries(), 0.0);
+    assertTrue(budget.tryAcquireRetry());
+    assertTrue(budget.tryAcquireRetry());
+    assertTrue(budget.tryAcquireRetry());
+    assertFalse(budget.tryAcquireRetry());
+  }
+
+  @Test
+  public void successesRefill() {
+    RetryBudget budget = new RetryBudget(0.1, 1);
+    assertTrue(budget.tryAcquireRetry());
+    for (int i = 0; i < 9; i++) {
+      budget.recordSuccess();
+      assertFalse(budget.tryAcquireRetry());
+    }
+    budget.recordSuccess();
+    assertTrue(budget.tryAcquireRetry());
+  }
+
+  @Test
+  public void balanceCapped() {
+    RetryBudget budget = new RetryBudget(1, 2);
+    for (int i = 0; i < 100; i++) {
+      budget.recordSuccess();
+    }
+    assertEquals(2.0, budget.getAvailableRetries(), 0.0);
+  }
+
+  @Test
+  public void hugeRatioRefillsWithoutOverflow() {
+    RetryBudget budget = new RetryBudget(Double.MAX_VALUE, 2);
+    assertTrue(budget.tryAcquireRetry());
+    assertTrue(budget.tryAcquireRetry());
+    assertFalse(budget.tryAcquireRetry());
+    budget.recordSuccess();
+    assertEquals(2.0, budget.getAvailableRetries(), 0.0);
+    assertTrue(budget.tryAcquireRetry());
+    budget.recordSuccess();
+    assertEquals(2.0, budget.getAvailableRetries(), 0.0);
+  }
+
+  @Test
+  public void zeroRetries() {
+    RetryBudget budget = new RetryBudget(1, 0);
+    budget.recordSuccess();
+    assertFalse(budget.tryAcquireRetry());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeRatio() {
+    new RetryBudget(-0.1, 10);
+  }
+
+  @Test
+  public void concurrentWithdrawalsNeverOverdraw() throws InterruptedException {
+    final RetryBudget budget = new RetryBudget(0, 1000);
+    final AtomicInteger acquired = new AtomicInteger();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 500; j++) {
+            if (budget.tryAcquireRetry()) {
+              acquired.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(1000, acquired.get());
+  }
+
+}
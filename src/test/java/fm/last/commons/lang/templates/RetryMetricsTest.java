@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.templates;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RetryMetricsTest {
+
+  private final RetryMetrics metrics = new RetryMetrics();
+
+  @Test
+  public void empty() {
+    assertEquals(0, metrics.getAttempts());
+    assertEquals(0, metrics.getExecutions());
+    assertEquals(0, metrics.getLatencyPercentileNanos(99));
+  }
+
+  @Test
+  public void counters() {
+    metrics.onAttemptFailed(1, 10, new Exception());
+    metrics.onRetryScheduled(1, 1000);
+    metrics.onAttemptSucceeded(2, 10);
+    metrics.onAttemptFailed(1, 10, new Exception());
+    metrics.onRetryScheduled(1, 500);
+    metrics.onAttemptFailed(2, 10, new Exception());
+    metrics.onGaveUp(2, new Exception());
+
+    assertEquals(4, metrics.getAttempts());
+    assertEquals(3, metrics.getFailedAttempts());
+    assertEquals(1, metrics.getSuccesses());
+    assertEquals(1, metrics.getFailures());
+    assertEquals(2, metrics.getExecutions());
+    assertEquals(2, metrics.getRetries());
+    assertEquals(1500, metrics.getTotalDelayNanos());
+  }
+
+  @Test
+  public void latencyHistogram() {
+    metrics.onAttemptSucceeded(1, 0);
+    metrics.onAttemptSucceeded(1, 1);
+    metrics.onAttemptSucceeded(1, 5);
+    metrics.onAttemptSucceeded(1, 7);
+    long[] histogram = metrics.getLatencyHistogram();
+    assertEquals(1, histogram[0]);
+    assertEquals(1, histogram[1]);
+    assertEquals(2, histogram[3]);
+  }
+
+  @Test
+  public void latencyPercentiles() {
+    for (int i = 0; i < 99; i++) {
+      metrics.onAttemptSucceeded(1, 1000);
+    }
+    metrics.onAttemptSucceeded(1, 1000000);
+    assertEquals(1023, metrics.getLatencyPercentileNanos(50));
+    assertEquals(1023, metrics.getLatencyPercentileNanos(99));
+    assertEquals(1048575, metrics.getLatencyPercentileNanos(99.5));
+    assertEquals(1048575, metrics.getLatencyPercentileNanos(100));
+  }
+
+  @Test
+  public void hugeLatency() {
+    metrics.onAttemptSucceeded(1, Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, metrics.getLatencyPercentileNanos(100));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidPercentile() {
+    metrics.getLatencyPercentileNanos(101);
+  }
+
+}
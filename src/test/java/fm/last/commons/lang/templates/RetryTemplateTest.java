@@ -16,12 +16,35 @@
 package fm.last.commons.lang.templates;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.apache.log4j.Logger;
 import org.junit.Test;
 
+import fm.last.commons.lang.templates.RetryTemplate.AsyncRetryCallback;
+import fm.last.commons.lang.templates.RetryTemplate.BatchRetryCallback;
 import fm.last.commons.lang.templates.RetryTemplate.RetryCallback;
+import fm.last.commons.lang.time.ManualClock;
+import fm.last.commons.lang.time.VirtualTimeScheduler;
 
 /**
  * Unit test for the RetryTemplate class
@@ -76,6 +99,23 @@ public class RetryTemplateTest {
     }
   }
 
+  /**
+   * Fails after taking one second of test clock time.
+   */
+  public class SlowExceptionCallback extends RetryCallback<Void> {
+    private final ManualClock clock;
+
+    public SlowExceptionCallback(ManualClock clock) {
+      this.clock = clock;
+    }
+
+    @Override
+    public Void doWithRetry() throws Exception {
+      clock.advance(1, TimeUnit.SECONDS);
+      throw new Exception("bla");
+    }
+  }
+
   @Test
   public void zeroAttempts() {
     CountCallback counter = new CountCallback(new ExceptionCallback());
@@ -192,4 +232,969 @@ public class RetryTemplateTest {
     // the Error should mean we never reach the onException method.
     assertEquals(0, counter.onExceptionCount);
   }
+
+  @Test
+  public void executeAsyncReturn() throws Exception {
+    RetryCallback<String> callback = new RetryCallback<String>() {
+      @Override
+      public String doWithRetry() throws Exception {
+        return "hello";
+      }
+    };
+    assertEquals("hello", new RetryTemplate(1, 0).executeAsync(callback).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void executeAsyncZeroAttempts() throws Exception {
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    assertNull(new RetryTemplate(0, 10).executeAsync(counter).get(5, TimeUnit.SECONDS));
+    assertEquals(0, counter.count);
+  }
+
+  @Test
+  public void executeAsyncDoesNotExceedMaxAttempts() throws Exception {
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    CompletableFuture<Void> future = new RetryTemplate(5, 0).executeAsync(counter);
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (ExecutionException e) {
+      assertEquals("bla", e.getCause().getMessage());
+    }
+    assertEquals(5, counter.count);
+    assertEquals(5, counter.onExceptionCount);
+  }
+
+  @Test
+  public void executeAsyncErrorsNotRetried() throws Exception {
+    CountCallback counter = new CountCallback(new ErrorCallback());
+    try {
+      new RetryTemplate(5, 0).executeAsync(counter).get(5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof Error);
+    }
+    assertEquals(1, counter.count);
+    assertEquals(0, counter.onExceptionCount);
+  }
+
+  @Test
+  public void executeAsyncRetriesFailedStage() throws Exception {
+    final Exception failure = new Exception("stage failed");
+    AsyncRetryCallback<String> callback = new AsyncRetryCallback<String>() {
+      private int count = 0;
+
+      @Override
+      public CompletionStage<String> doWithRetry() throws Exception {
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        if (++count < 3) {
+          stage.completeExceptionally(failure);
+        } else {
+          stage.complete("third time lucky");
+        }
+        return stage;
+      }
+    };
+    assertEquals("third time lucky", new RetryTemplate(3, 0).executeAsync(callback).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void executeAsyncLastStageFailure() throws Exception {
+    final Exception failure = new Exception("stage failed");
+    AsyncRetryCallback<String> callback = new AsyncRetryCallback<String>() {
+      @Override
+      public CompletionStage<String> doWithRetry() throws Exception {
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        stage.completeExceptionally(failure);
+        return stage;
+      }
+    };
+    try {
+      new RetryTemplate(2, 0).executeAsync(callback).get(5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (ExecutionException e) {
+      assertSame(failure, e.getCause());
+    }
+  }
+
+  @Test
+  public void executeAsyncCancelStopsRetries() throws Exception {
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    CompletableFuture<Void> future = new RetryTemplate(5, 1).executeAsync(counter);
+    while (counter.onExceptionCount == 0) {
+      Thread.sleep(10);
+    }
+    future.cancel(false);
+    Thread.sleep(1500);
+    assertEquals(1, counter.count);
+  }
+
+  @Test
+  public void backoffPolicyConsulted() {
+    final List<Integer> attempts = new ArrayList<Integer>();
+    BackoffPolicy policy = new BackoffPolicy() {
+      @Override
+      public long nextDelayNanos(int attempt, long previousDelayNanos) {
+        attempts.add(attempt);
+        return 0;
+      }
+    };
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      new RetryTemplate(4, policy).execute(counter);
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    assertEquals(4, counter.count);
+    assertEquals(Arrays.asList(1, 2, 3), attempts);
+  }
+
+  @Test
+  public void executeAsyncBackoffPolicyConsulted() throws Exception {
+    final List<Long> previousDelays = new ArrayList<Long>();
+    BackoffPolicy policy = new BackoffPolicy() {
+      @Override
+      public long nextDelayNanos(int attempt, long previousDelayNanos) {
+        previousDelays.add(previousDelayNanos);
+        return attempt;
+      }
+    };
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      new RetryTemplate(3, policy).executeAsync(counter).get(5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (ExecutionException e) {
+    }
+    assertEquals(3, counter.count);
+    assertEquals(Arrays.asList(0L, 1L), previousDelays);
+  }
+
+  @Test
+  public void negativeBackoffDelayStillRetries() {
+    BackoffPolicy policy = new BackoffPolicy() {
+      @Override
+      public long nextDelayNanos(int attempt, long previousDelayNanos) {
+        return -attempt;
+      }
+    };
+    RetryTemplate template = new RetryTemplate(3, policy);
+    RetryMetrics metrics = new RetryMetrics();
+    template.setRetryListener(metrics);
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      template.execute(counter);
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    assertEquals(3, counter.count);
+    assertEquals(2, metrics.getRetries());
+    assertEquals(1, metrics.getFailures());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nullBackoffPolicy() {
+    new RetryTemplate(3, null);
+  }
+
+  @Test
+  public void retryBudgetLimitsRetries() {
+    RetryBudget budget = new RetryBudget(0.5, 3);
+    RetryTemplate template = new RetryTemplate(10, 0);
+    template.setRetryBudget(budget);
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      template.execute(counter);
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    // the first attempt plus the three banked retries
+    assertEquals(4, counter.count);
+
+    counter.reset();
+    try {
+      template.execute(counter);
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    assertEquals(1, counter.count);
+  }
+
+  @Test
+  public void retryBudgetRefilledBySuccess() throws Exception {
+    RetryBudget budget = new RetryBudget(0.5, 3);
+    while (budget.tryAcquireRetry()) {
+    }
+    RetryTemplate template = new RetryTemplate(10, 0);
+    template.setRetryBudget(budget);
+    template.execute(new DoNothingCallback());
+    template.execute(new DoNothingCallback());
+    assertEquals(1.0, budget.getAvailableRetries(), 0.0);
+  }
+
+  @Test
+  public void circuitBreakerStopsRetries() {
+    CircuitBreaker breaker = new CircuitBreaker(3, 1.0, 1, TimeUnit.MINUTES);
+    RetryTemplate template = new RetryTemplate(10, 0);
+    template.setCircuitBreaker(breaker);
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      template.execute(counter);
+      fail("did not throw exception");
+    } catch (CircuitBreakerOpenException e) {
+      assertEquals("bla", e.getCause().getMessage());
+    } catch (Exception e) {
+      fail("threw " + e);
+    }
+    assertEquals(3, counter.count);
+
+    counter.reset();
+    try {
+      template.execute(counter);
+      fail("did not throw exception");
+    } catch (CircuitBreakerOpenException e) {
+    } catch (Exception e) {
+      fail("threw " + e);
+    }
+    assertEquals(0, counter.count);
+  }
+
+  @Test
+  public void executeAsyncCircuitBreakerStopsRetries() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(3, 1.0, 1, TimeUnit.MINUTES);
+    RetryTemplate template = new RetryTemplate(10, 0);
+    template.setCircuitBreaker(breaker);
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      template.executeAsync(counter).get(5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CircuitBreakerOpenException);
+    }
+    assertEquals(3, counter.count);
+  }
+
+  private CircuitBreaker openBreaker(ManualClock clock) {
+    CircuitBreaker breaker = new CircuitBreaker(1, 1, 1.0, 1, TimeUnit.MINUTES, 1, clock);
+    breaker.tryAcquirePermission().onFailure();
+    clock.advance(1, TimeUnit.MINUTES);
+    return breaker;
+  }
+
+  @Test
+  public void circuitBreakerTrialReportedOnError() throws Exception {
+    ManualClock clock = new ManualClock();
+    CircuitBreaker breaker = openBreaker(clock);
+    RetryTemplate template = new RetryTemplate(10, 0);
+    template.setCircuitBreaker(breaker);
+    RetryMetrics metrics = new RetryMetrics();
+    template.setRetryListener(metrics);
+    try {
+      template.execute(new ErrorCallback());
+      fail("did not throw error");
+    } catch (Error e) {
+      assertEquals("bla", e.getMessage());
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertEquals(1, metrics.getFailedAttempts());
+    assertEquals(1, metrics.getFailures());
+
+    clock.advance(1, TimeUnit.MINUTES);
+    template.execute(new DoNothingCallback());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void executeAsyncCircuitBreakerTrialReportedOnError() throws Exception {
+    ManualClock clock = new ManualClock();
+    CircuitBreaker breaker = openBreaker(clock);
+    RetryTemplate template = new RetryTemplate(10, 0);
+    template.setCircuitBreaker(breaker);
+    try {
+      template.executeAsync(new ErrorCallback()).get(5, TimeUnit.SECONDS);
+      fail("did not throw error");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof Error);
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+    clock.advance(1, TimeUnit.MINUTES);
+    final CompletableFuture<Void> stage = new CompletableFuture<Void>();
+    stage.completeExceptionally(new AssertionError());
+    CompletableFuture<Void> future = template.executeAsync(new AsyncRetryCallback<Void>() {
+      @Override
+      public CompletionStage<Void> doWithRetry() throws Exception {
+        return stage;
+      }
+    });
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("did not throw error");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof AssertionError);
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void batchCircuitBreakerTrialReportedOnInterrupt() throws Exception {
+    ManualClock clock = new ManualClock();
+    CircuitBreaker breaker = openBreaker(clock);
+    RetryTemplate template = new RetryTemplate(10, 0);
+    template.setCircuitBreaker(breaker);
+    BatchRetryResult<String, Void> result = template.executeBatch(Arrays.asList("a", "b"),
+        new BatchRetryCallback<String, Void>() {
+          @Override
+          public void doWithRetry(List<String> items, BatchRetryResult<String, Void> result) throws Exception {
+            result.succeeded("a", null);
+            throw new InterruptedException();
+          }
+        });
+    assertTrue(Thread.interrupted());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertTrue(result.getResults().containsKey("a"));
+    assertTrue(result.getFailures().get("b") instanceof InterruptedException);
+  }
+
+  @Test
+  public void batchCircuitBreakerOpeningReportsPendingItems() throws Exception {
+    RetryTemplate template = new RetryTemplate(5, 0);
+    CircuitBreaker breaker = new CircuitBreaker(1, 1, 1.0, 1, TimeUnit.MINUTES, 1, new ManualClock());
+    template.setCircuitBreaker(breaker);
+    CountdownBatchCallback callback = new CountdownBatchCallback();
+    BatchRetryResult<Integer, String> result = template.executeBatch(Arrays.asList(1, 2), callback);
+    assertEquals(1, result.getRounds());
+    assertEquals("item1", result.getResults().get(1));
+    Exception failure = result.getFailures().get(2);
+    assertTrue(failure instanceof CircuitBreakerOpenException);
+    assertEquals("item2 failed", failure.getCause().getMessage());
+  }
+
+  @Test
+  public void batchInterruptedDuringSleepReportsPendingItems() throws Exception {
+    RetryTemplate template = new RetryTemplate(5, 0) {
+      @Override
+      protected void retrySleep(long delayNanos) throws InterruptedException {
+        throw new InterruptedException();
+      }
+    };
+    BatchRetryResult<Integer, String> result = template.executeBatch(Arrays.asList(1, 2),
+        new CountdownBatchCallback());
+    assertTrue(Thread.interrupted());
+    assertEquals("item1", result.getResults().get(1));
+    assertTrue(result.getFailures().get(2) instanceof InterruptedException);
+  }
+
+  @Test
+  public void nonRetryableExceptionNotRetried() {
+    RetryTemplate template = new RetryTemplate(5, 0);
+    template.setExceptionClassifier(new ExceptionClassifier().abortOn(IllegalArgumentException.class));
+    CountCallback counter = new CountCallback(new RetryCallback<Void>() {
+      @Override
+      public Void doWithRetry() throws Exception {
+        throw new IllegalArgumentException("bad input");
+      }
+    });
+    try {
+      template.execute(counter);
+      fail("did not throw exception");
+    } catch (IllegalArgumentException e) {
+    } catch (Exception e) {
+      fail("threw " + e);
+    }
+    assertEquals(1, counter.count);
+    assertEquals(1, counter.onExceptionCount);
+  }
+
+  @Test
+  public void retryableExceptionRetried() {
+    RetryTemplate template = new RetryTemplate(5, 0);
+    template.setExceptionClassifier(new ExceptionClassifier().abortOn(IllegalArgumentException.class));
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      template.execute(counter);
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    assertEquals(5, counter.count);
+  }
+
+  @Test
+  public void executeAsyncNonRetryableExceptionNotRetried() throws Exception {
+    RetryTemplate template = new RetryTemplate(5, 0);
+    template.setExceptionClassifier(new ExceptionClassifier().retryOn(IllegalStateException.class));
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      template.executeAsync(counter).get(5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (ExecutionException e) {
+    }
+    assertEquals(1, counter.count);
+  }
+
+  @Test
+  public void timeBudgetStopsRetries() {
+    ManualClock clock = new ManualClock();
+    RetryTemplate template = new RetryTemplate(10, 0);
+    template.setClock(clock);
+    template.setTimeBudget(3500, TimeUnit.MILLISECONDS);
+    CountCallback counter = new CountCallback(new SlowExceptionCallback(clock));
+    try {
+      template.execute(counter);
+      fail("did not throw exception");
+    } catch (Exception e) {
+      assertEquals("bla", e.getMessage());
+    }
+    // a fourth one second attempt would not finish within the budget
+    assertEquals(3, counter.count);
+  }
+
+  @Test
+  public void timeBudgetTrimsSleep() {
+    final ManualClock clock = new ManualClock();
+    final List<Long> sleeps = new ArrayList<Long>();
+    RetryTemplate template = new RetryTemplate(3, 60) {
+      @Override
+      protected void retrySleep(long delayNanos) throws InterruptedException {
+        sleeps.add(delayNanos);
+        super.retrySleep(delayNanos);
+      }
+    };
+    template.setClock(clock);
+    CountCallback counter = new CountCallback(new SlowExceptionCallback(clock));
+    try {
+      template.execute(counter, 5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    assertEquals(2, counter.count);
+    // 5s budget - 1s first attempt - 1s expected for the second
+    assertEquals(Arrays.asList(TimeUnit.SECONDS.toNanos(3)), sleeps);
+  }
+
+  @Test
+  public void executeAsyncTimeBudgetStopsRetries() throws Exception {
+    ManualClock clock = new ManualClock();
+    RetryTemplate template = new RetryTemplate(10, 0);
+    template.setClock(clock);
+    template.setTimeBudget(2, TimeUnit.SECONDS);
+    CountCallback counter = new CountCallback(new SlowExceptionCallback(clock));
+    try {
+      template.executeAsync(counter).get(5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (ExecutionException e) {
+    }
+    assertEquals(2, counter.count);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeTimeBudget() {
+    new RetryTemplate().setTimeBudget(-1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void retryListenerReportsAttempts() throws Exception {
+    RetryMetrics metrics = new RetryMetrics();
+    RetryTemplate template = new RetryTemplate(3, 0);
+    template.setRetryListener(metrics);
+    try {
+      template.execute(new ExceptionCallback());
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    template.execute(new DoNothingCallback());
+    assertEquals(4, metrics.getAttempts());
+    assertEquals(3, metrics.getFailedAttempts());
+    assertEquals(2, metrics.getRetries());
+    assertEquals(1, metrics.getSuccesses());
+    assertEquals(1, metrics.getFailures());
+  }
+
+  @Test
+  public void retryListenerReportsLatencyAndDelay() throws Exception {
+    final ManualClock clock = new ManualClock();
+    RetryTemplate template = new RetryTemplate(2, 0);
+    template.setClock(clock);
+    final List<Long> latencies = new ArrayList<Long>();
+    final List<Long> delays = new ArrayList<Long>();
+    template.setRetryListener(new RetryListener() {
+      @Override
+      public void onAttemptFailed(int attempt, long latencyNanos, Throwable e) {
+        latencies.add(latencyNanos);
+      }
+
+      @Override
+      public void onRetryScheduled(int attempt, long delayNanos) {
+        delays.add(delayNanos);
+      }
+    });
+    try {
+      template.execute(new SlowExceptionCallback(clock));
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    assertEquals(Arrays.asList(TimeUnit.SECONDS.toNanos(1), TimeUnit.SECONDS.toNanos(1)), latencies);
+    assertEquals(Arrays.asList(0L), delays);
+  }
+
+  /**
+   * A listener that fails whenever an attempt succeeds.
+   */
+  private static class FailingSuccessListener extends RetryListener {
+    @Override
+    public void onAttemptSucceeded(int attempt, long latencyNanos) {
+      throw new IllegalStateException("listener");
+    }
+  }
+
+  @Test
+  public void failingListenerDoesNotRepeatSuccess() throws Exception {
+    RetryTemplate template = new RetryTemplate(3, 0);
+    template.setRetryListener(new FailingSuccessListener());
+    CountCallback callback = new CountCallback(new RetryCallback<Void>() {
+      @Override
+      public Void doWithRetry() throws Exception {
+        return null;
+      }
+    });
+    template.execute(callback);
+    assertEquals(1, callback.count);
+    assertEquals(0, callback.onExceptionCount);
+  }
+
+  @Test
+  public void executeAsyncFailingListenerStillCompletes() throws Exception {
+    RetryTemplate template = new RetryTemplate(3, 0);
+    template.setRetryListener(new FailingSuccessListener());
+    assertEquals("hello", template.executeAsync(new RetryCallback<String>() {
+      @Override
+      public String doWithRetry() throws Exception {
+        return "hello";
+      }
+    }).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void executeAsyncRetryListenerReportsAttempts() throws Exception {
+    RetryMetrics metrics = new RetryMetrics();
+    RetryTemplate template = new RetryTemplate(3, 0);
+    template.setRetryListener(metrics);
+    try {
+      template.executeAsync(new ExceptionCallback()).get(5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (ExecutionException e) {
+    }
+    assertEquals(3, metrics.getAttempts());
+    assertEquals(2, metrics.getRetries());
+    assertEquals(1, metrics.getFailures());
+  }
+
+  /**
+   * Runs the execution on another thread, recording what it throws and whether it left the thread interrupted.
+   */
+  static class ExecutionThread extends Thread {
+    final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+    volatile boolean interruptedAfterwards;
+    private final RetryCallback<?> callback;
+    private final RetryTemplate template;
+    private final CancellationToken token;
+
+    ExecutionThread(RetryTemplate template, RetryCallback<?> callback, CancellationToken token) {
+      this.template = template;
+      this.callback = callback;
+      this.token = token;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (token == null) {
+          template.execute(callback);
+        } else {
+          template.execute(callback, token);
+        }
+      } catch (Throwable t) {
+        thrown.set(t);
+      }
+      interruptedAfterwards = isInterrupted();
+    }
+  }
+
+  @Test
+  public void interruptDuringSleepAborts() throws Exception {
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    ExecutionThread thread = new ExecutionThread(new RetryTemplate(5, 60), counter, null);
+    thread.start();
+    while (counter.onExceptionCount == 0) {
+      Thread.sleep(10);
+    }
+    thread.interrupt();
+    thread.join(5000);
+    assertFalse(thread.isAlive());
+    assertTrue(thread.thrown.get() instanceof InterruptedException);
+    assertTrue(thread.interruptedAfterwards);
+    assertEquals(1, counter.count);
+  }
+
+  @Test
+  public void interruptedExceptionNotRetried() {
+    CountCallback counter = new CountCallback(new RetryCallback<Void>() {
+      @Override
+      public Void doWithRetry() throws Exception {
+        throw new InterruptedException();
+      }
+    });
+    try {
+      new RetryTemplate(5, 0).execute(counter);
+      fail("did not throw exception");
+    } catch (InterruptedException e) {
+    } catch (Exception e) {
+      fail("threw " + e);
+    }
+    assertEquals(1, counter.count);
+  }
+
+  @Test
+  public void cancellationWakesSleep() throws Exception {
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    CancellationToken token = new CancellationToken();
+    ExecutionThread thread = new ExecutionThread(new RetryTemplate(5, 60), counter, token);
+    thread.start();
+    while (counter.onExceptionCount == 0) {
+      Thread.sleep(10);
+    }
+    token.cancel();
+    thread.join(5000);
+    assertFalse(thread.isAlive());
+    assertTrue(thread.thrown.get() instanceof CancellationException);
+    assertEquals("bla", thread.thrown.get().getCause().getMessage());
+    assertFalse(thread.interruptedAfterwards);
+    assertEquals(1, counter.count);
+  }
+
+  @Test
+  public void cancelledTokenPreventsAttempts() {
+    CountCallback counter = new CountCallback(new DoNothingCallback());
+    CancellationToken token = new CancellationToken();
+    token.cancel();
+    assertTrue(token.isCancelled());
+    try {
+      new RetryTemplate(5, 0).execute(counter, token);
+      fail("did not throw exception");
+    } catch (CancellationException e) {
+    } catch (Exception e) {
+      fail("threw " + e);
+    }
+    assertEquals(0, counter.count);
+  }
+
+  @Test
+  public void uncancelledTokenRetries() throws Exception {
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      new RetryTemplate(3, 0).execute(counter, new CancellationToken());
+      fail("did not throw exception");
+    } catch (CancellationException e) {
+      fail("threw " + e);
+    } catch (Exception e) {
+    }
+    assertEquals(3, counter.count);
+  }
+
+  /**
+   * Succeeds for each item once it has been attempted as many times as its value, records the items of each round.
+   */
+  static class CountdownBatchCallback extends BatchRetryCallback<Integer, String> {
+    final List<List<Integer>> rounds = new ArrayList<List<Integer>>();
+    private final Map<Integer, Integer> attempts = new HashMap<Integer, Integer>();
+
+    @Override
+    public void doWithRetry(List<Integer> items, BatchRetryResult<Integer, String> result) throws Exception {
+      rounds.add(new ArrayList<Integer>(items));
+      for (Integer item : items) {
+        Integer previous = attempts.get(item);
+        int attempt = previous == null ? 1 : previous + 1;
+        attempts.put(item, attempt);
+        if (attempt >= item) {
+          result.succeeded(item, "item" + item);
+        } else {
+          result.failed(item, new Exception("item" + item + " failed"));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void batchRetriesOnlyFailedItems() throws Exception {
+    CountdownBatchCallback callback = new CountdownBatchCallback();
+    BatchRetryResult<Integer, String> result = new RetryTemplate(5, 0).executeBatch(Arrays.asList(1, 2, 3, 1),
+        callback);
+    assertTrue(result.isSuccessful());
+    assertEquals(3, result.getRounds());
+    assertEquals(Arrays.asList(1, 2, 3, 1), callback.rounds.get(0));
+    assertEquals(Arrays.asList(2, 3), callback.rounds.get(1));
+    assertEquals(Arrays.asList(3), callback.rounds.get(2));
+    assertEquals("item3", result.getResults().get(3));
+    assertEquals(3, result.getResults().size());
+  }
+
+  @Test
+  public void batchReportsItemsFailingAfterMaxAttempts() throws Exception {
+    CountdownBatchCallback callback = new CountdownBatchCallback();
+    BatchRetryResult<Integer, String> result = new RetryTemplate(2, 0).executeBatch(Arrays.asList(1, 2, 3), callback);
+    assertFalse(result.isSuccessful());
+    assertEquals(2, result.getRounds());
+    assertEquals(2, result.getResults().size());
+    assertEquals("item3 failed", result.getFailures().get(3).getMessage());
+  }
+
+  @Test
+  public void batchCallbackExceptionFailsUnreportedItems() throws Exception {
+    final List<Integer> calls = new ArrayList<Integer>();
+    BatchRetryCallback<String, String> callback = new BatchRetryCallback<String, String>() {
+      @Override
+      public void doWithRetry(List<String> items, BatchRetryResult<String, String> result) throws Exception {
+        calls.add(items.size());
+        result.succeeded(items.get(0), "done");
+        if (items.size() > 1) {
+          throw new Exception("connection lost");
+        }
+      }
+    };
+    BatchRetryResult<String, String> result = new RetryTemplate(2, 0).executeBatch(Arrays.asList("a", "b", "c"),
+        callback);
+    assertEquals(Arrays.asList(3, 2), calls);
+    assertEquals(2, result.getResults().size());
+    assertEquals("connection lost", result.getFailures().get("c").getMessage());
+  }
+
+  @Test
+  public void batchNonRetryableItemsDropped() throws Exception {
+    final List<List<String>> rounds = new ArrayList<List<String>>();
+    BatchRetryCallback<String, Void> callback = new BatchRetryCallback<String, Void>() {
+      @Override
+      public void doWithRetry(List<String> items, BatchRetryResult<String, Void> result) throws Exception {
+        rounds.add(new ArrayList<String>(items));
+        for (String item : items) {
+          if (item.equals("bad")) {
+            result.failed(item, new IllegalArgumentException(item));
+          } else {
+            result.failed(item, new Exception(item));
+          }
+        }
+      }
+    };
+    RetryTemplate template = new RetryTemplate(3, 0);
+    template.setExceptionClassifier(new ExceptionClassifier().abortOn(IllegalArgumentException.class));
+    BatchRetryResult<String, Void> result = template.executeBatch(Arrays.asList("bad", "flaky"), callback);
+    assertEquals(3, rounds.size());
+    assertEquals(Arrays.asList("flaky"), rounds.get(1));
+    assertEquals(2, result.getFailures().size());
+  }
+
+  @Test
+  public void batchSharesBackoff() throws Exception {
+    final List<Long> sleeps = new ArrayList<Long>();
+    RetryTemplate template = new RetryTemplate(5, 1) {
+      @Override
+      protected void retrySleep(long delayNanos) {
+        sleeps.add(delayNanos);
+      }
+    };
+    template.executeBatch(Arrays.asList(1, 2, 3, 4, 5), new CountdownBatchCallback());
+    // one sleep per round, not per item
+    assertEquals(4, sleeps.size());
+  }
+
+  @Test
+  public void batchEmpty() throws Exception {
+    CountdownBatchCallback callback = new CountdownBatchCallback();
+    BatchRetryResult<Integer, String> result = new RetryTemplate(5, 0).executeBatch(new ArrayList<Integer>(), callback);
+    assertTrue(result.isSuccessful());
+    assertEquals(0, result.getRounds());
+  }
+
+  @Test
+  public void batchZeroAttempts() throws Exception {
+    CountdownBatchCallback callback = new CountdownBatchCallback();
+    BatchRetryResult<Integer, String> result = new RetryTemplate(0, 0).executeBatch(Arrays.asList(1, 2), callback);
+    assertFalse(result.isSuccessful());
+    assertEquals(0, result.getRounds());
+    assertEquals(2, result.getFailures().size());
+    assertTrue(result.getFailures().get(1) instanceof IllegalStateException);
+    assertTrue(result.getResults().isEmpty());
+  }
+
+  @Test
+  public void executeOnRunsOnExecutorThread() throws Exception {
+    final Thread caller = Thread.currentThread();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CompletableFuture<Boolean> future = new RetryTemplate(3, 0).executeOn(new RetryCallback<Boolean>() {
+        private int attempts;
+
+        @Override
+        public Boolean doWithRetry() throws Exception {
+          if (++attempts < 3) {
+            throw new Exception("attempt " + attempts);
+          }
+          return Thread.currentThread() != caller;
+        }
+      }, executor);
+      assertTrue(future.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void executeOnFailure() throws Exception {
+    final Exception failure = new Exception("always");
+    CompletableFuture<Object> future = new RetryTemplate(2, 0).executeOnVirtualThread(new RetryCallback<Object>() {
+      @Override
+      public Object doWithRetry() throws Exception {
+        throw failure;
+      }
+    });
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertSame(failure, e.getCause());
+    }
+  }
+
+  @Test
+  public void executeOnVirtualThread() throws Exception {
+    CompletableFuture<Boolean> future = new RetryTemplate(1, 0).executeOnVirtualThread(new RetryCallback<Boolean>() {
+      @Override
+      public Boolean doWithRetry() throws Exception {
+        return Thread.currentThread().isDaemon();
+      }
+    });
+    // virtual threads are always daemon threads, as is the fallback pool
+    assertTrue(future.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void cancelExecuteOnWakesSleep() throws Exception {
+    final CountDownLatch attempted = new CountDownLatch(1);
+    final CountDownLatch gaveUp = new CountDownLatch(1);
+    RetryTemplate template = new RetryTemplate(3, 60);
+    template.setRetryListener(new RetryListener() {
+      @Override
+      public void onGaveUp(int attempts, Throwable e) {
+        assertEquals(1, attempts);
+        assertTrue(e instanceof CancellationException);
+        gaveUp.countDown();
+      }
+    });
+    CompletableFuture<Object> future = template.executeOnVirtualThread(new RetryCallback<Object>() {
+      @Override
+      public Object doWithRetry() throws Exception {
+        attempted.countDown();
+        throw new Exception("fail");
+      }
+    });
+    assertTrue(attempted.await(5, TimeUnit.SECONDS));
+    assertTrue(future.cancel(true));
+    assertTrue(gaveUp.await(5, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Counts calls to the deprecated sleep hook, as subclasses written before backoff policies do.
+   */
+  public class LegacySleepTemplate extends RetryTemplate {
+    private int sleeps;
+
+    public LegacySleepTemplate(int maxAttempts, int sleepSecs) {
+      super(maxAttempts, sleepSecs);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    protected void retrySleep() {
+      sleeps++;
+    }
+  }
+
+  @Test
+  public void legacySleepHookCalled() {
+    LegacySleepTemplate template = new LegacySleepTemplate(3, 60);
+    try {
+      template.execute(new ExceptionCallback());
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    assertEquals(2, template.sleeps);
+  }
+
+  @Test
+  public void legacySleepHookNotCalledWithBackoffPolicy() {
+    ManualClock clock = new ManualClock();
+    LegacySleepTemplate template = new LegacySleepTemplate(3, 60);
+    template.setClock(clock);
+    template.setBackoffPolicy(BackoffPolicies.fixed(1, TimeUnit.SECONDS));
+    try {
+      template.execute(new ExceptionCallback());
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    assertEquals(0, template.sleeps);
+    assertEquals(2000, clock.currentTimeMillis());
+  }
+
+  @Test
+  public void manualClockSkipsCancellableSleeps() throws Exception {
+    ManualClock clock = new ManualClock();
+    RetryTemplate template = new RetryTemplate(3, BackoffPolicies.fixed(1, TimeUnit.HOURS));
+    template.setClock(clock);
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      template.executeOn(counter, executor).get(5, TimeUnit.SECONDS);
+      fail("did not throw exception");
+    } catch (ExecutionException e) {
+      assertEquals("bla", e.getCause().getMessage());
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(3, counter.count);
+    assertEquals(TimeUnit.HOURS.toMillis(2), clock.currentTimeMillis());
+  }
+
+  @Test
+  public void manualClockSkipsSleeps() {
+    ManualClock clock = new ManualClock();
+    RetryTemplate template = new RetryTemplate(10, BackoffPolicies.exponential(1, 2, TimeUnit.MINUTES));
+    template.setClock(clock);
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    try {
+      template.execute(counter);
+      fail("did not throw exception");
+    } catch (Exception e) {
+    }
+    assertEquals(10, counter.count);
+    // 1 + 2 + 4 + ... + 256 minutes
+    assertEquals(TimeUnit.MINUTES.toMillis(511), clock.currentTimeMillis());
+  }
+
+  @Test
+  public void executeAsyncInVirtualTime() throws Exception {
+    VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+    RetryTemplate template = new RetryTemplate(3, BackoffPolicies.fixed(1, TimeUnit.HOURS));
+    template.setScheduler(scheduler);
+    template.setClock(scheduler.getClock());
+    CountCallback counter = new CountCallback(new ExceptionCallback());
+    CompletableFuture<Void> future = template.executeAsync(counter);
+    scheduler.runDueTasks();
+    assertEquals(1, counter.count);
+    scheduler.advance(59, TimeUnit.MINUTES);
+    assertEquals(1, counter.count);
+    scheduler.advance(1, TimeUnit.MINUTES);
+    assertEquals(2, counter.count);
+    assertFalse(future.isDone());
+    scheduler.advance(1, TimeUnit.HOURS);
+    assertEquals(3, counter.count);
+    assertTrue(future.isCompletedExceptionally());
+  }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+
+public class CachingClockTest {
+
+  private final CachingClock clock = new CachingClock(1, TimeUnit.MILLISECONDS);
+
+  @After
+  public void close() {
+    clock.close();
+  }
+
+  @Test
+  public void currentTimeMillis() {
+    long before = System.currentTimeMillis();
+    long cached = clock.currentTimeMillis();
+    assertTrue(Math.abs(cached - before) < 1000);
+  }
+
+  @Test
+  public void advances() throws Exception {
+    long millis = clock.currentTimeMillis();
+    long nanos = clock.nanoTime();
+    Thread.sleep(50);
+    assertTrue(clock.currentTimeMillis() > millis);
+    assertTrue(clock.nanoTime() > nanos);
+  }
+
+  @Test
+  public void stopsWhenClosed() throws Exception {
+    clock.close();
+    Thread.sleep(20);
+    long millis = clock.currentTimeMillis();
+    Thread.sleep(20);
+    assertEquals(millis, clock.currentTimeMillis());
+  }
+
+  @Test
+  public void datesUseCachedTime() {
+    clock.close();
+    long millis = clock.currentTimeMillis();
+    assertEquals(millis, clock.newDate().getTime());
+    assertEquals(millis, clock.newDateTime().getMillis());
+    assertEquals(millis, clock.getCalendarInstance().getTimeInMillis());
+  }
+
+  /**
+   * Fails on every other reading while failing is set, and closes the caching clock when asked to.
+   */
+  private static class FlakyClock extends Clock {
+    volatile boolean failing;
+    volatile CachingClock closeOnRead;
+    final CountDownLatch closed = new CountDownLatch(1);
+    private final AtomicInteger reads = new AtomicInteger();
+
+    @Override
+    public long currentTimeMillis() {
+      if (failing && reads.incrementAndGet() % 2 == 0) {
+        throw new IllegalStateException("clock failed");
+      }
+      if (closeOnRead != null) {
+        closeOnRead.close();
+        closed.countDown();
+      }
+      return System.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+
+    @Override
+    public Calendar getCalendarInstance() {
+      return Calendar.getInstance();
+    }
+
+    @Override
+    public Date newDate() {
+      return new Date();
+    }
+
+    @Override
+    public DateTime newDateTime() {
+      return new DateTime();
+    }
+  }
+
+  @Test
+  public void survivesFailingSource() throws Exception {
+    FlakyClock source = new FlakyClock();
+    CachingClock caching = new CachingClock(source, 1, TimeUnit.MILLISECONDS);
+    try {
+      source.failing = true;
+      Thread.sleep(20);
+      source.failing = false;
+      long nanos = caching.nanoTime();
+      Thread.sleep(50);
+      assertTrue(caching.nanoTime() > nanos);
+    } finally {
+      caching.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void closedFromTickerThread() throws Exception {
+    FlakyClock source = new FlakyClock();
+    CachingClock caching = new CachingClock(source, 1, TimeUnit.MILLISECONDS);
+    source.closeOnRead = caching;
+    // the ticker would wait forever if it tried to join itself
+    assertTrue(source.closed.await(5, TimeUnit.SECONDS));
+    caching.close();
+    long nanos = caching.nanoTime();
+    Thread.sleep(20);
+    assertEquals(nanos, caching.nanoTime());
+  }
+
+  @Test
+  public void resolution() {
+    assertEquals(1000, clock.getResolution(TimeUnit.MICROSECONDS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroResolution() {
+    new CachingClock(0, TimeUnit.MILLISECONDS);
+  }
+
+}
@@ -15,9 +15,22 @@
  */
 package fm.last.commons.lang.time;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.MutableDateTime;
 import org.junit.Test;
 
 public class ClockTest {
@@ -29,6 +42,14 @@ public class ClockTest {
     assertTrue(clock.currentTimeMillis() != 0);
   }
 
+  @Test
+  public void await() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    assertFalse(clock.await(latch, 1, TimeUnit.MILLISECONDS));
+    latch.countDown();
+    assertTrue(clock.await(latch, 1, TimeUnit.DAYS));
+  }
+
   @Test
   public void nanoTime() {
     assertTrue(clock.nanoTime() != 0);
@@ -48,4 +69,54 @@ public class ClockTest {
   public void newDateTime() {
     assertNotNull(clock.newDateTime());
   }
+
+
+  @Test
+  public void currentEpochDay() {
+    long millis = new DateTime(2013, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+    assertEquals(15706, new ManualClock(millis).currentEpochDay());
+    assertEquals(-1, new ManualClock(-1).currentEpochDay());
+  }
+
+  @Test
+  public void currentEpochDayInZone() {
+    DateTimeZone zone = DateTimeZone.forID("America/New_York");
+    // 2013-01-01T02:00Z is still 2012-12-31 in New York
+    long millis = new DateTime(2013, 1, 1, 2, 0, DateTimeZone.UTC).getMillis();
+    Clock clock = new ManualClock(millis);
+    assertEquals(15706, clock.currentEpochDay(DateTimeZone.UTC));
+    assertEquals(15705, clock.currentEpochDay(zone));
+    assertEquals(new LocalDate(2012, 12, 31), new LocalDate(1970, 1, 1).plusDays((int) clock.currentEpochDay(zone)));
+  }
+
+  @Test
+  public void setToNow() {
+    Clock clock = new ManualClock(1234L);
+    Date date = new Date(0);
+    assertSame(date, clock.setToNow(date));
+    assertEquals(1234L, date.getTime());
+    MutableDateTime dateTime = new MutableDateTime(0);
+    assertSame(dateTime, clock.setToNow(dateTime));
+    assertEquals(1234L, dateTime.getMillis());
+  }
+
+  @Test
+  public void threadLocalCalendar() throws Exception {
+    final Calendar calendar = new ManualClock(1234L).getThreadLocalCalendar();
+    assertEquals(1234L, calendar.getTimeInMillis());
+    Calendar again = new ManualClock(5678L).getThreadLocalCalendar();
+    assertSame(calendar, again);
+    assertEquals(5678L, again.getTimeInMillis());
+
+    final Calendar[] other = new Calendar[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        other[0] = clock.getThreadLocalCalendar();
+      }
+    };
+    thread.start();
+    thread.join();
+    assertNotSame(calendar, other[0]);
+  }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+public class DateRangeSetTest {
+
+  private static DateRange range(String firstDate, String lastDate) {
+    return new DateRange(new LocalDate(firstDate), new LocalDate(lastDate));
+  }
+
+  private final DateRangeSet set = DateRangeSet.of(range("2012-03-01", "2012-03-10"),
+      range("2012-01-01", "2012-01-10"), range("2012-01-05", "2012-01-20"), range("2012-01-21", "2012-01-31"));
+
+  @Test
+  public void coalesces() {
+    assertEquals(Arrays.asList(range("2012-01-01", "2012-01-31"), range("2012-03-01", "2012-03-10")),
+        set.getRanges());
+    assertEquals(2, set.numberOfRanges());
+    assertEquals(41, set.numberOfDays());
+  }
+
+  @Test
+  public void containsDate() {
+    assertTrue(set.contains(new LocalDate("2012-01-01")));
+    assertTrue(set.contains(new LocalDate("2012-01-31")));
+    assertFalse(set.contains(new LocalDate("2012-02-01")));
+    assertTrue(set.contains(new LocalDate("2012-03-05")));
+    assertFalse(set.contains(new LocalDate("2011-12-31")));
+    assertFalse(set.contains(new LocalDate("2012-03-11")));
+  }
+
+  @Test
+  public void containsRange() {
+    assertTrue(set.contains(range("2012-01-09", "2012-01-22")));
+    assertFalse(set.contains(range("2012-01-09", "2012-02-01")));
+    assertFalse(set.contains(range("2012-02-01", "2012-02-02")));
+  }
+
+  @Test
+  public void overlaps() {
+    assertTrue(set.overlaps(range("2012-02-01", "2012-03-01")));
+    assertTrue(set.overlaps(range("2011-01-01", "2013-01-01")));
+    assertFalse(set.overlaps(range("2012-02-01", "2012-02-29")));
+    assertFalse(set.overlaps(range("2011-01-01", "2011-12-31")));
+  }
+
+  @Test
+  public void rangeContaining() {
+    assertEquals(range("2012-01-01", "2012-01-31"), set.getRangeContaining(new LocalDate("2012-01-15")));
+    assertNull(set.getRangeContaining(new LocalDate("2012-02-15")));
+  }
+
+  @Test
+  public void empty() {
+    DateRangeSet empty = DateRangeSet.of(Collections.<DateRange> emptyList());
+    assertTrue(empty.isEmpty());
+    assertFalse(empty.contains(new LocalDate("2012-01-01")));
+    assertFalse(empty.overlaps(range("2012-01-01", "2012-01-01")));
+  }
+
+  @Test
+  public void equality() {
+    DateRangeSet built = DateRangeSet.builder().add(range("2012-03-01", "2012-03-10"))
+        .add(range("2012-01-01", "2012-01-31")).build();
+    assertEquals(set, built);
+    assertEquals(set.hashCode(), built.hashCode());
+  }
+
+  @Test
+  public void agreesWithLinearScan() {
+    Random random = new Random(42);
+    DateRangeSet.Builder builder = DateRangeSet.builder();
+    boolean[] days = new boolean[2000];
+    for (int i = 0; i < 200; i++) {
+      int first = random.nextInt(1990);
+      int last = first + random.nextInt(10);
+      builder.addEpochDays(first, last);
+      Arrays.fill(days, first, last + 1, true);
+    }
+    DateRangeSet built = builder.build();
+    long count = 0;
+    for (int day = 0; day < days.length; day++) {
+      assertEquals(days[day], built.containsEpochDay(day));
+      count += days[day] ? 1 : 0;
+    }
+    assertEquals(count, built.numberOfDays());
+  }
+
+}
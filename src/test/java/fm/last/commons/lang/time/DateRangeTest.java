@@ -2,15 +2,21 @@ package fm.last.commons.lang.time;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+import org.joda.time.Chronology;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
 import org.joda.time.LocalDate;
+import org.joda.time.chrono.BuddhistChronology;
 import org.junit.Test;
 
 public class DateRangeTest {
@@ -26,6 +32,16 @@ public class DateRangeTest {
     assertEquals(new LocalDate(2011, 9, 30), dateRange2.getLastDate());
   }
 
+  @Test
+  public void testOtherChronology() {
+    Chronology buddhist = BuddhistChronology.getInstanceUTC();
+    DateRange dateRange = new DateRange(new LocalDate(2555, 12, 31, buddhist), new LocalDate(2013, 1, 2));
+    assertEquals(new LocalDate(2012, 12, 31), dateRange.getFirstDate());
+    assertEquals(3, dateRange.numberOfDays());
+    assertTrue(dateRange.contains(new LocalDate(2556, 1, 1, buddhist)));
+    assertFalse(dateRange.contains(new LocalDate(2013, 1, 1, buddhist)));
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testFirstNull() {
     new DateRange(null, new LocalDate(2012, 5, 1));
@@ -105,4 +121,142 @@ public class DateRangeTest {
     assertEquals(1, singleDateRange.numberOfDays());
   }
 
+  private static DateRange range(String firstDate, String lastDate) {
+    return new DateRange(new LocalDate(firstDate), new LocalDate(lastDate));
+  }
+
+  @Test
+  public void testEpochDays() {
+    DateRange dateRange = range("1970-01-01", "1970-01-03");
+    assertEquals(0, dateRange.getFirstEpochDay());
+    assertEquals(2, dateRange.getLastEpochDay());
+    assertArrayEquals(new int[] { 0, 1, 2 }, dateRange.epochDays().toArray());
+    assertEquals(dateRange, DateRange.ofEpochDays(0, 2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOfEpochDaysFirstAfterLast() {
+    DateRange.ofEpochDays(2, 1);
+  }
+
+  @Test
+  public void testContains() {
+    DateRange dateRange = range("2012-01-10", "2012-01-20");
+    assertFalse(dateRange.contains(new LocalDate("2012-01-09")));
+    assertTrue(dateRange.contains(new LocalDate("2012-01-10")));
+    assertTrue(dateRange.contains(new LocalDate("2012-01-15")));
+    assertTrue(dateRange.contains(new LocalDate("2012-01-20")));
+    assertFalse(dateRange.contains(new LocalDate("2012-01-21")));
+
+    assertTrue(dateRange.contains(range("2012-01-10", "2012-01-20")));
+    assertTrue(dateRange.contains(range("2012-01-12", "2012-01-13")));
+    assertFalse(dateRange.contains(range("2012-01-09", "2012-01-13")));
+  }
+
+  @Test
+  public void testOverlaps() {
+    DateRange dateRange = range("2012-01-10", "2012-01-20");
+    assertTrue(dateRange.overlaps(range("2012-01-20", "2012-01-25")));
+    assertTrue(dateRange.overlaps(range("2012-01-01", "2012-01-10")));
+    assertTrue(dateRange.overlaps(range("2012-01-01", "2012-01-31")));
+    assertFalse(dateRange.overlaps(range("2012-01-21", "2012-01-25")));
+    assertFalse(dateRange.overlaps(range("2012-01-01", "2012-01-09")));
+  }
+
+  @Test
+  public void testIntersection() {
+    DateRange dateRange = range("2012-01-10", "2012-01-20");
+    assertEquals(range("2012-01-15", "2012-01-20"), dateRange.intersection(range("2012-01-15", "2012-01-25")));
+    assertEquals(range("2012-01-12", "2012-01-13"), dateRange.intersection(range("2012-01-12", "2012-01-13")));
+    assertNull(dateRange.intersection(range("2012-01-21", "2012-01-25")));
+  }
+
+  @Test
+  public void testUnion() {
+    DateRange dateRange = range("2012-01-10", "2012-01-20");
+    assertEquals(range("2012-01-10", "2012-01-25"), dateRange.union(range("2012-01-15", "2012-01-25")));
+    assertEquals(range("2012-01-10", "2012-01-25"), dateRange.union(range("2012-01-21", "2012-01-25")));
+    assertEquals(range("2012-01-01", "2012-01-20"), dateRange.union(range("2012-01-01", "2012-01-09")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnionWithGap() {
+    range("2012-01-10", "2012-01-20").union(range("2012-01-22", "2012-01-25"));
+  }
+
+  @Test
+  public void testGap() {
+    DateRange dateRange = range("2012-01-10", "2012-01-20");
+    assertEquals(range("2012-01-21", "2012-01-21"), dateRange.gap(range("2012-01-22", "2012-01-25")));
+    assertEquals(range("2012-01-05", "2012-01-09"), dateRange.gap(range("2012-01-01", "2012-01-04")));
+    assertNull(dateRange.gap(range("2012-01-21", "2012-01-25")));
+    assertNull(dateRange.gap(range("2012-01-15", "2012-01-25")));
+  }
+
+  @Test
+  public void testSplit() {
+    DateRange dateRange = range("2012-01-01", "2012-01-10");
+    assertEquals(Arrays.asList(range("2012-01-01", "2012-01-04"), range("2012-01-05", "2012-01-07"),
+        range("2012-01-08", "2012-01-10")), dateRange.split(3));
+    assertEquals(Arrays.asList(dateRange), dateRange.split(1));
+    assertEquals(10, dateRange.split(20).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSplitZero() {
+    range("2012-01-01", "2012-01-10").split(0);
+  }
+
+  @Test
+  public void testToString() {
+    assertEquals("2012-01-01/2012-01-10", range("2012-01-01", "2012-01-10").toString());
+  }
+
+  @Test
+  public void testStream() {
+    DateRange dateRange = range("2012-02-27", "2012-03-02");
+    List<LocalDate> expected = Arrays.asList(new LocalDate("2012-02-27"), new LocalDate("2012-02-28"),
+        new LocalDate("2012-02-29"), new LocalDate("2012-03-01"), new LocalDate("2012-03-02"));
+    assertEquals(expected, dateRange.stream().collect(Collectors.toList()));
+    assertEquals(5, dateRange.stream().count());
+  }
+
+  @Test
+  public void testParallelStream() {
+    DateRange dateRange = range("2000-01-01", "2012-12-31");
+    assertTrue(dateRange.parallelStream().isParallel());
+    List<LocalDate> dates = dateRange.parallelStream().collect(Collectors.toList());
+    assertEquals(dateRange.numberOfDays(), dates.size());
+    int i = 0;
+    for (LocalDate date : dateRange) {
+      assertEquals(date, dates.get(i++));
+    }
+  }
+
+  @Test
+  public void testSpliteratorSplitsEvenly() {
+    Spliterator<LocalDate> first = range("2012-01-01", "2012-01-11").spliterator();
+    assertEquals(11, first.getExactSizeIfKnown());
+    assertTrue(first.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED));
+    Spliterator<LocalDate> prefix = first.trySplit();
+    assertEquals(5, prefix.getExactSizeIfKnown());
+    assertEquals(6, first.getExactSizeIfKnown());
+    final List<LocalDate> dates = new ArrayList<LocalDate>();
+    Consumer<LocalDate> collect = new Consumer<LocalDate>() {
+      @Override
+      public void accept(LocalDate date) {
+        dates.add(date);
+      }
+    };
+    assertTrue(prefix.tryAdvance(collect));
+    assertEquals(new LocalDate("2012-01-01"), dates.get(0));
+    prefix.forEachRemaining(collect);
+    assertEquals(new LocalDate("2012-01-05"), dates.get(4));
+    assertFalse(prefix.tryAdvance(collect));
+    assertEquals(0, prefix.estimateSize());
+
+    Spliterator<LocalDate> single = range("2012-01-01", "2012-01-01").spliterator();
+    assertNull(single.trySplit());
+  }
+
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+public class DateRangeTreeTest {
+
+  private static DateRange range(String firstDate, String lastDate) {
+    return new DateRange(new LocalDate(firstDate), new LocalDate(lastDate));
+  }
+
+  private final DateRangeTree<String> tree = DateRangeTree.<String> builder()
+      .add(range("2012-01-01", "2012-12-31"), "year")
+      .add(range("2012-03-01", "2012-03-31"), "march")
+      .add(range("2012-03-15", "2012-04-15"), "spring sale")
+      .add(range("2013-01-01", "2013-01-31"), "next year")
+      .build();
+
+  @Test
+  public void valuesContaining() {
+    assertEquals(Arrays.asList("year", "march", "spring sale"), tree.getValuesContaining(new LocalDate("2012-03-20")));
+    assertEquals(Arrays.asList("year", "spring sale"), tree.getValuesContaining(new LocalDate("2012-04-01")));
+    assertEquals(Arrays.asList("next year"), tree.getValuesContaining(new LocalDate("2013-01-01")));
+    assertTrue(tree.getValuesContaining(new LocalDate("2013-02-01")).isEmpty());
+    assertTrue(tree.getValuesContaining(new LocalDate("2011-12-31")).isEmpty());
+  }
+
+  @Test
+  public void valuesOverlapping() {
+    assertEquals(Arrays.asList("year", "next year"), tree.getValuesOverlapping(range("2012-12-25", "2013-01-05")));
+    assertTrue(tree.getValuesOverlapping(range("2013-02-01", "2013-03-01")).isEmpty());
+  }
+
+  @Test
+  public void ofRanges() {
+    DateRange a = range("2012-01-01", "2012-01-10");
+    DateRange b = range("2012-01-05", "2012-01-20");
+    DateRangeTree<DateRange> rangeTree = DateRangeTree.of(Arrays.asList(b, a));
+    assertEquals(2, rangeTree.size());
+    assertEquals(Arrays.asList(a, b), rangeTree.getValuesContaining(new LocalDate("2012-01-07")));
+  }
+
+  @Test
+  public void empty() {
+    DateRangeTree<DateRange> empty = DateRangeTree.of(Collections.<DateRange> emptyList());
+    assertEquals(0, empty.size());
+    assertTrue(empty.getValuesContainingEpochDay(0).isEmpty());
+    assertFalse(empty.containsEpochDay(0));
+  }
+
+  @Test
+  public void agreesWithLinearScan() {
+    Random random = new Random(42);
+    List<DateRange> ranges = new ArrayList<DateRange>();
+    DateRangeTree.Builder<Integer> builder = DateRangeTree.builder();
+    for (int i = 0; i < 1000; i++) {
+      int first = random.nextInt(5000);
+      DateRange range = DateRange.ofEpochDays(first, first + random.nextInt(random.nextBoolean() ? 10 : 500));
+      ranges.add(range);
+      builder.add(range, i);
+    }
+    DateRangeTree<Integer> built = builder.build();
+    for (int day = -10; day < 5600; day++) {
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int i = 0; i < ranges.size(); i++) {
+        if (ranges.get(i).containsEpochDay(day)) {
+          expected.add(i);
+        }
+      }
+      List<Integer> actual = new ArrayList<Integer>(built.getValuesContainingEpochDay(day));
+      Collections.sort(actual);
+      assertEquals(expected, actual);
+      assertEquals(!expected.isEmpty(), built.containsEpochDay(day));
+    }
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.joda.time.chrono.BuddhistChronology;
+import org.joda.time.chrono.JulianChronology;
+import org.junit.Test;
+
+public class EpochDaysTest {
+
+  private static final LocalDate EPOCH = new LocalDate(1970, 1, 1);
+
+  @Test
+  public void epoch() {
+    assertEquals(0, EpochDays.fromLocalDate(EPOCH));
+    assertEquals(EPOCH, EpochDays.toLocalDate(0));
+  }
+
+  @Test
+  public void knownDates() {
+    assertEquals(15706, EpochDays.fromLocalDate(new LocalDate(2013, 1, 1)));
+    assertEquals(-1, EpochDays.fromLocalDate(new LocalDate(1969, 12, 31)));
+    assertEquals(11016, EpochDays.fromLocalDate(new LocalDate(2000, 2, 29)));
+    assertEquals(new LocalDate(2000, 2, 29), EpochDays.toLocalDate(11016));
+  }
+
+  @Test
+  public void agreesWithJodaTime() {
+    LocalDate date = new LocalDate(1599, 1, 1);
+    int epochDay = Days.daysBetween(EPOCH, date).getDays();
+    LocalDate end = new LocalDate(2401, 1, 1);
+    while (date.isBefore(end)) {
+      assertEquals(date.toString(), epochDay, EpochDays.fromLocalDate(date));
+      assertEquals(date, EpochDays.toLocalDate(epochDay));
+      date = date.plusDays(1);
+      epochDay++;
+    }
+  }
+
+  @Test
+  public void distantDates() {
+    LocalDate[] dates = { new LocalDate(-4000, 3, 1), new LocalDate(1, 1, 1), new LocalDate(0, 2, 29),
+        new LocalDate(100000, 12, 31) };
+    for (LocalDate date : dates) {
+      int epochDay = Days.daysBetween(EPOCH, date).getDays();
+      assertEquals(epochDay, EpochDays.fromLocalDate(date));
+      assertEquals(date, EpochDays.toLocalDate(epochDay));
+    }
+  }
+
+  @Test
+  public void otherChronologies() {
+    assertEquals(15706, EpochDays.fromLocalDate(new LocalDate(2556, 1, 1, BuddhistChronology.getInstanceUTC())));
+    // the day after the Julian 1582-10-04 was the Gregorian 1582-10-15
+    assertEquals(EpochDays.fromFields(1582, 10, 14),
+        EpochDays.fromLocalDate(new LocalDate(1582, 10, 4, JulianChronology.getInstanceUTC())));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void outOfRange() {
+    EpochDays.fromFields(Integer.MAX_VALUE, 1, 1);
+  }
+
+  @Test
+  public void lengthOfMonth() {
+    assertEquals(31, EpochDays.lengthOfMonth(2013, 1));
+    assertEquals(28, EpochDays.lengthOfMonth(1900, 2));
+    assertEquals(29, EpochDays.lengthOfMonth(2000, 2));
+    assertEquals(29, EpochDays.lengthOfMonth(-4, 2));
+    assertEquals(30, EpochDays.lengthOfMonth(2013, 11));
+    assertEquals(0, EpochDays.lengthOfMonth(2013, 13));
+  }
+
+}
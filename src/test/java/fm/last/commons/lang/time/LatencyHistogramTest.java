@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void bucketsCoverEveryValue() {
+    long previousHighest = -1;
+    for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+      long lowest = LatencyHistogram.lowestEquivalentValue(i);
+      long highest = LatencyHistogram.highestEquivalentValue(i);
+      assertEquals(previousHighest + 1, lowest);
+      assertEquals(i, LatencyHistogram.indexOf(lowest));
+      assertEquals(i, LatencyHistogram.indexOf(highest));
+      previousHighest = highest;
+    }
+    assertEquals(Long.MAX_VALUE, previousHighest);
+  }
+
+  @Test
+  public void relativeError() {
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      long value = random.nextLong() >>> (1 + random.nextInt(63));
+      int index = LatencyHistogram.indexOf(value);
+      long width = LatencyHistogram.highestEquivalentValue(index) - LatencyHistogram.lowestEquivalentValue(index);
+      assertTrue(width <= value / 16);
+    }
+  }
+
+  @Test
+  public void empty() {
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentileNanos(99));
+    assertEquals(0, histogram.getMinNanos());
+    assertEquals(0, histogram.getMaxNanos());
+    assertEquals(0, histogram.getMeanNanos(), 0);
+  }
+
+  @Test
+  public void exactSmallValues() {
+    for (int i = 1; i <= 20; i++) {
+      histogram.recordNanos(i);
+    }
+    assertEquals(20, histogram.getCount());
+    assertEquals(10, histogram.getPercentileNanos(50));
+    assertEquals(19, histogram.getPercentileNanos(95));
+    assertEquals(20, histogram.getPercentileNanos(100));
+    assertEquals(1, histogram.getPercentileNanos(0));
+    assertEquals(1, histogram.getMinNanos());
+    assertEquals(20, histogram.getMaxNanos());
+    assertEquals(10.5, histogram.getMeanNanos(), 0);
+  }
+
+  @Test
+  public void percentiles() {
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i, TimeUnit.MICROSECONDS);
+    }
+    assertWithinThreePercent(TimeUnit.MICROSECONDS.toNanos(500), histogram.getPercentileNanos(50));
+    assertWithinThreePercent(TimeUnit.MICROSECONDS.toNanos(990), histogram.getPercentileNanos(99));
+    assertWithinThreePercent(TimeUnit.MICROSECONDS.toNanos(999), histogram.getPercentileNanos(99.9));
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getPercentileNanos(100));
+    assertWithinThreePercent(TimeUnit.MICROSECONDS.toNanos(500), (long) histogram.getMeanNanos());
+  }
+
+  private static void assertWithinThreePercent(long expected, long actual) {
+    assertTrue("expected " + expected + " but was " + actual, Math.abs(actual - expected) <= expected * 0.03);
+  }
+
+  @Test
+  public void negativeRecordedAsZero() {
+    histogram.recordNanos(-5);
+    assertEquals(1, histogram.getCount());
+    assertEquals(0, histogram.getMaxNanos());
+  }
+
+  @Test
+  public void add() {
+    LatencyHistogram other = new LatencyHistogram();
+    histogram.recordNanos(10);
+    other.recordNanos(1000);
+    other.recordNanos(1000);
+    histogram.add(other);
+    assertEquals(3, histogram.getCount());
+    assertEquals(10, histogram.getMinNanos());
+    assertEquals(1000, histogram.getMaxNanos());
+    assertEquals(2, other.getCount());
+  }
+
+  @Test
+  public void copyIsIndependent() {
+    histogram.recordNanos(10);
+    LatencyHistogram copy = histogram.copy();
+    histogram.recordNanos(20);
+    assertEquals(1, copy.getCount());
+    assertEquals(10, copy.getMaxNanos());
+  }
+
+  @Test
+  public void reset() {
+    histogram.recordNanos(10);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMaxNanos());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void percentileOutOfRange() {
+    histogram.getPercentileNanos(101);
+  }
+
+  @Test
+  public void concurrentRecording() throws Exception {
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            histogram.recordNanos(i);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(40000, histogram.getCount());
+    assertEquals(9999, histogram.getMaxNanos());
+  }
+
+}
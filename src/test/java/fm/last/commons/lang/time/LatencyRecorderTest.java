@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyRecorderTest {
+
+  private final ManualClock clock = new ManualClock();
+  private final LatencyRecorder recorder = new LatencyRecorder(clock);
+
+  @Test
+  public void recordSince() {
+    long start = recorder.startNanos();
+    clock.advance(5, TimeUnit.MILLISECONDS);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5), recorder.recordSince(start));
+    LatencyHistogram snapshot = recorder.snapshot();
+    assertEquals(1, snapshot.getCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5), snapshot.getMaxNanos());
+  }
+
+  @Test
+  public void snapshotMergesThreads() throws Exception {
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final long value = t * 1000;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            recorder.recordNanos(value);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    LatencyHistogram snapshot = recorder.snapshot();
+    assertEquals(8000, snapshot.getCount());
+    assertEquals(0, snapshot.getMinNanos());
+    assertEquals(7000, snapshot.getMaxNanos());
+  }
+
+  @Test
+  public void snapshotIsIndependent() {
+    recorder.recordNanos(10);
+    LatencyHistogram snapshot = recorder.snapshot();
+    recorder.recordNanos(10);
+    assertEquals(1, snapshot.getCount());
+    assertEquals(2, recorder.snapshot().getCount());
+  }
+
+  @Test
+  public void reset() {
+    recorder.recordNanos(10);
+    recorder.reset();
+    assertEquals(0, recorder.snapshot().getCount());
+  }
+
+}
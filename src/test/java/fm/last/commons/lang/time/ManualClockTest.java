@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ManualClockTest {
+
+  private final ManualClock clock = new ManualClock(1000L);
+
+  @Test
+  public void startTime() {
+    assertEquals(1000L, clock.currentTimeMillis());
+    assertEquals(TimeUnit.SECONDS.toNanos(1), clock.nanoTime());
+    assertEquals(1000L, clock.newDate().getTime());
+    assertEquals(1000L, clock.newDateTime().getMillis());
+    assertEquals(1000L, clock.getCalendarInstance().getTimeInMillis());
+  }
+
+  @Test
+  public void advance() {
+    clock.advance(2, TimeUnit.HOURS);
+    assertEquals(1000L + TimeUnit.HOURS.toMillis(2), clock.currentTimeMillis());
+    clock.advance(999, TimeUnit.MICROSECONDS);
+    assertEquals(1000L + TimeUnit.HOURS.toMillis(2), clock.currentTimeMillis());
+    assertEquals(TimeUnit.SECONDS.toNanos(1) + TimeUnit.HOURS.toNanos(2) + 999000, clock.nanoTime());
+  }
+
+  @Test
+  public void beforeEpoch() {
+    assertEquals(-1L, new ManualClock(-1L).currentTimeMillis());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void advanceBackwards() {
+    clock.advance(-1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void sleepAdvances() throws Exception {
+    long start = System.nanoTime();
+    clock.sleep(1, TimeUnit.DAYS);
+    assertEquals(1000L + TimeUnit.DAYS.toMillis(1), clock.currentTimeMillis());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Test
+  public void sleepInterrupted() {
+    Thread.currentThread().interrupt();
+    try {
+      clock.sleep(1, TimeUnit.SECONDS);
+      fail("Expected InterruptedException");
+    } catch (InterruptedException e) {
+      assertFalse(Thread.currentThread().isInterrupted());
+    }
+    assertEquals(1000L, clock.currentTimeMillis());
+  }
+
+  @Test
+  public void awaitAdvances() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    assertFalse(clock.await(latch, 1, TimeUnit.DAYS));
+    assertEquals(1000L + TimeUnit.DAYS.toMillis(1), clock.currentTimeMillis());
+    latch.countDown();
+    assertTrue(clock.await(latch, 1, TimeUnit.DAYS));
+    assertEquals(1000L + TimeUnit.DAYS.toMillis(1), clock.currentTimeMillis());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void oneSchedulerPerClock() {
+    new VirtualTimeScheduler(clock);
+    new VirtualTimeScheduler(clock);
+  }
+
+}
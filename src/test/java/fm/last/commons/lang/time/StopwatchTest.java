@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class StopwatchTest {
+
+  private final ManualClock clock = new ManualClock();
+  private final Stopwatch stopwatch = Stopwatch.start(clock);
+
+  @Test
+  public void elapsed() {
+    clock.advance(1500, TimeUnit.MILLISECONDS);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1500), stopwatch.elapsedNanos());
+    assertEquals(1, stopwatch.elapsed(TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void restart() {
+    clock.advance(2, TimeUnit.SECONDS);
+    assertEquals(TimeUnit.SECONDS.toNanos(2), stopwatch.restart());
+    clock.advance(1, TimeUnit.SECONDS);
+    assertEquals(1, stopwatch.elapsed(TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void recordTo() {
+    LatencyRecorder recorder = new LatencyRecorder(clock);
+    clock.advance(3, TimeUnit.MILLISECONDS);
+    stopwatch.recordTo(recorder);
+    clock.advance(1, TimeUnit.MILLISECONDS);
+    stopwatch.recordTo(recorder);
+    LatencyHistogram snapshot = recorder.snapshot();
+    assertEquals(2, snapshot.getCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1), snapshot.getMinNanos());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(3), snapshot.getMaxNanos());
+  }
+
+  @Test
+  public void systemClock() {
+    assertTrue(Stopwatch.start().elapsedNanos() >= 0);
+  }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fm.last.commons.lang.time.TimingWheel.Timeout;
+
+public class TimingWheelTest {
+
+  private final ManualClock clock = new ManualClock();
+  private final TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, clock);
+  private final List<String> runs = new ArrayList<String>();
+
+  private class Record implements Runnable {
+    private final String name;
+
+    Record(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void run() {
+      runs.add(name + "@" + clock.currentTimeMillis());
+    }
+  }
+
+  @Test
+  public void runsWhenDue() {
+    wheel.schedule(new Record("a"), 5, TimeUnit.MILLISECONDS);
+    clock.advance(4, TimeUnit.MILLISECONDS);
+    assertEquals(0, wheel.advance());
+    clock.advance(1, TimeUnit.MILLISECONDS);
+    assertEquals(1, wheel.advance());
+    assertEquals(Arrays.asList("a@5"), runs);
+    assertEquals(0, wheel.getPendingCount());
+  }
+
+  @Test
+  public void neverEarly() {
+    wheel.schedule(new Record("a"), 1500, TimeUnit.MICROSECONDS);
+    clock.advance(1, TimeUnit.MILLISECONDS);
+    assertEquals(0, wheel.advance());
+    clock.advance(1, TimeUnit.MILLISECONDS);
+    assertEquals(1, wheel.advance());
+  }
+
+  @Test
+  public void zeroDelayRunsOnNextAdvance() {
+    Timeout timeout = wheel.schedule(new Record("a"), 0, TimeUnit.MILLISECONDS);
+    assertEquals(1, wheel.advance());
+    assertTrue(timeout.isExpired());
+  }
+
+  @Test
+  public void batch() {
+    for (int i = 0; i < 100; i++) {
+      wheel.schedule(new Record("t" + i), 3, TimeUnit.MILLISECONDS);
+    }
+    clock.advance(10, TimeUnit.MILLISECONDS);
+    assertEquals(100, wheel.advance());
+    assertEquals(100, runs.size());
+  }
+
+  @Test
+  public void cascadesFromHigherWheels() {
+    wheel.schedule(new Record("minutes"), 10, TimeUnit.MINUTES);
+    wheel.schedule(new Record("days"), 3, TimeUnit.DAYS);
+    wheel.schedule(new Record("ms"), 20, TimeUnit.MILLISECONDS);
+    for (int i = 0; i < 3 * 24 * 60; i++) {
+      clock.advance(1, TimeUnit.MINUTES);
+      wheel.advance();
+    }
+    assertEquals(Arrays.asList("ms@60000", "minutes@600000", "days@" + TimeUnit.DAYS.toMillis(3)), runs);
+  }
+
+  @Test
+  public void runsAtExactTickAcrossLevels() {
+    Random random = new Random(42);
+    final List<Long> lateness = new ArrayList<Long>();
+    for (int i = 0; i < 2000; i++) {
+      final long delay = random.nextInt(100000);
+      wheel.schedule(new Runnable() {
+        @Override
+        public void run() {
+          lateness.add(clock.currentTimeMillis() - delay);
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    for (int i = 0; i <= 100000; i++) {
+      wheel.advance();
+      clock.advance(1, TimeUnit.MILLISECONDS);
+    }
+    assertEquals(2000, lateness.size());
+    for (long late : lateness) {
+      assertEquals(0L, late);
+    }
+  }
+
+  @Test
+  public void cancel() {
+    Timeout timeout = wheel.schedule(new Record("a"), 5, TimeUnit.MILLISECONDS);
+    Timeout far = wheel.schedule(new Record("b"), 5, TimeUnit.HOURS);
+    assertEquals(2, wheel.getPendingCount());
+    assertTrue(timeout.cancel());
+    assertTrue(far.cancel());
+    assertTrue(timeout.isCancelled());
+    assertFalse(timeout.cancel());
+    assertEquals(0, wheel.getPendingCount());
+    clock.advance(6, TimeUnit.HOURS);
+    assertEquals(0, wheel.advance());
+    assertTrue(runs.isEmpty());
+  }
+
+  @Test
+  public void cancelAfterExpiry() {
+    Timeout timeout = wheel.schedule(new Record("a"), 1, TimeUnit.MILLISECONDS);
+    clock.advance(1, TimeUnit.MILLISECONDS);
+    wheel.advance();
+    assertFalse(timeout.cancel());
+    assertFalse(timeout.isCancelled());
+  }
+
+  @Test
+  public void idleAdvanceIsCheap() {
+    wheel.schedule(new Record("a"), 365, TimeUnit.DAYS);
+    clock.advance(364, TimeUnit.DAYS);
+    long start = System.nanoTime();
+    assertEquals(0, wheel.advance());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    clock.advance(1, TimeUnit.DAYS);
+    assertEquals(1, wheel.advance());
+  }
+
+  @Test
+  public void failingTaskDoesNotStopOthers() {
+    wheel.schedule(new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("fail");
+      }
+    }, 1, TimeUnit.MILLISECONDS);
+    wheel.schedule(new Record("b"), 1, TimeUnit.MILLISECONDS);
+    clock.advance(1, TimeUnit.MILLISECONDS);
+    assertEquals(2, wheel.advance());
+    assertEquals(Arrays.asList("b@1"), runs);
+  }
+
+  @Test
+  public void errorLeavesRemainingTasksDue() {
+    wheel.schedule(new Runnable() {
+      @Override
+      public void run() {
+        throw new AssertionError("fail");
+      }
+    }, 1, TimeUnit.MILLISECONDS);
+    wheel.schedule(new Record("b"), 1, TimeUnit.MILLISECONDS);
+    clock.advance(1, TimeUnit.MILLISECONDS);
+    try {
+      wheel.advance();
+      fail();
+    } catch (AssertionError e) {
+      assertEquals("fail", e.getMessage());
+    }
+    assertEquals(1, wheel.getPendingCount());
+    assertEquals(1, wheel.advance());
+    assertEquals(Arrays.asList("b@1"), runs);
+    assertEquals(0, wheel.getPendingCount());
+  }
+
+  @Test
+  public void hugeDelayNeverRuns() {
+    clock.advance(1, TimeUnit.SECONDS);
+    Timeout timeout = wheel.schedule(new Record("a"), Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    clock.advance(1, TimeUnit.DAYS);
+    assertEquals(0, wheel.advance());
+    assertFalse(timeout.isExpired());
+    assertTrue(timeout.getDelay(TimeUnit.DAYS) > 0);
+    assertTrue(timeout.cancel());
+    assertEquals(0, wheel.getPendingCount());
+  }
+
+  @Test
+  public void taskCanReschedule() {
+    wheel.schedule(new Runnable() {
+      @Override
+      public void run() {
+        wheel.schedule(new Record("again"), 2, TimeUnit.MILLISECONDS);
+      }
+    }, 1, TimeUnit.MILLISECONDS);
+    clock.advance(1, TimeUnit.MILLISECONDS);
+    wheel.advance();
+    clock.advance(2, TimeUnit.MILLISECONDS);
+    wheel.advance();
+    assertEquals(Arrays.asList("again@3"), runs);
+  }
+
+  @Test
+  public void getDelay() {
+    Timeout timeout = wheel.schedule(new Record("a"), 5, TimeUnit.SECONDS);
+    clock.advance(2, TimeUnit.SECONDS);
+    assertEquals(3, timeout.getDelay(TimeUnit.SECONDS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void wheelSizeNotPowerOfTwo() {
+    new TimingWheel(1, TimeUnit.MILLISECONDS, 10, clock);
+  }
+
+}
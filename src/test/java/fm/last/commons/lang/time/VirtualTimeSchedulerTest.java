@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class VirtualTimeSchedulerTest {
+
+  private final VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+  private final ManualClock clock = scheduler.getClock();
+  private final List<String> runs = new ArrayList<String>();
+
+  private class Record implements Runnable {
+    private final String name;
+
+    Record(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void run() {
+      runs.add(name + "@" + clock.currentTimeMillis());
+    }
+  }
+
+  @Test
+  public void nothingRunsUntilAdvanced() {
+    scheduler.execute(new Record("a"));
+    scheduler.schedule(new Record("b"), 1, TimeUnit.SECONDS);
+    assertTrue(runs.isEmpty());
+    assertEquals(2, scheduler.getPendingTaskCount());
+    scheduler.runDueTasks();
+    assertEquals(Arrays.asList("a@0"), runs);
+    assertEquals(1, scheduler.getPendingTaskCount());
+  }
+
+  @Test
+  public void runsInOrderAtDueTime() {
+    scheduler.schedule(new Record("c"), 3, TimeUnit.SECONDS);
+    scheduler.schedule(new Record("a"), 1, TimeUnit.SECONDS);
+    scheduler.schedule(new Record("b"), 2, TimeUnit.SECONDS);
+    scheduler.schedule(new Record("b2"), 2, TimeUnit.SECONDS);
+    scheduler.advance(1, TimeUnit.HOURS);
+    assertEquals(Arrays.asList("a@1000", "b@2000", "b2@2000", "c@3000"), runs);
+    assertEquals(TimeUnit.HOURS.toMillis(1), clock.currentTimeMillis());
+  }
+
+  @Test
+  public void tasksScheduledByTasksRun() {
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        scheduler.schedule(new Record("nested"), 1, TimeUnit.SECONDS);
+      }
+    }, 1, TimeUnit.SECONDS);
+    scheduler.advance(2, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("nested@2000"), runs);
+  }
+
+  @Test
+  public void callable() throws Exception {
+    ScheduledFuture<String> future = scheduler.schedule(new Callable<String>() {
+      @Override
+      public String call() {
+        return "done";
+      }
+    }, 10, TimeUnit.MINUTES);
+    assertEquals(10, future.getDelay(TimeUnit.MINUTES));
+    assertFalse(future.isDone());
+    scheduler.advance(10, TimeUnit.MINUTES);
+    assertEquals("done", future.get());
+  }
+
+  @Test
+  public void submitFailure() throws Exception {
+    Future<Object> future = scheduler.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        throw new Exception("failed");
+      }
+    });
+    scheduler.runDueTasks();
+    try {
+      future.get();
+      fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertEquals("failed", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void fixedRate() {
+    scheduler.scheduleAtFixedRate(new Record("r"), 1, 2, TimeUnit.SECONDS);
+    scheduler.advance(6, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("r@1000", "r@3000", "r@5000"), runs);
+  }
+
+  @Test
+  public void fixedDelay() {
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        runs.add("d@" + clock.currentTimeMillis());
+        clock.advance(500, TimeUnit.MILLISECONDS);
+      }
+    }, 0, 1, TimeUnit.SECONDS);
+    scheduler.advance(4, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("d@0", "d@1500", "d@3000"), runs);
+  }
+
+  @Test(timeout = 10000)
+  public void hugeDelaysDoNotWrap() {
+    VirtualTimeScheduler scheduler = new VirtualTimeScheduler(new ManualClock(1700000000000L));
+    final List<String> runs = new ArrayList<String>();
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        runs.add("once");
+      }
+    }, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    scheduler.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        runs.add("rate");
+      }
+    }, 0, Long.MAX_VALUE, TimeUnit.DAYS);
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        runs.add("delay");
+      }
+    }, 0, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    scheduler.advance(1, TimeUnit.DAYS);
+    assertEquals(Arrays.asList("rate", "delay"), runs);
+    assertEquals(3, scheduler.getPendingTaskCount());
+  }
+
+  @Test
+  public void cancel() {
+    ScheduledFuture<?> future = scheduler.schedule(new Record("a"), 1, TimeUnit.SECONDS);
+    assertTrue(future.cancel(false));
+    assertEquals(0, scheduler.getPendingTaskCount());
+    scheduler.advance(1, TimeUnit.SECONDS);
+    assertTrue(runs.isEmpty());
+  }
+
+  @Test
+  public void shutdown() {
+    scheduler.schedule(new Record("delayed"), 1, TimeUnit.SECONDS);
+    scheduler.scheduleAtFixedRate(new Record("periodic"), 1, 1, TimeUnit.SECONDS);
+    scheduler.shutdown();
+    assertTrue(scheduler.isShutdown());
+    assertFalse(scheduler.isTerminated());
+    scheduler.advance(5, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("delayed@1000"), runs);
+    assertTrue(scheduler.isTerminated());
+  }
+
+  @Test
+  public void shutdownNow() {
+    scheduler.schedule(new Record("a"), 1, TimeUnit.SECONDS);
+    assertEquals(1, scheduler.shutdownNow().size());
+    assertTrue(scheduler.isTerminated());
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void rejectsAfterShutdown() {
+    scheduler.shutdown();
+    scheduler.execute(new Record("a"));
+  }
+
+}
@@ -15,14 +15,26 @@
  */
 package fm.last.commons.lang.time;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
 import org.joda.time.LocalTime;
+import org.joda.time.chrono.BuddhistChronology;
 import org.junit.Test;
 
 public class XmlGregorianCalendarUtilsTest {
@@ -134,4 +146,152 @@ public class XmlGregorianCalendarUtilsTest {
     assertEquals(101, dateTime.getMillisOfSecond());
   }
 
+  @Test
+  public void convertToDateTimeHonoursTimezone() throws DatatypeConfigurationException {
+    XMLGregorianCalendar calendar = DatatypeFactory.newInstance().newXMLGregorianCalendar(
+        "2013-03-29T15:33:11.101-05:30");
+    DateTime dateTime = XmlGregorianCalendarUtils.convertToDateTime(calendar);
+    assertEquals(new DateTime(2013, 3, 29, 21, 3, 11, 101, DateTimeZone.UTC).getMillis(), dateTime.getMillis());
+    assertEquals(DateTimeZone.forOffsetMillis(-(5 * 60 + 30) * 60 * 1000), dateTime.getZone());
+    assertEquals(15, dateTime.getHourOfDay());
+    assertEquals(calendar.toGregorianCalendar().getTimeInMillis(), dateTime.getMillis());
+  }
+
+  @Test
+  public void convertToEpochMillis() throws DatatypeConfigurationException {
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    String[] values = { "1970-01-01T00:00:00Z", "2013-03-29T15:33:11.101+01:00", "1969-12-31T23:59:59.999Z",
+        "2000-02-29T12:00:00-14:00", "1600-01-01T00:00:00+14:00" };
+    for (String value : values) {
+      XMLGregorianCalendar calendar = factory.newXMLGregorianCalendar(value);
+      assertEquals(value, new DateTime(value).getMillis(), XmlGregorianCalendarUtils.convertToEpochMillis(calendar));
+    }
+  }
+
+  @Test
+  public void convertToEpochMillisWithoutTimezone() throws DatatypeConfigurationException {
+    XMLGregorianCalendar calendar = DatatypeFactory.newInstance().newXMLGregorianCalendar("2013-03-29T15:33:11.101");
+    assertEquals(new LocalDateTime(2013, 3, 29, 15, 33, 11, 101).toDateTime().getMillis(),
+        XmlGregorianCalendarUtils.convertToEpochMillis(calendar));
+  }
+
+  @Test
+  public void convertWithoutDateRejected() throws DatatypeConfigurationException {
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    String[] values = { "12:30:00Z", "2013", "2013-05", "--05-01" };
+    for (String value : values) {
+      XMLGregorianCalendar calendar = factory.newXMLGregorianCalendar(value);
+      try {
+        XmlGregorianCalendarUtils.convertToEpochMillis(calendar);
+        fail(value);
+      } catch (IllegalArgumentException e) {
+        assertEquals("Calendar has no complete date: " + value, e.getMessage());
+      }
+      try {
+        XmlGregorianCalendarUtils.convertToDateTime(calendar);
+        fail(value);
+      } catch (IllegalArgumentException e) {
+        assertEquals("Calendar has no complete date: " + value, e.getMessage());
+      }
+      try {
+        XmlGregorianCalendarUtils.convertToEpochDays(new XMLGregorianCalendar[] { calendar }, new int[1], null);
+        fail(value);
+      } catch (IllegalArgumentException e) {
+        assertEquals("Calendar has no complete date: " + value, e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void offsetZonesAreShared() {
+    assertSame(XmlGregorianCalendarUtils.getOffsetZone(90), XmlGregorianCalendarUtils.getOffsetZone(90));
+    assertSame(DateTimeZone.UTC, XmlGregorianCalendarUtils.getOffsetZone(0));
+    assertEquals(DateTimeZone.forOffsetHoursMinutes(1, 30), XmlGregorianCalendarUtils.getOffsetZone(90));
+  }
+
+  @Test
+  public void convertDateTimeToXmlGregorianCalendar() {
+    DateTime dateTime = new DateTime(2013, 7, 1, 15, 33, 11, 101, DateTimeZone.forID("Europe/London"));
+    XMLGregorianCalendar calendar = XmlGregorianCalendarUtils.convertToXmlGregorianCalendar(dateTime);
+    assertEquals("2013-07-01T15:33:11.101+01:00", calendar.toXMLFormat());
+    assertEquals(dateTime.getMillis(), XmlGregorianCalendarUtils.convertToEpochMillis(calendar));
+    assertEquals(null, XmlGregorianCalendarUtils.convertToXmlGregorianCalendar((DateTime) null));
+  }
+
+  @Test
+  public void convertOtherChronologyToXmlGregorianCalendar() {
+    DateTime dateTime = new DateTime(2556, 7, 1, 15, 33, 11, 101, BuddhistChronology.getInstance(DateTimeZone
+        .forOffsetHours(2)));
+    XMLGregorianCalendar calendar = XmlGregorianCalendarUtils.convertToXmlGregorianCalendar(dateTime);
+    assertEquals("2013-07-01T15:33:11.101+02:00", calendar.toXMLFormat());
+    assertEquals(dateTime.getMillis(), XmlGregorianCalendarUtils.convertToEpochMillis(calendar));
+  }
+
+  @Test
+  public void convertSubMinuteOffsetToXmlGregorianCalendar() {
+    // London kept local mean time, 1 minute 15 seconds behind Greenwich, until 1847
+    DateTime dateTime = new DateTime(1800, 1, 1, 12, 0, 0, 0, DateTimeZone.forID("Europe/London"));
+    XMLGregorianCalendar calendar = XmlGregorianCalendarUtils.convertToXmlGregorianCalendar(dateTime);
+    assertEquals("1800-01-01T12:01:15.000Z", calendar.toXMLFormat());
+    assertEquals(dateTime.getMillis(), XmlGregorianCalendarUtils.convertToEpochMillis(calendar));
+  }
+
+  @Test
+  public void convertLocalDateTimeToXmlGregorianCalendar() {
+    XMLGregorianCalendar calendar = XmlGregorianCalendarUtils.convertToXmlGregorianCalendar(new LocalDateTime(2013, 1,
+        2, 3, 4, 5, 6));
+    assertEquals("2013-01-02T03:04:05.006", calendar.toXMLFormat());
+    assertEquals(DatatypeConstants.FIELD_UNDEFINED, calendar.getTimezone());
+  }
+
+  @Test
+  public void convertOffsetDateTimeToXmlGregorianCalendar() {
+    OffsetDateTime dateTime = OffsetDateTime.of(2013, 1, 2, 3, 4, 5, 6789000, ZoneOffset.ofHours(-8));
+    XMLGregorianCalendar calendar = XmlGregorianCalendarUtils.convertToXmlGregorianCalendar(dateTime);
+    assertEquals("2013-01-02T03:04:05.006-08:00", calendar.toXMLFormat());
+    assertEquals(dateTime.toInstant().toEpochMilli(), XmlGregorianCalendarUtils.convertToEpochMillis(calendar));
+  }
+
+  @Test
+  public void convertColumnToEpochMillis() throws DatatypeConfigurationException {
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    XMLGregorianCalendar[] calendars = { factory.newXMLGregorianCalendar("2013-03-29T15:33:11.101Z"), null,
+        factory.newXMLGregorianCalendar("1970-01-01T01:00:00+01:00") };
+    long[] epochMillis = new long[4];
+    boolean[] nulls = new boolean[4];
+    assertEquals(2, XmlGregorianCalendarUtils.convertToEpochMillis(calendars, epochMillis, nulls));
+    assertArrayEquals(new long[] { new DateTime("2013-03-29T15:33:11.101Z").getMillis(), 0, 0, 0 }, epochMillis);
+    assertEquals(Arrays.toString(new boolean[] { false, true, false, false }), Arrays.toString(nulls));
+  }
+
+  @Test
+  public void convertColumnToEpochDays() throws DatatypeConfigurationException {
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    List<XMLGregorianCalendar> calendars = Arrays.asList(factory.newXMLGregorianCalendar("1970-01-02"),
+        factory.newXMLGregorianCalendar("2013-01-01T23:00:00-05:00"), null);
+    int[] epochDays = new int[3];
+    boolean[] nulls = new boolean[3];
+    assertEquals(2, XmlGregorianCalendarUtils.convertToEpochDays(calendars, epochDays, nulls));
+    assertArrayEquals(new int[] { 1, 15706, 0 }, epochDays);
+    assertEquals(Arrays.toString(new boolean[] { false, false, true }), Arrays.toString(nulls));
+  }
+
+  @Test
+  public void convertColumnWithoutNullMask() throws DatatypeConfigurationException {
+    XMLGregorianCalendar[] calendars = { DatatypeFactory.newInstance().newXMLGregorianCalendar("1970-01-01Z") };
+    int[] epochDays = new int[1];
+    assertEquals(1, XmlGregorianCalendarUtils.convertToEpochDays(calendars, epochDays, null));
+    assertArrayEquals(new int[] { 0 }, epochDays);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void convertColumnWithNullAndNoNullMask() {
+    XmlGregorianCalendarUtils.convertToEpochMillis(new XMLGregorianCalendar[1], new long[1], null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void convertColumnTooShort() {
+    XmlGregorianCalendarUtils.convertToEpochMillis(new XMLGregorianCalendar[2], new long[1], new boolean[2]);
+  }
+
 }
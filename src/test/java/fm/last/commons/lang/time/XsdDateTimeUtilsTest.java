@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.lang.time;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XsdDateTimeUtilsTest {
+
+  private static final DateTimeZone LONDON = DateTimeZone.forID("Europe/London");
+
+  private DateTimeZone defaultZone;
+
+  @Before
+  public void setDefaultZone() {
+    defaultZone = DateTimeZone.getDefault();
+    DateTimeZone.setDefault(LONDON);
+  }
+
+  @After
+  public void restoreDefaultZone() {
+    DateTimeZone.setDefault(defaultZone);
+  }
+
+  @Test
+  public void parseDateTime() {
+    DateTime expected = new DateTime(2013, 1, 31, 12, 30, 15, 250, DateTimeZone.forOffsetHours(1));
+    assertEquals(expected.getMillis(), XsdDateTimeUtils.parseDateTime("2013-01-31T12:30:15.25+01:00"));
+    assertEquals(expected.getMillis(), XsdDateTimeUtils.parseDateTime("2013-01-31T11:30:15.250Z"));
+    assertEquals(expected.getMillis(), XsdDateTimeUtils.parseDateTime("2013-01-31T06:00:15.2509-05:30"));
+  }
+
+  @Test
+  public void parseDateTimeWithoutZoneUsesDefaultZone() {
+    assertEquals(new DateTime(2013, 7, 1, 12, 0, 0, 0, LONDON).getMillis(),
+        XsdDateTimeUtils.parseDateTime("2013-07-01T12:00:00"));
+  }
+
+  @Test
+  public void parseEndOfDay() {
+    assertEquals(new DateTime(2013, 3, 1, 0, 0, 0, 0, DateTimeZone.UTC).getMillis(),
+        XsdDateTimeUtils.parseDateTime("2013-02-28T24:00:00Z"));
+    assertEquals(0, XsdDateTimeUtils.parseTime("24:00:00.000"));
+  }
+
+  @Test
+  public void parseDistantYears() {
+    assertEquals(new DateTime(-44, 3, 15, 0, 0, 0, 0, DateTimeZone.UTC).getMillis(),
+        XsdDateTimeUtils.parseDateTime("-0044-03-15T00:00:00Z"));
+    assertEquals(new LocalDate(0, 2, 29), XsdDateTimeUtils.toLocalDate("0000-02-29"));
+    assertEquals(new LocalDate(123456, 12, 31), XsdDateTimeUtils.toLocalDate("123456-12-31"));
+  }
+
+  @Test
+  public void parseSlices() {
+    String text = "<d>2013-01-31T11:30:15Z</d>";
+    long expected = new DateTime(2013, 1, 31, 11, 30, 15, 0, DateTimeZone.UTC).getMillis();
+    assertEquals(expected, XsdDateTimeUtils.parseDateTime(text, 3, 23));
+    assertEquals(expected, XsdDateTimeUtils.parseDateTime(text.toCharArray(), 3, 20));
+    assertEquals(expected, XsdDateTimeUtils.parseDateTime(text.getBytes(StandardCharsets.US_ASCII), 3, 20));
+    assertEquals(15736, XsdDateTimeUtils.parseDate(text, 3, 13));
+    assertEquals(15736, XsdDateTimeUtils.parseDate(text.toCharArray(), 3, 10));
+    assertEquals(15736, XsdDateTimeUtils.parseDate(text.getBytes(StandardCharsets.US_ASCII), 3, 10));
+    assertEquals(41415000, XsdDateTimeUtils.parseTime(text, 14, 23));
+    assertEquals(41415000, XsdDateTimeUtils.parseTime(text.toCharArray(), 14, 9));
+    assertEquals(41415000, XsdDateTimeUtils.parseTime(text.getBytes(StandardCharsets.US_ASCII), 14, 9));
+  }
+
+  @Test
+  public void parseDateWithZone() {
+    assertEquals(15736, XsdDateTimeUtils.parseDate("2013-01-31Z"));
+    assertEquals(15736, XsdDateTimeUtils.parseDate("2013-01-31-14:00"));
+    assertEquals(-719893, XsdDateTimeUtils.parseDate("-0001-01-01"));
+  }
+
+  @Test
+  public void toDateTimeKeepsOffset() {
+    DateTime dateTime = XsdDateTimeUtils.toDateTime("2013-01-31T12:30:00-05:30");
+    assertEquals(new DateTime(2013, 1, 31, 12, 30, 0, 0, DateTimeZone.forOffsetMillis(-330 * 60000)), dateTime);
+    assertEquals(LONDON, XsdDateTimeUtils.toDateTime("2013-01-31T12:30:00").getZone());
+  }
+
+  @Test
+  public void toLocalTime() {
+    assertEquals(new LocalTime(23, 59, 59, 999), XsdDateTimeUtils.toLocalTime("23:59:59.999+01:00"));
+  }
+
+  @Test
+  public void agreesWithDatatypeFactory() throws DatatypeConfigurationException {
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    String[] values = { "2013-01-31T12:30:15.25+01:00", "1969-12-31T23:59:59.999Z", "0001-01-01T00:00:00-14:00",
+        "2400-02-29T13:00:00.1+14:00", "1600-03-01T00:00:00.000000001Z" };
+    for (String value : values) {
+      assertEquals(value, factory.newXMLGregorianCalendar(value).toGregorianCalendar().getTimeInMillis(),
+          XsdDateTimeUtils.parseDateTime(value));
+    }
+  }
+
+  @Test
+  public void rejectsInvalidText() {
+    String[] dateTimes = { "", "2013-01-31", "2013-01-31T", "2013-01-31 12:00:00", "13-01-31T12:00:00",
+        "02013-01-31T12:00:00", "+2013-01-31T12:00:00", "-0000-01-01T12:00:00", "2013-1-31T12:00:00",
+        "2013-13-01T12:00:00", "2013-02-29T12:00:00", "2013-01-00T12:00:00", "2013-01-31T25:00:00",
+        "2013-01-31T24:00:01", "2013-01-31T12:60:00", "2013-01-31T12:00:60", "2013-01-31T12:00:00.",
+        "2013-01-31T12:00:00.1x", "2013-01-31T12:00", "2013-01-31T12:00:00+15:00", "2013-01-31T12:00:00+01:60",
+        "2013-01-31T12:00:00+0100", "2013-01-31T12:00:00z", "2013-01-31T12:00:00ZZ", "1000000-01-01T12:00:00" };
+    for (String dateTime : dateTimes) {
+      try {
+        XsdDateTimeUtils.parseDateTime(dateTime);
+        throw new AssertionError("Parsed " + dateTime);
+      } catch (IllegalArgumentException e) {
+        assertEquals("Invalid xsd:dateTime: '" + dateTime + "'", e.getMessage());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsDateTimeAsDate() {
+    XsdDateTimeUtils.parseDate("2013-01-31T12:00:00");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsDateAsTime() {
+    XsdDateTimeUtils.parseTime("2013-01-31");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonAsciiBytes() {
+    byte[] text = "2013-01-３1".getBytes(StandardCharsets.UTF_8);
+    XsdDateTimeUtils.parseDate(text, 0, text.length);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void rangeOutOfBounds() {
+    XsdDateTimeUtils.parseDate("2013-01-31".toCharArray(), 1, 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nullText() {
+    XsdDateTimeUtils.parseDateTime(null);
+  }
+
+  @Test
+  public void appendDateTime() {
+    long millis = new DateTime(2013, 1, 31, 11, 30, 15, 250, DateTimeZone.UTC).getMillis();
+    assertEquals("2013-01-31T11:30:15.25Z", XsdDateTimeUtils.appendDateTime(new StringBuilder(), millis).toString());
+    assertEquals("2013-01-31T06:00:15.25-05:30",
+        XsdDateTimeUtils.appendDateTime(new StringBuilder(), millis, DateTimeZone.forOffsetMillis(-330 * 60000))
+            .toString());
+    assertEquals("2013-07-01T12:00:00+01:00", XsdDateTimeUtils.appendDateTime(new StringBuilder(),
+        new DateTime(2013, 7, 1, 12, 0, 0, 0, LONDON).getMillis(), LONDON).toString());
+  }
+
+  @Test
+  public void formatIntoBuffers() {
+    long millis = new DateTime(-12345, 6, 7, 8, 9, 10, 5, DateTimeZone.UTC).getMillis();
+    char[] chars = new char[XsdDateTimeUtils.MAX_DATE_TIME_LENGTH + 2];
+    int end = XsdDateTimeUtils.formatDateTime(millis, chars, 2);
+    assertEquals("-12345-06-07T08:09:10.005Z", new String(chars, 2, end - 2));
+    byte[] bytes = new byte[XsdDateTimeUtils.MAX_DATE_TIME_LENGTH];
+    end = XsdDateTimeUtils.formatDateTime(millis, bytes, 0);
+    assertEquals("-12345-06-07T08:09:10.005Z", new String(bytes, 0, end, StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void appendDateAndTime() {
+    int epochDay = EpochDays.fromFields(33, 4, 3);
+    assertEquals("0033-04-03", XsdDateTimeUtils.appendDate(new StringBuilder(), epochDay).toString());
+    assertEquals("00:00:00", XsdDateTimeUtils.appendTime(new StringBuilder(), 0).toString());
+    assertEquals("23:59:59.999", XsdDateTimeUtils.appendTime(new StringBuilder(), 86399999).toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void formatOutOfRange() {
+    XsdDateTimeUtils.appendDateTime(new StringBuilder(), Long.MAX_VALUE);
+  }
+
+  @Test
+  public void formatAndParseRoundTrip() {
+    Random random = new Random(42);
+    StringBuilder builder = new StringBuilder();
+    DateTimeZone[] zones = { DateTimeZone.UTC, LONDON, DateTimeZone.forOffsetHours(-14),
+        DateTimeZone.forOffsetHoursMinutes(5, 45) };
+    for (int i = 0; i < 10000; i++) {
+      long millis = (long) (random.nextDouble() * 2e14) - (long) 1e14;
+      DateTimeZone zone = zones[i % zones.length];
+      builder.setLength(0);
+      XsdDateTimeUtils.appendDateTime(builder, millis, zone);
+      assertEquals(builder.toString(), millis, XsdDateTimeUtils.parseDateTime(builder));
+      assertEquals(builder.toString(), new DateTime(millis, zone).toLocalDate(), XsdDateTimeUtils.toLocalDate(builder
+          .substring(0, builder.indexOf("T"))));
+    }
+  }
+
+}